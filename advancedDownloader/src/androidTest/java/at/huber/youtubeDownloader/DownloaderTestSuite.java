@@ -0,0 +1,9 @@
+package at.huber.youtubeDownloader;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses({SegmentedDownloaderTestCases.class, ResumeTestCases.class, Mp4MuxerTestCases.class,
+        MuxingDownloaderTestCases.class})
+public class DownloaderTestSuite {}
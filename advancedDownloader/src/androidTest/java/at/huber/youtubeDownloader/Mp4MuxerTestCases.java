@@ -0,0 +1,429 @@
+package at.huber.youtubeDownloader;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static at.huber.youtubeDownloader.SegmentedDownloaderTestCases.readFile;
+import static at.huber.youtubeDownloader.SegmentedDownloaderTestCases.tempFile;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class Mp4MuxerTestCases {
+
+    private static final String[] CONTAINERS = {"moov", "trak", "edts", "mdia", "minf", "stbl", "mvex", "moof", "traf"};
+
+    @Test
+    public void testUnfragmentedMerge() throws Throwable {
+        // The video has its samples before the moov and version 1 boxes
+        byte[] videoSamples = samples("V", 5, 50);
+        ByteArrayOutputStream video = new ByteArrayOutputStream();
+        video.write(ftyp());
+        int videoPayload = video.size() + 8;
+        video.write(box("mdat", videoSamples));
+        video.write(box("moov",
+                fullBox("mvhd", 1, longs(0, 0), ints(1000), longs(2000), new byte[76], ints(2)),
+                box("trak",
+                        fullBox("tkhd", 1, longs(0, 0), ints(7, 0), longs(2000), new byte[60]),
+                        box("mdia", mdhd(90000), hdlr("vide"),
+                                box("minf", box("stbl", stco(videoPayload, 5, 50)))))));
+
+        // The audio has a 64 bit mdat header behind the moov, other timescales and co64
+        byte[] audioSamples = samples("A", 4, 35);
+        byte[] audioMoov = audioMoov(0);
+        int audioPayload = ftyp().length + audioMoov.length + 16;
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        audio.write(ftyp());
+        audio.write(audioMoov(audioPayload));
+        audio.write(concat(ints(1), type("mdat"), longs(16 + audioSamples.length), audioSamples));
+
+        ByteBuffer out = ByteBuffer.wrap(mux(video.toByteArray(), audio.toByteArray()));
+        int moov = find(out, 0, out.limit(), "moov");
+        int mvhd = find(out, moov, "mvhd");
+        assertEquals(3000, out.getLong(mvhd + 8 + 24));
+        assertEquals(3, out.getInt(mvhd + size(out, mvhd) - 4));
+
+        List<Integer> traks = findAll(out, moov, "trak");
+        assertEquals(2, traks.size());
+        int videoTkhd = find(out, traks.get(0), "tkhd");
+        assertEquals(1, out.getInt(videoTkhd + 8 + 20));
+        assertEquals(2000, out.getLong(videoTkhd + 8 + 28));
+        int audioTkhd = find(out, traks.get(1), "tkhd");
+        assertEquals(2, out.getInt(audioTkhd + 8 + 12));
+        assertEquals(3000, out.getInt(audioTkhd + 8 + 20));
+        // Edit list durations are in the movie timescale, media times stay
+        int elst = find(out, find(out, traks.get(1), "edts"), "elst");
+        assertEquals(3000, out.getInt(elst + 16));
+        assertEquals(1024, out.getInt(elst + 20));
+
+        assertChunks(out, find(out, find(out, find(out, find(out, traks.get(0), "mdia"), "minf"), "stbl"), "stco"),
+                "V", 5);
+        assertChunks(out, find(out, find(out, find(out, find(out, traks.get(1), "mdia"), "minf"), "stbl"), "stco"),
+                "A", 4);
+    }
+
+    @Test
+    public void testFragmentedMerge() throws Throwable {
+        Stream video = fragmentedStream("vide", 90000, new long[]{0, 90000, 180000}, "V", false, 0);
+        Stream audio = fragmentedStream("soun", 44100, new long[]{0, 44100, 88200, 132300}, "A", true, 1);
+        ByteBuffer out = ByteBuffer.wrap(mux(video.bytes, audio.bytes));
+
+        int moov = find(out, 0, out.limit(), "moov");
+        List<Integer> trexes = findAll(out, find(out, moov, "mvex"), "trex");
+        assertEquals(1, out.getInt(trexes.get(0) + 12));
+        assertEquals(2, out.getInt(trexes.get(1) + 12));
+        // Interleaved by start time, video first at the same time
+        assertEquals("V0 A0 V1 A1 V2 A2 A3", describeFragments(out, 1));
+    }
+
+    @Test
+    public void testPatchMoof() throws Throwable {
+        byte[] moof = box("moof",
+                fullBox("mfhd", 0, ints(5)),
+                box("traf", fullBox("tfhd", 0, 0x1, ints(9), longs(1000))),
+                box("traf", fullBox("tfhd", 0, 0x20000, ints(9))));
+        ByteBuffer buffer = ByteBuffer.wrap(moof);
+        Mp4Muxer.patchMoof(buffer, 42, 2, 500);
+        assertEquals(42, buffer.getInt(find(buffer, 0, "mfhd") + 12));
+        List<Integer> trafs = findAll(buffer, 0, "traf");
+        int tfhd = find(buffer, trafs.get(0), "tfhd");
+        assertEquals(2, buffer.getInt(tfhd + 12));
+        assertEquals(1500, buffer.getLong(tfhd + 16));
+        tfhd = find(buffer, trafs.get(1), "tfhd");
+        assertEquals(2, buffer.getInt(tfhd + 12));
+        assertEquals(16, size(buffer, tfhd));
+
+        // A moof with a 64 bit size
+        byte[] children = concat(fullBox("mfhd", 0, ints(5)), box("traf", fullBox("tfhd", 0, 0x1, ints(9), longs(1000))));
+        buffer = ByteBuffer.wrap(concat(ints(1), type("moof"), longs(16 + children.length), children));
+        Mp4Muxer.patchMoof(buffer, 7, 1, -200);
+        assertEquals(7, buffer.getInt(16 + 12));
+        assertEquals(800, buffer.getLong(16 + 16 + 8 + 16));
+    }
+
+    @Test
+    public void testReadSegmentIndex() throws Throwable {
+        byte[] head = concat(ftyp(), box("moov", new byte[8]));
+        // first_offset leaves a gap of 100 bytes behind the sidx
+        byte[] sidx = fullBox("sidx", 0, ints(1, 1000, 500, 100), ints(2), reference(300, 2000), reference(400, 1000));
+        List<Mp4Muxer.IndexedFragment> fragments = Mp4Muxer.readSegmentIndex(ByteBuffer.wrap(concat(head, sidx)));
+        assertEquals(2, fragments.size());
+        long first = head.length + sidx.length + 100;
+        assertEquals(first, fragments.get(0).offset);
+        assertEquals(300, fragments.get(0).size);
+        assertEquals(0.5, fragments.get(0).startSeconds, 1e-9);
+        assertEquals(first + 300, fragments.get(1).offset);
+        assertEquals(400, fragments.get(1).size);
+        assertEquals(2.5, fragments.get(1).startSeconds, 1e-9);
+
+        // Version 1 has 64 bit times and offsets
+        sidx = fullBox("sidx", 1, ints(1, 48000), longs(48000L * 100000, 0), ints(1), reference(700, 96000));
+        fragments = Mp4Muxer.readSegmentIndex(ByteBuffer.wrap(concat(head, sidx)));
+        assertEquals(1, fragments.size());
+        assertEquals(head.length + sidx.length, fragments.get(0).offset);
+        assertEquals(700, fragments.get(0).size);
+        assertEquals(100000, fragments.get(0).startSeconds, 1e-9);
+
+        sidx = fullBox("sidx", 0, ints(1, 1000, 0, 0), ints(1), ints(0x80000000 | 300, 1000, 0));
+        try {
+            Mp4Muxer.readSegmentIndex(ByteBuffer.wrap(concat(head, sidx)));
+            fail("A hierarchical index was accepted");
+        } catch (IOException e) {
+            // The fragments are only listed in the referenced sidx boxes
+        }
+        try {
+            Mp4Muxer.readSegmentIndex(ByteBuffer.wrap(head));
+            fail("A file without index was accepted");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static byte[] audioMoov(int payloadStart) throws IOException {
+        ByteArrayOutputStream co64 = new ByteArrayOutputStream();
+        co64.write(ints(4));
+        for (int i = 0; i < 4; i++) {
+            co64.write(longs(payloadStart + i * 35));
+        }
+        return box("moov",
+                fullBox("mvhd", 0, ints(0, 0, 44100, 132300), new byte[76], ints(2)),
+                box("trak",
+                        fullBox("tkhd", 0, ints(0, 0, 1, 0, 132300), new byte[60]),
+                        box("edts", fullBox("elst", 0, ints(1, 132300, 1024, 0x10000))),
+                        box("mdia", mdhd(44100), hdlr("soun"),
+                                box("minf", box("stbl", fullBox("co64", 0, co64.toByteArray()))))));
+    }
+
+    /**
+     * Every chunk offset points to the sample with its index.
+     */
+    private static void assertChunks(ByteBuffer out, int stco, String prefix, int count) {
+        assertEquals(count, out.getInt(stco + 12));
+        for (int i = 0; i < count; i++) {
+            int offset = out.getInt(stco + 16 + i * 4);
+            assertEquals(sample(prefix, i), string(out, offset, 4));
+        }
+    }
+
+    /**
+     * The marker of the first sample of every fragment, after checking the sequence numbers
+     * and that the data offsets of every moof point to its samples.
+     */
+    static String describeFragments(ByteBuffer out, int sequenceStep) {
+        StringBuilder fragments = new StringBuilder();
+        int lastSequenceNumber = 0;
+        for (int moof : findAll(out, 0, "moof")) {
+            int sequenceNumber = out.getInt(find(out, moof, "mfhd") + 12);
+            assertTrue(sequenceNumber > lastSequenceNumber);
+            if (sequenceStep > 0)
+                assertEquals(lastSequenceNumber + sequenceStep, sequenceNumber);
+            lastSequenceNumber = sequenceNumber;
+
+            int traf = find(out, moof, "traf");
+            int tfhd = find(out, traf, "tfhd");
+            int trackId = out.getInt(tfhd + 12);
+            long base = (out.getInt(tfhd + 8) & 0x1) != 0 ? out.getLong(tfhd + 16) : moof;
+            int trun = find(out, traf, "trun");
+            String sample = string(out, (int) (base + out.getInt(trun + 16)), 2);
+            assertEquals(sample.startsWith("V") ? 1 : 2, trackId);
+            if (fragments.length() > 0)
+                fragments.append(' ');
+            fragments.append(sample);
+        }
+        return fragments.toString();
+    }
+
+    static byte[] mux(byte[] video, byte[] audio) throws IOException {
+        File videoFile = tempFile();
+        File audioFile = tempFile();
+        File outFile = tempFile();
+        try {
+            write(videoFile, video);
+            write(audioFile, audio);
+            Mp4Muxer.mux(videoFile, audioFile, outFile);
+            return readFile(outFile);
+        } finally {
+            videoFile.delete();
+            audioFile.delete();
+            outFile.delete();
+        }
+    }
+
+    static void write(File file, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * A DASH stream of one track: ftyp, moov and sidx followed by one moof and mdat per time.
+     */
+    static class Stream {
+        final byte[] bytes;
+        // The last byte of the sidx
+        final int indexEnd;
+
+        Stream(byte[] bytes, int indexEnd) {
+            this.bytes = bytes;
+            this.indexEnd = indexEnd;
+        }
+    }
+
+    /**
+     * @param times        the decode times of the fragments in the media timescale
+     * @param absoluteBase whether the tfhd has a base data offset or the moof is the base
+     */
+    static Stream fragmentedStream(String handler, int timescale, long[] times, String prefix,
+                                   boolean absoluteBase, int sidxVersion) throws IOException {
+        byte[] head = concat(ftyp(), box("moov",
+                fullBox("mvhd", 0, ints(0, 0, 1000, 0), new byte[76], ints(2)),
+                box("trak",
+                        fullBox("tkhd", 0, ints(0, 0, 1, 0, 0), new byte[60]),
+                        box("mdia", mdhd(timescale), hdlr(handler), box("minf", box("stbl", stco(0, 0, 0))))),
+                box("mvex", fullBox("trex", 0, ints(1, 1, 0, 0, 0)))));
+        int sidxSize = 12 + 8 + (sidxVersion == 1 ? 16 : 8) + 4 + times.length * 12;
+        long position = head.length + sidxSize;
+        ByteArrayOutputStream fragments = new ByteArrayOutputStream();
+        ByteArrayOutputStream references = new ByteArrayOutputStream();
+        for (int i = 0; i < times.length; i++) {
+            byte[] data = samples(prefix + i, 1, 40 + i * 13);
+            // moof, mfhd, traf, tfhd, tfdt and trun
+            int moofSize = 8 + 16 + 8 + (absoluteBase ? 24 : 16) + 20 + 20;
+            byte[] tfhd = absoluteBase ? fullBox("tfhd", 0, 0x1, ints(1), longs(position + moofSize + 8))
+                    : fullBox("tfhd", 0, 0x20000, ints(1));
+            byte[] moof = box("moof", fullBox("mfhd", 0, ints(i + 1)),
+                    box("traf", tfhd, fullBox("tfdt", 1, longs(times[i])),
+                            fullBox("trun", 0, 0x1, ints(1, absoluteBase ? 0 : moofSize + 8))));
+            byte[] fragment = concat(moof, box("mdat", data));
+            fragments.write(fragment);
+            position += fragment.length;
+            long duration = (i + 1 < times.length ? times[i + 1] : times[i] + timescale) - times[i];
+            references.write(reference(fragment.length, duration));
+        }
+        byte[] sidx = fullBox("sidx", sidxVersion, ints(1, timescale),
+                sidxVersion == 1 ? longs(times[0], 0) : ints((int) times[0], 0), ints(times.length),
+                references.toByteArray());
+        if (sidx.length != sidxSize)
+            throw new IllegalStateException("sidx has " + sidx.length + " bytes");
+        return new Stream(concat(head, sidx, fragments.toByteArray()), head.length + sidx.length - 1);
+    }
+
+    private static byte[] reference(long size, long duration) {
+        return ints((int) size, (int) duration, 0x90000000);
+    }
+
+    private static byte[] ftyp() {
+        return box("ftyp", type("dash"), ints(0), type("iso6"));
+    }
+
+    private static byte[] mdhd(int timescale) {
+        return fullBox("mdhd", 0, ints(0, 0, timescale, 0, 0));
+    }
+
+    private static byte[] hdlr(String handler) {
+        return fullBox("hdlr", 0, ints(0), type(handler), new byte[13]);
+    }
+
+    private static byte[] stco(int first, int count, int step) {
+        int[] offsets = new int[count + 1];
+        offsets[0] = count;
+        for (int i = 0; i < count; i++) {
+            offsets[i + 1] = first + i * step;
+        }
+        return fullBox("stco", 0, ints(offsets));
+    }
+
+    /**
+     * The samples of a track, every one starts with its prefix and index.
+     */
+    private static byte[] samples(String prefix, int count, int size) {
+        StringBuilder samples = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            StringBuilder sample = new StringBuilder(count > 1 ? sample(prefix, i) : prefix);
+            while (sample.length() < size) {
+                sample.append('.');
+            }
+            samples.append(sample);
+        }
+        return samples.toString().getBytes();
+    }
+
+    private static String sample(String prefix, int index) {
+        return prefix + (char) ('0' + index) + "--";
+    }
+
+    static byte[] box(String type, byte[]... payloads) {
+        byte[] payload = concat(payloads);
+        return concat(ints(payload.length + 8), type(type), payload);
+    }
+
+    private static byte[] fullBox(String type, int version, byte[]... payloads) {
+        return fullBox(type, version, 0, payloads);
+    }
+
+    private static byte[] fullBox(String type, int version, int flags, byte[]... payloads) {
+        return box(type, concat(ints(version << 24 | flags), concat(payloads)));
+    }
+
+    static byte[] ints(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    static byte[] longs(long... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+        for (long value : values) {
+            buffer.putLong(value);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] type(String type) {
+        return type.getBytes();
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static String string(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes);
+    }
+
+    static int size(ByteBuffer buffer, int box) {
+        long size = buffer.getInt(box) & 0xFFFFFFFFL;
+        return (int) (size == 1 ? buffer.getLong(box + 8) : size);
+    }
+
+    /**
+     * The first child of the box with the type.
+     */
+    static int find(ByteBuffer buffer, int parent, String type) {
+        List<Integer> boxes = findAll(buffer, parent, type);
+        if (boxes.isEmpty())
+            throw new AssertionError("No " + type + " box");
+        return boxes.get(0);
+    }
+
+    /**
+     * The first top level box with the type between start and end.
+     */
+    private static int find(ByteBuffer buffer, int start, int end, String type) {
+        for (int box = start; box < end; box += size(buffer, box)) {
+            if (string(buffer, box + 4, 4).equals(type))
+                return box;
+        }
+        throw new AssertionError("No " + type + " box");
+    }
+
+    /**
+     * The children of a container box with the type or the top level boxes if the parent is 0
+     * and no container.
+     */
+    static List<Integer> findAll(ByteBuffer buffer, int parent, String type) {
+        int start;
+        int end;
+        boolean container = false;
+        for (String name : CONTAINERS) {
+            container |= string(buffer, parent + 4, 4).equals(name);
+        }
+        if (container) {
+            start = parent + (buffer.getInt(parent) == 1 ? 16 : 8);
+            end = parent + size(buffer, parent);
+        } else {
+            start = 0;
+            end = buffer.limit();
+        }
+        List<Integer> boxes = new ArrayList<>();
+        for (int box = start; box < end; box += size(buffer, box)) {
+            if (string(buffer, box + 4, 4).equals(type))
+                boxes.add(box);
+        }
+        return boxes;
+    }
+}
@@ -0,0 +1,197 @@
+package at.huber.youtubeDownloader;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import at.huber.youtubeDownloader.Mp4MuxerTestCases.Stream;
+import at.huber.youtubeDownloader.SegmentedDownloaderTestCases.RangeTransport;
+
+import static at.huber.youtubeDownloader.Mp4MuxerTestCases.describeFragments;
+import static at.huber.youtubeDownloader.Mp4MuxerTestCases.find;
+import static at.huber.youtubeDownloader.Mp4MuxerTestCases.findAll;
+import static at.huber.youtubeDownloader.Mp4MuxerTestCases.fragmentedStream;
+import static at.huber.youtubeDownloader.Mp4MuxerTestCases.mux;
+import static at.huber.youtubeDownloader.SegmentedDownloaderTestCases.readFile;
+import static at.huber.youtubeDownloader.SegmentedDownloaderTestCases.tempFile;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class MuxingDownloaderTestCases {
+
+    @Test
+    public void testDownloadMatchesMuxer() throws Throwable {
+        Stream video = fragmentedStream("vide", 90000, new long[]{0, 90000, 180000, 270000}, "V", false, 0);
+        Stream audio = fragmentedStream("soun", 44100, new long[]{0, 44100, 88200, 132300, 176400}, "A", true, 1);
+        RangeTransport transport = transport(video, audio);
+        File file = tempFile();
+        try {
+            MuxingDownloader downloader = new MuxingDownloader(transport, 3);
+            final long[] progress = new long[2];
+            assertTrue(downloader.download(stream("video", video), stream("audio", audio), file, null,
+                    new SegmentedDownloader.ProgressListener() {
+                        @Override
+                        public synchronized void onProgress(long downloadedBytes, long totalBytes) {
+                            progress[0] = Math.max(progress[0], downloadedBytes);
+                            progress[1] = totalBytes;
+                        }
+                    }));
+            byte[] expected = mux(video.bytes, audio.bytes);
+            byte[] actual = readFile(file);
+            assertEquals("V0 A0 V1 A1 V2 A2 V3 A3 A4", describeFragments(ByteBuffer.wrap(actual), 0));
+            // Only the sequence numbers differ, they leave room for several moof boxes per fragment
+            assertTrue(Arrays.equals(withoutSequenceNumbers(expected), withoutSequenceNumbers(actual)));
+            assertEquals(expected.length, progress[0]);
+            assertEquals(expected.length, progress[1]);
+
+            // The index and every fragment once
+            assertEquals(5, transport.count("video"));
+            assertEquals(6, transport.count("audio"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testInterruptedDownloadFetchesMissingFragments() throws Throwable {
+        Stream video = fragmentedStream("vide", 90000, new long[]{0, 90000, 180000, 270000}, "V", true, 1);
+        Stream audio = fragmentedStream("soun", 44100, new long[]{0, 44100, 88200, 132300}, "A", false, 0);
+        RangeTransport transport = transport(video, audio);
+        // Both indexes and three fragments
+        transport.remainingRequests = 5;
+        File file = tempFile();
+        File stateFile = new File(file.getPath() + ".fragments");
+        try {
+            MuxingDownloader downloader = new MuxingDownloader(transport, 1);
+            try {
+                downloader.download(stream("video", video), stream("audio", audio), file, stateFile, null);
+                fail("The download did not fail");
+            } catch (IOException e) {
+                // The server went offline
+            }
+            List<String> firstRun = fragmentRequests(transport);
+            assertEquals(3, firstRun.size());
+
+            transport.remainingRequests = Integer.MAX_VALUE;
+            transport.requests.clear();
+            final long[] initialProgress = {-1};
+            assertTrue(downloader.download(stream("video", video), stream("audio", audio), file, stateFile,
+                    new SegmentedDownloader.ProgressListener() {
+                        @Override
+                        public synchronized void onProgress(long downloadedBytes, long totalBytes) {
+                            if (initialProgress[0] < 0)
+                                initialProgress[0] = downloadedBytes;
+                        }
+                    }));
+            byte[] expected = mux(video.bytes, audio.bytes);
+            byte[] actual = readFile(file);
+            assertTrue(Arrays.equals(withoutSequenceNumbers(expected), withoutSequenceNumbers(actual)));
+            assertTrue(initialProgress[0] > 0);
+
+            List<String> secondRun = fragmentRequests(transport);
+            assertEquals(8 - firstRun.size(), secondRun.size());
+            for (String request : secondRun) {
+                assertFalse(request, firstRun.contains(request));
+            }
+        } finally {
+            file.delete();
+            stateFile.delete();
+        }
+    }
+
+    @Test
+    public void testUncheckedFailureFailsDownload() throws Throwable {
+        Stream video = fragmentedStream("vide", 90000, new long[]{0, 90000, 180000}, "V", false, 0);
+        Stream audio = fragmentedStream("soun", 44100, new long[]{0, 44100, 88200}, "A", false, 0);
+        RangeTransport transport = new RangeTransport() {
+            @Override
+            public synchronized Response get(String url, Map<String, String> headers) throws IOException {
+                if (url.equals("audio") && !headers.get("Range").startsWith("bytes=0-"))
+                    throw new IllegalStateException("Broken transport");
+                return super.get(url, headers);
+            }
+        };
+        transport.files.put("video", video.bytes);
+        transport.files.put("audio", audio.bytes);
+        File file = tempFile();
+        try {
+            MuxingDownloader downloader = new MuxingDownloader(transport, 2);
+            try {
+                downloader.download(stream("video", video), stream("audio", audio), file, null, null);
+                fail("The download succeeded without the audio fragments");
+            } catch (IllegalStateException e) {
+                assertEquals("Broken transport", e.getMessage());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStreamsWithoutIndexAreNotMerged() throws Throwable {
+        Stream video = fragmentedStream("vide", 90000, new long[]{0, 90000}, "V", false, 0);
+        Stream audio = fragmentedStream("soun", 44100, new long[]{0, 44100}, "A", false, 0);
+        RangeTransport transport = transport(video, audio);
+        File file = tempFile();
+        try {
+            MuxingDownloader downloader = new MuxingDownloader(transport, 2);
+            MuxingDownloader.Stream noIndex = new MuxingDownloader.Stream("audio", audio.bytes.length, -1, null);
+            assertFalse(downloader.download(stream("video", video), noIndex, file, null, null));
+            assertTrue(transport.requests.isEmpty());
+
+            // An index that ends before the sidx
+            MuxingDownloader.Stream shortIndex = new MuxingDownloader.Stream("audio", audio.bytes.length,
+                    audio.indexEnd - 20, null);
+            assertFalse(downloader.download(stream("video", video), shortIndex, file, null, null));
+            assertEquals(0, file.length());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static RangeTransport transport(Stream video, Stream audio) {
+        RangeTransport transport = new RangeTransport();
+        transport.files.put("video", video.bytes);
+        transport.files.put("audio", audio.bytes);
+        return transport;
+    }
+
+    private static MuxingDownloader.Stream stream(String url, Stream stream) {
+        return new MuxingDownloader.Stream(url, stream.bytes.length, stream.indexEnd, null);
+    }
+
+    /**
+     * The requests for fragments, without the ones for the index at the start of the streams.
+     */
+    private static List<String> fragmentRequests(RangeTransport transport) {
+        List<String> requests = new ArrayList<>();
+        synchronized (transport) {
+            for (String request : transport.requests) {
+                if (!request.contains("bytes=0-"))
+                    requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    private static byte[] withoutSequenceNumbers(byte[] file) {
+        byte[] copy = file.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(copy);
+        for (int moof : findAll(buffer, 0, "moof")) {
+            buffer.putInt(find(buffer, moof, "mfhd") + 12, 0);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,219 @@
+package at.huber.youtubeDownloader;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import at.huber.youtubeDownloader.SegmentedDownloaderTestCases.RangeTransport;
+
+import static at.huber.youtubeDownloader.SegmentedDownloaderTestCases.randomBytes;
+import static at.huber.youtubeDownloader.SegmentedDownloaderTestCases.readFile;
+import static at.huber.youtubeDownloader.SegmentedDownloaderTestCases.tempFile;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class ResumeTestCases {
+
+    private static final int BLOCK_SIZE = SegmentedDownloader.BLOCK_SIZE;
+
+    @Test
+    public void testBitmapRoundTrip() throws Throwable {
+        File file = tempFile();
+        try {
+            // 11 blocks, the last one has a single byte
+            BlockBitmap bitmap = BlockBitmap.create(file, 41, 4);
+            assertEquals(11, bitmap.getBlockCount());
+            bitmap.setComplete(0);
+            bitmap.setComplete(3);
+            bitmap.setComplete(3);
+            bitmap.save();
+
+            BlockBitmap loaded = BlockBitmap.load(file, 41, 4);
+            for (int block = 0; block < loaded.getBlockCount(); block++) {
+                assertEquals(block == 0 || block == 3, loaded.isComplete(block));
+            }
+            assertEquals(8, loaded.getCompletedBytes());
+            assertFalse(loaded.isAllComplete());
+
+            // The short last block only counts with its real size
+            loaded.setComplete(10);
+            assertEquals(9, loaded.getCompletedBytes());
+            for (int block = 0; block < loaded.getBlockCount(); block++) {
+                loaded.setComplete(block);
+            }
+            assertTrue(loaded.isAllComplete());
+            assertEquals(41, loaded.getCompletedBytes());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testBitmapOfOtherFileIsIgnored() throws Throwable {
+        File file = tempFile();
+        try {
+            BlockBitmap bitmap = BlockBitmap.create(file, 41, 4);
+            bitmap.setComplete(0);
+            bitmap.save();
+
+            assertEquals(0, BlockBitmap.load(file, 42, 4).getCompletedBytes());
+            assertEquals(0, BlockBitmap.load(file, 41, 8).getCompletedBytes());
+            assertEquals(4, BlockBitmap.load(file, 41, 4).getCompletedBytes());
+            // Neither is a missing or empty file an error
+            assertEquals(0, BlockBitmap.load(new File(file.getPath() + ".missing"), 41, 4).getCompletedBytes());
+            BlockBitmap.create(file, 0, 4).save();
+            assertEquals(0, BlockBitmap.load(file, 41, 4).getCompletedBytes());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDownloadContinuesWithMissingBlocks() throws Throwable {
+        byte[] data = randomBytes(16 * BLOCK_SIZE + 9);
+        RangeTransport transport = new RangeTransport();
+        transport.files.put("file", data);
+        transport.remainingRequests = 2;
+        File file = tempFile();
+        File stateFile = new File(file.getPath() + ".blocks");
+        try {
+            SegmentedDownloader downloader = new SegmentedDownloader(transport);
+            downloader.setConnections(1);
+            try {
+                downloader.download("file", data.length, file, stateFile, null, null);
+                fail("The download did not fail");
+            } catch (IOException e) {
+                // The server went offline
+            }
+            BlockBitmap bitmap = BlockBitmap.load(stateFile, data.length, BLOCK_SIZE);
+            long firstRun = bitmap.getCompletedBytes();
+            assertTrue(firstRun > 0);
+
+            transport.remainingRequests = Integer.MAX_VALUE;
+            transport.requests.clear();
+            final long[] initialProgress = {-1};
+            downloader.download("file", data.length, file, stateFile, null,
+                    new SegmentedDownloader.ProgressListener() {
+                        @Override
+                        public synchronized void onProgress(long downloadedBytes, long totalBytes) {
+                            if (initialProgress[0] < 0)
+                                initialProgress[0] = downloadedBytes;
+                        }
+                    });
+            assertTrue(Arrays.equals(data, readFile(file)));
+            assertEquals(firstRun, initialProgress[0]);
+            for (long[] range : transport.ranges()) {
+                assertFalse(bitmap.isComplete((int) (range[0] / BLOCK_SIZE)));
+            }
+        } finally {
+            file.delete();
+            stateFile.delete();
+        }
+    }
+
+    @Test
+    public void testExpiredUrlIsResolvedOnce() throws Throwable {
+        final AtomicInteger resolves = new AtomicInteger();
+        final StreamUrl url = new StreamUrl("old", new SegmentedDownloader.UrlResolver() {
+            @Override
+            public String resolveUrl(String expiredUrl) throws IOException {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return "new" + resolves.incrementAndGet();
+            }
+        });
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        url.refresh("old", new StreamUrl.ExpiredException(403));
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(1, resolves.get());
+        assertEquals("new1", url.get());
+    }
+
+    @Test
+    public void testConnectionsShareResolvedUrl() throws Throwable {
+        byte[] data = randomBytes(16 * BLOCK_SIZE);
+        RangeTransport transport = new RangeTransport();
+        transport.files.put("new", data);
+        transport.expired.add("old");
+        final AtomicInteger resolves = new AtomicInteger();
+        File file = tempFile();
+        try {
+            SegmentedDownloader downloader = new SegmentedDownloader(transport);
+            downloader.setConnections(4);
+            downloader.download("old", data.length, file, null, new SegmentedDownloader.UrlResolver() {
+                @Override
+                public String resolveUrl(String expiredUrl) {
+                    resolves.incrementAndGet();
+                    return "new";
+                }
+            }, null);
+            assertTrue(Arrays.equals(data, readFile(file)));
+            assertEquals(1, resolves.get());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRefreshLimit() throws Throwable {
+        final AtomicInteger resolves = new AtomicInteger();
+        StreamUrl url = new StreamUrl("url0", new SegmentedDownloader.UrlResolver() {
+            @Override
+            public String resolveUrl(String expiredUrl) {
+                return "url" + resolves.incrementAndGet();
+            }
+        });
+        StreamUrl.ExpiredException expired = new StreamUrl.ExpiredException(410);
+        for (int i = 0; i < 3; i++) {
+            url.refresh(url.get(), expired);
+        }
+        assertEquals("url3", url.get());
+        try {
+            url.refresh(url.get(), expired);
+            fail("The url was refreshed too often");
+        } catch (StreamUrl.ExpiredException e) {
+            assertSame(expired, e);
+        }
+        assertEquals(3, resolves.get());
+
+        try {
+            new StreamUrl("url", null).refresh("url", expired);
+            fail("The url was refreshed without a resolver");
+        } catch (StreamUrl.ExpiredException e) {
+            assertSame(expired, e);
+        }
+    }
+}
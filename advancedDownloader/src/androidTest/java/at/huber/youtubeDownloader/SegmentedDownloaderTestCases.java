@@ -0,0 +1,319 @@
+package at.huber.youtubeDownloader;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import at.huber.youtubeExtractor.HttpTransport;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class SegmentedDownloaderTestCases {
+
+    private static final int BLOCK_SIZE = SegmentedDownloader.BLOCK_SIZE;
+
+    @Test
+    public void testChunksAreWrittenToTheirPositions() throws Throwable {
+        byte[] data = randomBytes(37 * BLOCK_SIZE + 123);
+        RangeTransport transport = new RangeTransport();
+        transport.files.put("file", data);
+        File file = tempFile();
+        try {
+            SegmentedDownloader downloader = new SegmentedDownloader(transport);
+            downloader.setConnections(3);
+            final long[] progress = new long[1];
+            downloader.download("file", data.length, file, new SegmentedDownloader.ProgressListener() {
+                @Override
+                public synchronized void onProgress(long downloadedBytes, long totalBytes) {
+                    progress[0] = Math.max(progress[0], downloadedBytes);
+                }
+            });
+            assertTrue(Arrays.equals(data, readFile(file)));
+            assertEquals(data.length, progress[0]);
+
+            // The chunks start at block boundaries and cover the file exactly once
+            boolean[] covered = new boolean[data.length];
+            for (long[] range : transport.ranges()) {
+                assertEquals(0, range[0] % BLOCK_SIZE);
+                for (long i = range[0]; i <= range[1]; i++) {
+                    assertTrue(!covered[(int) i]);
+                    covered[(int) i] = true;
+                }
+            }
+            for (boolean c : covered) {
+                assertTrue(c);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDroppedRequestIsContinued() throws Throwable {
+        byte[] data = randomBytes(3 * BLOCK_SIZE + 77);
+        RangeTransport transport = new RangeTransport();
+        transport.files.put("file", data);
+        transport.dropAfterBytes = BLOCK_SIZE + 1000;
+        transport.drops = 1;
+        File file = tempFile();
+        try {
+            SegmentedDownloader downloader = new SegmentedDownloader(transport);
+            downloader.setConnections(1);
+            downloader.download("file", data.length, file, null);
+            assertTrue(Arrays.equals(data, readFile(file)));
+
+            List<long[]> ranges = transport.ranges();
+            assertEquals(2, ranges.size());
+            assertEquals(0, ranges.get(0)[0]);
+            // The second request starts where the first one broke off
+            assertEquals(BLOCK_SIZE + 1000, ranges.get(1)[0]);
+            assertEquals(data.length - 1, ranges.get(1)[1]);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testServerWithoutRangeSupport() throws Throwable {
+        RangeTransport transport = new RangeTransport();
+        transport.ignoreRange = true;
+        File file = tempFile();
+        try {
+            // The first chunk can be taken from the start of a full response
+            byte[] small = randomBytes(BLOCK_SIZE + 5);
+            transport.files.put("small", small);
+            SegmentedDownloader downloader = new SegmentedDownloader(transport);
+            downloader.setConnections(1);
+            downloader.download("small", small.length, file, null);
+            assertTrue(Arrays.equals(small, readFile(file)));
+
+            byte[] large = randomBytes(20 * BLOCK_SIZE);
+            transport.files.put("large", large);
+            try {
+                downloader.download("large", large.length, file, null);
+                fail("A full response for a later chunk was accepted");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Unexpected status 200"));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testAdaptChunkBlocks() {
+        // Grows at most to the double size
+        assertEquals(8, SegmentedDownloader.adaptChunkBlocks(4, 4L * BLOCK_SIZE, 100));
+        assertEquals(8, SegmentedDownloader.adaptChunkBlocks(4, 4L * BLOCK_SIZE, 0));
+        assertEquals(32, SegmentedDownloader.adaptChunkBlocks(32, 32L * BLOCK_SIZE, 100));
+        // Takes about three seconds at the measured speed
+        assertEquals(6, SegmentedDownloader.adaptChunkBlocks(4, 4L * BLOCK_SIZE, 2000));
+        assertEquals(4, SegmentedDownloader.adaptChunkBlocks(16, 16L * BLOCK_SIZE, 12000));
+        assertEquals(1, SegmentedDownloader.adaptChunkBlocks(4, BLOCK_SIZE, 100000));
+    }
+
+    @Test
+    public void testFailedStateSaveKeepsDownloadFailure() throws Throwable {
+        byte[] data = randomBytes(8 * BLOCK_SIZE);
+        RangeTransport transport = new RangeTransport();
+        transport.files.put("file", data);
+        transport.dropAfterBytes = BLOCK_SIZE / 2;
+        transport.drops = Integer.MAX_VALUE;
+        File file = tempFile();
+        // The state can't be saved since its directory does not exist
+        File stateFile = new File(file.getPath() + ".missing", "state");
+        try {
+            SegmentedDownloader downloader = new SegmentedDownloader(transport);
+            downloader.setConnections(1);
+            try {
+                downloader.download("file", data.length, file, stateFile, null, null);
+                fail("The download did not fail");
+            } catch (IOException e) {
+                assertEquals(RangeTransport.DROPPED, e.getMessage());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testUncheckedFailureFailsDownload() throws Throwable {
+        byte[] data = randomBytes(8 * BLOCK_SIZE);
+        RangeTransport transport = new RangeTransport();
+        transport.files.put("file", data);
+        transport.expired.add("old");
+        File file = tempFile();
+        try {
+            SegmentedDownloader downloader = new SegmentedDownloader(transport);
+            downloader.setConnections(2);
+            try {
+                downloader.download("old", data.length, file, null, new SegmentedDownloader.UrlResolver() {
+                    @Override
+                    public String resolveUrl(String expiredUrl) {
+                        throw new IllegalStateException("Broken resolver");
+                    }
+                }, null);
+                fail("The download succeeded without any chunk");
+            } catch (IllegalStateException e) {
+                assertEquals("Broken resolver", e.getMessage());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    static File tempFile() throws IOException {
+        return File.createTempFile("download-test", ".bin");
+    }
+
+    static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n == -1)
+                    break;
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * Serves byte arrays by url and answers range requests like a file server.
+     */
+    static class RangeTransport implements HttpTransport {
+
+        static final String DROPPED = "Connection reset";
+
+        final Map<String, byte[]> files = new HashMap<>();
+        // Urls answered with 403
+        final Set<String> expired = new HashSet<>();
+        final List<String> requests = new ArrayList<>();
+        // Requests served before the server goes offline
+        volatile int remainingRequests = Integer.MAX_VALUE;
+        // The number of responses which break off after dropAfterBytes
+        volatile int drops;
+        volatile int dropAfterBytes;
+        volatile boolean ignoreRange;
+
+        @Override
+        public synchronized Response get(String url, Map<String, String> headers) throws IOException {
+            if (remainingRequests-- <= 0)
+                throw new IOException("Offline");
+            String range = headers.get("Range");
+            requests.add(url + " " + range);
+            if (expired.contains(url))
+                return new FakeResponse(403, new byte[0], 0, 0, false);
+            byte[] data = files.get(url);
+            if (data == null)
+                return new FakeResponse(404, new byte[0], 0, 0, false);
+            if (range == null || ignoreRange)
+                return new FakeResponse(200, data, 0, data.length, drops-- > 0);
+            long[] bounds = parseRange(range);
+            int end = (int) Math.min(bounds[1] == -1 ? data.length - 1 : bounds[1], data.length - 1);
+            return new FakeResponse(206, data, (int) bounds[0], end - (int) bounds[0] + 1, drops-- > 0);
+        }
+
+        /**
+         * The requested ranges in request order, the end is -1 for open ranges.
+         */
+        synchronized List<long[]> ranges() {
+            List<long[]> ranges = new ArrayList<>();
+            for (String request : requests) {
+                String range = request.substring(request.indexOf(' ') + 1);
+                if (!range.equals("null"))
+                    ranges.add(parseRange(range));
+            }
+            return ranges;
+        }
+
+        /**
+         * The number of requests for the url.
+         */
+        synchronized int count(String url) {
+            int count = 0;
+            for (String request : requests) {
+                if (request.startsWith(url + " "))
+                    count++;
+            }
+            return count;
+        }
+
+        private static long[] parseRange(String range) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            return new long[]{Long.parseLong(bounds[0]), bounds[1].isEmpty() ? -1 : Long.parseLong(bounds[1])};
+        }
+
+        private class FakeResponse implements Response {
+
+            private final int statusCode;
+            private final InputStream body;
+
+            FakeResponse(int statusCode, byte[] data, int offset, int length, final boolean drop) {
+                this.statusCode = statusCode;
+                final int dropAfter = dropAfterBytes;
+                body = new FilterInputStream(new ByteArrayInputStream(data, offset, length)) {
+                    private int read;
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (drop && read >= dropAfter)
+                            throw new IOException(DROPPED);
+                        int n = super.read(b, off, drop ? Math.min(len, dropAfter - read) : len);
+                        if (n > 0)
+                            read += n;
+                        return n;
+                    }
+                };
+            }
+
+            @Override
+            public int getStatusCode() {
+                return statusCode;
+            }
+
+            @Override
+            public InputStream getBody() {
+                return body;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void abort() {
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package at.huber.youtubeDownloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Remembers which fixed size blocks of a download are already written to the file. The bitmap
+ * is persisted, so a download that was interrupted continues with the missing blocks.
+ * <p/>
+ * The bitmap is written to a temp file first and then renamed, so a crash never leaves a
+ * partly written bitmap behind.
+ */
+final class BlockBitmap {
+
+    private static final int VERSION = 1;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File file;
+    private final long length;
+    private final int blockSize;
+    private final int blockCount;
+    private final byte[] bits;
+    private int completedBlocks;
+
+    private BlockBitmap(File file, long length, int blockSize) {
+        this.file = file;
+        this.length = length;
+        this.blockSize = blockSize;
+        blockCount = (int) ((length + blockSize - 1) / blockSize);
+        bits = new byte[(blockCount + 7) / 8];
+    }
+
+    /**
+     * An empty bitmap, a persisted bitmap is overwritten when the new one is saved.
+     *
+     * @see #load(File, long, int)
+     */
+    static BlockBitmap create(File file, long length, int blockSize) {
+        return new BlockBitmap(file, length, blockSize);
+    }
+
+    /**
+     * Load the bitmap of a download. A bitmap of a file with a different size is ignored.
+     *
+     * @param file      where the bitmap is persisted or null to keep it only in memory
+     * @param length    the size of the downloaded file
+     * @param blockSize the size of one block
+     * @return the loaded bitmap or an empty one if there is none
+     */
+    static BlockBitmap load(File file, long length, int blockSize) {
+        BlockBitmap bitmap = new BlockBitmap(file, length, blockSize);
+        if (file == null || !file.exists())
+            return bitmap;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION || in.readLong() != length || in.readInt() != blockSize)
+                return bitmap;
+            in.readFully(bitmap.bits);
+            for (int block = 0; block < bitmap.blockCount; block++) {
+                if (bitmap.isComplete(block))
+                    bitmap.completedBlocks++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new BlockBitmap(file, length, blockSize);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    int getBlockCount() {
+        return blockCount;
+    }
+
+    synchronized boolean isComplete(int block) {
+        return (bits[block >> 3] & (1 << (block & 7))) != 0;
+    }
+
+    synchronized void setComplete(int block) {
+        if (!isComplete(block)) {
+            bits[block >> 3] |= 1 << (block & 7);
+            completedBlocks++;
+        }
+    }
+
+    synchronized boolean isAllComplete() {
+        return completedBlocks == blockCount;
+    }
+
+    /**
+     * The number of bytes in the completed blocks.
+     */
+    synchronized long getCompletedBytes() {
+        long bytes = (long) completedBlocks * blockSize;
+        // The last block is shorter
+        if (blockCount > 0 && isComplete(blockCount - 1))
+            bytes -= (long) blockCount * blockSize - length;
+        return bytes;
+    }
+
+    /**
+     * Persist the bitmap. The data of the completed blocks must already be written to disk.
+     */
+    synchronized void save() throws IOException {
+        if (file == null)
+            return;
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream fos = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeInt(blockSize);
+            out.write(bits);
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Could not write " + file);
+        }
+    }
+}
@@ -1,12 +1,8 @@
 package at.huber.youtubeDownloader;
 
 import android.app.Activity;
-import android.app.DownloadManager;
-import android.content.Context;
 import android.content.Intent;
-import android.net.Uri;
 import android.os.Bundle;
-import android.os.Environment;
 import android.text.method.LinkMovementMethod;
 import android.util.SparseArray;
 import android.view.View;
@@ -17,20 +13,19 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
+import at.huber.youtubeExtractor.Format;
+import at.huber.youtubeExtractor.Format.ACodec;
+import at.huber.youtubeExtractor.FormatSelector;
 import at.huber.youtubeExtractor.VideoMeta;
 import at.huber.youtubeExtractor.YouTubeExtractor;
 import at.huber.youtubeExtractor.YtFile;
 
 public class DownloadActivity extends Activity {
 
-    private static final int ITAG_FOR_AUDIO = 140;
+    private static final int AUDIO_BITRATE = 128;
 
     private static String youtubeLink;
 
@@ -81,59 +76,49 @@ public class DownloadActivity extends Activity {
                     mainLayout.addView(tv);
                     return;
                 }
-                formatsToShowList = new ArrayList<>();
-                for (int i = 0, itag; i < ytFiles.size(); i++) {
-                    itag = ytFiles.keyAt(i);
-                    YtFile ytFile = ytFiles.get(itag);
+                List<YtFile> allFiles = new ArrayList<>(ytFiles.size());
+                for (int i = 0; i < ytFiles.size(); i++) {
+                    allFiles.add(ytFiles.valueAt(i));
+                }
+                FormatSelector selector = new FormatSelector(allFiles);
+                // The mp4 videos are merged with an AAC audio file
+                YtFile audioFile = selector.getBestAudio(AUDIO_BITRATE, ACodec.AAC);
 
-                    if (ytFile.getFormat().getExt().equals("webm")) {
+                formatsToShowList = new ArrayList<>();
+                for (YtFile ytFile : selector.getAudios()) {
+                    if (!ytFile.getFormat().isWebM())
+                        addFormatToList(-1, null, ytFile);
+                }
+                YtFile last = null;
+                for (YtFile ytFile : selector.getVideos(360)) {
+                    Format format = ytFile.getFormat();
+                    if (format.isWebM())
                         continue;
-                    }
-
-                    if (ytFile.getFormat().getHeight() == -1 || ytFile.getFormat().getHeight() >= 360) {
-                        addFormatToList(ytFile, ytFiles);
-                    }
+                    // The files are sorted, muxed files come before the dash files of the same quality
+                    if (last != null && last.getFormat().getHeight() == format.getHeight()
+                            && last.getFormat().getFps() == format.getFps())
+                        continue;
+                    last = ytFile;
+                    addFormatToList(format.getHeight(), ytFile, format.hasAudio() ? null : audioFile);
                 }
-                Collections.sort(formatsToShowList, new Comparator<YtFragmentedVideo>() {
-                    @Override
-                    public int compare(YtFragmentedVideo lhs, YtFragmentedVideo rhs) {
-                        return lhs.height - rhs.height;
-                    }
-                });
                 for (YtFragmentedVideo files : formatsToShowList) {
-                    addButtonToMainLayout(vMeta.getTitle(), files);
+                    addButtonToMainLayout(vMeta.getVideoId(), vMeta.getTitle(), files);
                 }
             }
         }.extract(youtubeLink);
     }
 
-    private void addFormatToList(YtFile ytFile, SparseArray<YtFile> ytFiles) {
-        int height = ytFile.getFormat().getHeight();
-        if (height != -1) {
-            for (YtFragmentedVideo frVideo : formatsToShowList) {
-                if (frVideo.height == height && (frVideo.videoFile == null ||
-                        frVideo.videoFile.getFormat().getFps() == ytFile.getFormat().getFps())) {
-                    return;
-                }
-            }
-        }
+    private void addFormatToList(int height, YtFile videoFile, YtFile audioFile) {
         YtFragmentedVideo frVideo = new YtFragmentedVideo();
         frVideo.height = height;
-        if (ytFile.getFormat().isDashContainer()) {
-            if (height > 0) {
-                frVideo.videoFile = ytFile;
-                frVideo.audioFile = ytFiles.get(ITAG_FOR_AUDIO);
-            } else {
-                frVideo.audioFile = ytFile;
-            }
-        } else {
-            frVideo.videoFile = ytFile;
-        }
+        frVideo.videoFile = videoFile;
+        frVideo.audioFile = audioFile;
         formatsToShowList.add(frVideo);
     }
 
 
-    private void addButtonToMainLayout(final String videoTitle, final YtFragmentedVideo ytFrVideo) {
+    private void addButtonToMainLayout(final String videoId, final String videoTitle,
+                                       final YtFragmentedVideo ytFrVideo) {
         // Display some buttons and let the user choose the format
         String btnText;
         if (ytFrVideo.height == -1)
@@ -155,51 +140,14 @@ public class DownloadActivity extends Activity {
                 }
                 filename = filename.replaceAll("[\\\\><\"|*?%:#/]", "");
                 filename += (ytFrVideo.height == -1) ? "" : "-" + ytFrVideo.height + "p";
-                String downloadIds = "";
-                boolean hideAudioDownloadNotification = false;
-                if (ytFrVideo.videoFile != null) {
-                    downloadIds += downloadFromUrl(ytFrVideo.videoFile.getUrl(), videoTitle,
-                            filename + "." + ytFrVideo.videoFile.getFormat().getExt(), false);
-                    downloadIds += "-";
-                    hideAudioDownloadNotification = true;
-                }
-                if (ytFrVideo.audioFile != null) {
-                    downloadIds += downloadFromUrl(ytFrVideo.audioFile.getUrl(), videoTitle,
-                            filename + "." + ytFrVideo.audioFile.getFormat().getExt(), hideAudioDownloadNotification);
-                }
-                if (ytFrVideo.audioFile != null)
-                    cacheDownloadIds(downloadIds);
+                DownloadService.start(DownloadActivity.this, videoId, videoTitle, filename,
+                        ytFrVideo.videoFile, ytFrVideo.audioFile);
                 finish();
             }
         });
         mainLayout.addView(btn);
     }
 
-    private long downloadFromUrl(String youtubeDlUrl, String downloadTitle, String fileName, boolean hide) {
-        Uri uri = Uri.parse(youtubeDlUrl);
-        DownloadManager.Request request = new DownloadManager.Request(uri);
-        request.setTitle(downloadTitle);
-        if (hide) {
-            request.setNotificationVisibility(DownloadManager.Request.VISIBILITY_HIDDEN);
-            request.setVisibleInDownloadsUi(false);
-        } else
-            request.setNotificationVisibility(DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED);
-
-        request.setDestinationInExternalPublicDir(Environment.DIRECTORY_DOWNLOADS, fileName);
-
-        DownloadManager manager = (DownloadManager) getSystemService(Context.DOWNLOAD_SERVICE);
-        return manager.enqueue(request);
-    }
-
-    private void cacheDownloadIds(String downloadIds) {
-        File dlCacheFile = new File(this.getCacheDir().getAbsolutePath() + "/" + downloadIds);
-        try {
-            dlCacheFile.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
     private static class YtFragmentedVideo {
         int height;
         YtFile audioFile;
@@ -0,0 +1,417 @@
+package at.huber.youtubeDownloader;
+
+import android.app.IntentService;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+
+import com.coremedia.iso.boxes.Box;
+import com.coremedia.iso.boxes.ChunkOffsetBox;
+import com.coremedia.iso.boxes.Container;
+import com.coremedia.iso.boxes.HandlerBox;
+import com.coremedia.iso.boxes.MetaBox;
+import com.coremedia.iso.boxes.MovieBox;
+import com.coremedia.iso.boxes.StaticChunkOffsetBox;
+import com.coremedia.iso.boxes.UserDataBox;
+import com.coremedia.iso.boxes.apple.AppleItemListBox;
+import com.googlecode.mp4parser.authoring.Movie;
+import com.googlecode.mp4parser.authoring.builder.DefaultMp4Builder;
+import com.googlecode.mp4parser.authoring.container.mp4.MovieCreator;
+import com.googlecode.mp4parser.boxes.apple.AppleArtist2Box;
+import com.googlecode.mp4parser.boxes.apple.AppleArtistBox;
+import com.googlecode.mp4parser.boxes.apple.AppleNameBox;
+import com.googlecode.mp4parser.util.Path;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import at.huber.youtubeExtractor.ExtractionResult;
+import at.huber.youtubeExtractor.HttpTransport;
+import at.huber.youtubeExtractor.UrlConnectionTransport;
+import at.huber.youtubeExtractor.YouTubeExtractor;
+import at.huber.youtubeExtractor.YouTubeExtractorEngine;
+import at.huber.youtubeExtractor.YtFile;
+
+/**
+ * Downloads the files of one video with the {@link SegmentedDownloader}, merges a separate
+ * video and audio file into one mp4 and adds metadata to audio files. The downloads are
+ * handled one after another in the background. DASH streams with a segment index are merged
+ * by the {@link MuxingDownloader} while they download.
+ * <p/>
+ * A failed download can be continued from the notification, only the missing blocks are
+ * fetched then. Expired urls are replaced by extracting the same format of the video again.
+ */
+public class DownloadService extends IntentService {
+
+    private static final String EXTRA_TITLE = "title";
+    private static final String EXTRA_FILE_NAME = "fileName";
+    private static final String EXTRA_VIDEO_ID = "videoId";
+    private static final String EXTRA_VIDEO_ITAG = "videoItag";
+    private static final String EXTRA_VIDEO_URL = "videoUrl";
+    private static final String EXTRA_VIDEO_LENGTH = "videoLength";
+    private static final String EXTRA_VIDEO_EXT = "videoExt";
+    private static final String EXTRA_VIDEO_INDEX_END = "videoIndexEnd";
+    private static final String EXTRA_AUDIO_ITAG = "audioItag";
+    private static final String EXTRA_AUDIO_URL = "audioUrl";
+    private static final String EXTRA_AUDIO_LENGTH = "audioLength";
+    private static final String EXTRA_AUDIO_EXT = "audioExt";
+    private static final String EXTRA_AUDIO_INDEX_END = "audioIndexEnd";
+
+    private static final int CONNECTIONS = 4;
+    private static final int PROGRESS_NOTIFICATION_ID = 1;
+    private static final long PROGRESS_INTERVAL_MILLIS = 500;
+    private static final String STATE_DIR_NAME = "downloads";
+    private static final String STATE_SUFFIX = ".blocks";
+
+    private static final String TEMP_FILE_NAME = "tmp-";
+    private static final Pattern ARTIST_TITLE_PATTERN =
+            Pattern.compile("(.+?)(\\s*?)-(\\s*?)(\"|)(\\S(.+?))\\s*?([&\\*+,-/:;<=>@_\\|]+?\\s*?|)(\\z|\"|\\(|\\[|lyric|official)",
+                    Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+
+    public DownloadService() {
+        super("DownloadService");
+        // Continue a download that was interrupted because the process was killed
+        setIntentRedelivery(true);
+    }
+
+    /**
+     * Queue the download of a video and/or an audio file. If both are given they are merged
+     * into the video file.
+     *
+     * @param videoId   the id of the video, to get new urls when they expired
+     * @param title     the title of the video
+     * @param fileName  the file name without extension
+     * @param videoFile the video file or null
+     * @param audioFile the audio file or null
+     */
+    static void start(Context context, String videoId, String title, String fileName, YtFile videoFile,
+                      YtFile audioFile) {
+        Intent intent = new Intent(context, DownloadService.class);
+        intent.putExtra(EXTRA_VIDEO_ID, videoId);
+        intent.putExtra(EXTRA_TITLE, title);
+        intent.putExtra(EXTRA_FILE_NAME, fileName);
+        if (videoFile != null) {
+            intent.putExtra(EXTRA_VIDEO_ITAG, videoFile.getFormat().getItag());
+            intent.putExtra(EXTRA_VIDEO_URL, videoFile.getUrl());
+            intent.putExtra(EXTRA_VIDEO_LENGTH, videoFile.getContentLength());
+            intent.putExtra(EXTRA_VIDEO_EXT, videoFile.getFormat().getExt());
+            intent.putExtra(EXTRA_VIDEO_INDEX_END, indexEnd(videoFile));
+        }
+        if (audioFile != null) {
+            intent.putExtra(EXTRA_AUDIO_ITAG, audioFile.getFormat().getItag());
+            intent.putExtra(EXTRA_AUDIO_URL, audioFile.getUrl());
+            intent.putExtra(EXTRA_AUDIO_LENGTH, audioFile.getContentLength());
+            intent.putExtra(EXTRA_AUDIO_EXT, audioFile.getFormat().getExt());
+            intent.putExtra(EXTRA_AUDIO_INDEX_END, indexEnd(audioFile));
+        }
+        context.startService(intent);
+    }
+
+    private static long indexEnd(YtFile ytFile) {
+        return ytFile.getIndexRange() != null ? ytFile.getIndexRange().getEnd() : -1;
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null)
+            return;
+        String videoId = intent.getStringExtra(EXTRA_VIDEO_ID);
+        String title = intent.getStringExtra(EXTRA_TITLE);
+        String fileName = intent.getStringExtra(EXTRA_FILE_NAME);
+        String videoUrl = intent.getStringExtra(EXTRA_VIDEO_URL);
+        String audioUrl = intent.getStringExtra(EXTRA_AUDIO_URL);
+        long videoLength = intent.getLongExtra(EXTRA_VIDEO_LENGTH, -1);
+        long audioLength = intent.getLongExtra(EXTRA_AUDIO_LENGTH, -1);
+
+        File dir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+        dir.mkdirs();
+        File videoOut = videoUrl == null ? null : new File(dir, fileName + "." + intent.getStringExtra(EXTRA_VIDEO_EXT));
+        File audioOut = audioUrl == null ? null : new File(dir, fileName + "." + intent.getStringExtra(EXTRA_AUDIO_EXT));
+        File stateDir = new File(getFilesDir(), STATE_DIR_NAME);
+        stateDir.mkdirs();
+        File videoState = videoOut == null ? null : new File(stateDir, videoOut.getName() + STATE_SUFFIX);
+        File audioState = audioOut == null ? null : new File(stateDir, audioOut.getName() + STATE_SUFFIX);
+
+        Progress progress = new Progress(title, (videoUrl == null || videoLength >= 0)
+                && (audioUrl == null || audioLength >= 0) ? Math.max(videoLength, 0) + Math.max(audioLength, 0) : -1);
+        startForeground(PROGRESS_NOTIFICATION_ID, progress.build());
+        HttpTransport transport = new UrlConnectionTransport();
+        FormatResolver videoResolver = new FormatResolver(videoId, intent.getIntExtra(EXTRA_VIDEO_ITAG, -1), videoLength);
+        FormatResolver audioResolver = new FormatResolver(videoId, intent.getIntExtra(EXTRA_AUDIO_ITAG, -1), audioLength);
+        boolean success = false;
+        try {
+            boolean merged = false;
+            if (videoOut != null && audioOut != null) {
+                // Merge the streams while they download, falls back to separate files if the
+                // streams have no index
+                merged = new MuxingDownloader(transport, CONNECTIONS).download(
+                        new MuxingDownloader.Stream(videoUrl, videoLength,
+                                intent.getLongExtra(EXTRA_VIDEO_INDEX_END, -1), videoResolver),
+                        new MuxingDownloader.Stream(audioUrl, audioLength,
+                                intent.getLongExtra(EXTRA_AUDIO_INDEX_END, -1), audioResolver),
+                        videoOut, videoState, progress);
+            }
+            if (!merged) {
+                SegmentedDownloader downloader = new SegmentedDownloader(transport);
+                downloader.setConnections(CONNECTIONS);
+                if (videoOut != null) {
+                    downloader.download(videoUrl, videoLength, videoOut, videoState, videoResolver, progress);
+                    progress.finishFile();
+                }
+                if (audioOut != null) {
+                    downloader.download(audioUrl, audioLength, audioOut, audioState, audioResolver, progress);
+                    progress.finishFile();
+                }
+            }
+            if (videoOut != null && audioOut != null) {
+                if (!merged)
+                    mergeMp4(audioOut, videoOut);
+            } else if (audioOut != null) {
+                String artist = null;
+                String songTitle = null;
+                Matcher mat = ARTIST_TITLE_PATTERN.matcher(title);
+                if (mat.find()) {
+                    artist = mat.group(1);
+                    songTitle = mat.group(5);
+                }
+                convertM4a(audioOut.getAbsolutePath(), songTitle, artist);
+            }
+            scanFile(videoOut != null ? videoOut : audioOut);
+            success = true;
+        } catch (IOException | RuntimeException e) {
+            // Unchecked failures of the re-extraction or the muxer also leave a download to continue
+            e.printStackTrace();
+            // Only files of known size can be continued
+            if (videoOut != null && videoLength < 0)
+                videoOut.delete();
+            if (audioOut != null && audioLength < 0)
+                audioOut.delete();
+        } finally {
+            stopForeground(true);
+        }
+        if (success) {
+            if (videoState != null)
+                videoState.delete();
+            if (audioState != null)
+                audioState.delete();
+        }
+        notifyFinished(intent, title, success);
+    }
+
+    private void notifyFinished(Intent intent, String title, boolean success) {
+        int id = (int) System.currentTimeMillis();
+        Notification.Builder builder = new Notification.Builder(this)
+                .setSmallIcon(success ? android.R.drawable.stat_sys_download_done : android.R.drawable.stat_notify_error)
+                .setContentTitle(title)
+                .setContentText(getString(success ? R.string.download_complete : R.string.download_failed))
+                .setAutoCancel(true);
+        if (!success) {
+            // Queue the same download again, it continues where it stopped
+            builder.setContentIntent(PendingIntent.getService(this, id, intent, PendingIntent.FLAG_UPDATE_CURRENT));
+        }
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.notify(id, build(builder));
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Notification build(Notification.Builder builder) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            return builder.build();
+        return builder.getNotification();
+    }
+
+    private void convertM4a(String inFilePath, String title, String artist) {
+        String path = inFilePath.substring(0, inFilePath.lastIndexOf("/"));
+        try {
+            Movie inAudio = MovieCreator.build(inFilePath);
+            Container out = new DefaultMp4Builder().build(inAudio);
+
+            if (title != null && artist != null) {
+                writeMetaData(out, artist, title);
+            }
+            long currentMillis = System.currentTimeMillis();
+            FileOutputStream fos = new FileOutputStream(new File(path + TEMP_FILE_NAME + currentMillis + ".m4a"));
+            out.writeContainer(fos.getChannel());
+            fos.close();
+            File inFile = new File(inFilePath);
+            if (inFile.delete()) {
+                File tempOutFile = new File(path + TEMP_FILE_NAME + currentMillis + ".m4a");
+                tempOutFile.renameTo(inFile);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Merge the audio into the video file. Both are streamed into a temp file which then
+     * replaces the video file.
+     */
+    private void mergeMp4(File audioFile, File videoFile) throws IOException {
+        File tempOutFile = new File(videoFile.getParentFile(), TEMP_FILE_NAME + System.currentTimeMillis() + ".mp4");
+        try {
+            Mp4Muxer.mux(videoFile, audioFile, tempOutFile);
+        } catch (IOException e) {
+            tempOutFile.delete();
+            throw e;
+        }
+        audioFile.delete();
+        if (!videoFile.delete() || !tempOutFile.renameTo(videoFile))
+            throw new IOException("Could not replace " + videoFile);
+    }
+
+    private void writeMetaData(Container out, String artist, String title) {
+        MovieBox mBox = null;
+        for (Box box : out.getBoxes()) {
+            if (box.getType().contains("moov")) {
+                mBox = (MovieBox) box;
+                break;
+            }
+        }
+        if (mBox != null) {
+            UserDataBox userDataBox = new UserDataBox();
+            mBox.addBox(userDataBox);
+            MetaBox metaBox = new MetaBox();
+            userDataBox.addBox(metaBox);
+            HandlerBox hBox = new HandlerBox();
+            hBox.setName(null);
+            hBox.setHandlerType("mdir");
+            metaBox.addBox(hBox);
+            AppleItemListBox listBox = new AppleItemListBox();
+            metaBox.addBox(listBox);
+            AppleNameBox titleBox = new AppleNameBox();
+            titleBox.setValue(title);
+            listBox.addBox(titleBox);
+            AppleArtistBox artistBox = new AppleArtistBox();
+            artistBox.setValue(artist);
+            listBox.addBox(artistBox);
+            AppleArtist2Box artist2Box = new AppleArtist2Box();
+            artist2Box.setValue(artist);
+            listBox.addBox(artist2Box);
+            correctChunkOffsets(out, userDataBox.getSize());
+        }
+    }
+
+    // From the mp4parser metadata example
+    private void correctChunkOffsets(Container container, long correction) {
+        List<Box> chunkOffsetBoxes = Path.getPaths(container, "/moov[0]/trak/mdia[0]/minf[0]/stbl[0]/stco[0]");
+        for (Box chunkOffsetBox : chunkOffsetBoxes) {
+
+            LinkedList<Box> stblChildren = new LinkedList<>(chunkOffsetBox.getParent().getBoxes());
+            stblChildren.remove(chunkOffsetBox);
+
+            long[] cOffsets = ((ChunkOffsetBox) chunkOffsetBox).getChunkOffsets();
+            for (int i = 0; i < cOffsets.length; i++) {
+                cOffsets[i] += correction;
+            }
+
+            StaticChunkOffsetBox cob = new StaticChunkOffsetBox();
+            cob.setChunkOffsets(cOffsets);
+            stblChildren.add(cob);
+            chunkOffsetBox.getParent().setBoxes(stblChildren);
+        }
+    }
+
+    private void scanFile(File file) {
+        Intent scanFileIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, Uri.fromFile(file));
+        sendBroadcast(scanFileIntent);
+    }
+
+    /**
+     * Gets a new url of a format by extracting the video again.
+     */
+    private class FormatResolver implements SegmentedDownloader.UrlResolver {
+
+        private final String videoId;
+        private final int itag;
+        private final long contentLength;
+
+        FormatResolver(String videoId, int itag, long contentLength) {
+            this.videoId = videoId;
+            this.itag = itag;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public String resolveUrl(String expiredUrl) throws IOException {
+            if (videoId == null)
+                throw new IOException("Url expired");
+            YouTubeExtractorEngine engine = YouTubeExtractor.createEngine(DownloadService.this);
+            // The format may have been taken from the dash manifest
+            engine.setParseDashManifest(true);
+            ExtractionResult result;
+            try {
+                result = engine.extract(videoId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Extraction interrupted");
+            }
+            YtFile ytFile = result.getYtFiles() != null ? result.getYtFiles().get(itag) : null;
+            if (ytFile == null)
+                throw new IOException("Format " + itag + " is not available anymore");
+            // The blocks already written must belong to the same file
+            if (contentLength >= 0 && ytFile.getContentLength() >= 0 && ytFile.getContentLength() != contentLength)
+                throw new IOException("Format " + itag + " has changed");
+            return ytFile.getUrl();
+        }
+    }
+
+    /**
+     * Shows the progress of all files of a download in the notification, updated at most
+     * every {@link #PROGRESS_INTERVAL_MILLIS}.
+     */
+    private class Progress implements SegmentedDownloader.ProgressListener {
+
+        private final String title;
+        private final long totalBytes;
+        private long finishedBytes;
+        private long fileBytes;
+        private long lastUpdate;
+
+        Progress(String title, long totalBytes) {
+            this.title = title;
+            this.totalBytes = totalBytes;
+        }
+
+        @Override
+        public synchronized void onProgress(long downloadedBytes, long fileSize) {
+            fileBytes = downloadedBytes;
+            long now = System.currentTimeMillis();
+            if (now - lastUpdate < PROGRESS_INTERVAL_MILLIS)
+                return;
+            lastUpdate = now;
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.notify(PROGRESS_NOTIFICATION_ID, build());
+        }
+
+        synchronized void finishFile() {
+            finishedBytes += fileBytes;
+            fileBytes = 0;
+        }
+
+        synchronized Notification build() {
+            Notification.Builder builder = new Notification.Builder(DownloadService.this)
+                    .setSmallIcon(android.R.drawable.stat_sys_download)
+                    .setContentTitle(title)
+                    .setOngoing(true);
+            if (totalBytes > 0) {
+                // A merged file is a bit larger than both streams
+                builder.setProgress(1000, (int) Math.min((finishedBytes + fileBytes) * 1000 / totalBytes, 1000), false);
+            } else {
+                builder.setProgress(0, 0, true);
+            }
+            return DownloadService.build(builder);
+        }
+    }
+}
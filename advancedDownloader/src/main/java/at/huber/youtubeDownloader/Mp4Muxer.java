@@ -0,0 +1,705 @@
+package at.huber.youtubeDownloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges the video track of one mp4 file and the audio track of another into a new file
+ * without loading the files into memory. Only the moov and moof boxes are read and rewritten,
+ * the sample data is copied with {@link FileChannel#transferTo}.
+ * <p/>
+ * Fragmented files like the YouTube DASH streams are merged into a fragmented file, their
+ * fragments are interleaved by their decode time. Other files are merged into one mdat with
+ * the chunk offsets of both tracks moved to the new positions of their samples.
+ */
+final class Mp4Muxer {
+
+    private static final int FTYP = type("ftyp");
+    private static final int MOOV = type("moov");
+    private static final int MVHD = type("mvhd");
+    private static final int TRAK = type("trak");
+    private static final int TKHD = type("tkhd");
+    private static final int EDTS = type("edts");
+    private static final int ELST = type("elst");
+    private static final int MDIA = type("mdia");
+    private static final int MDHD = type("mdhd");
+    private static final int HDLR = type("hdlr");
+    private static final int MINF = type("minf");
+    private static final int STBL = type("stbl");
+    private static final int STCO = type("stco");
+    private static final int CO64 = type("co64");
+    private static final int MVEX = type("mvex");
+    private static final int TREX = type("trex");
+    private static final int MOOF = type("moof");
+    private static final int MFHD = type("mfhd");
+    private static final int TRAF = type("traf");
+    private static final int TFHD = type("tfhd");
+    private static final int TFDT = type("tfdt");
+    private static final int SIDX = type("sidx");
+    private static final int MDAT = type("mdat");
+
+    private static final int HANDLER_VIDEO = type("vide");
+    private static final int HANDLER_SOUND = type("soun");
+    private static final int[] BRANDS = {type("isom"), type("iso2"), type("iso6"), type("mp41")};
+
+    static final int VIDEO_TRACK_ID = 1;
+    static final int AUDIO_TRACK_ID = 2;
+    private static final int TFHD_BASE_DATA_OFFSET_PRESENT = 0x1;
+    private static final long MAX_UINT32 = 0xFFFFFFFFL;
+
+    private Mp4Muxer() {
+    }
+
+    /**
+     * Write the video track of one file and the audio track of another file into a new file.
+     *
+     * @throws IOException if a file could not be read or written or is no supported mp4 file
+     */
+    static void mux(File videoFile, File audioFile, File outFile) throws IOException {
+        FileInputStream videoIn = new FileInputStream(videoFile);
+        FileInputStream audioIn = null;
+        FileOutputStream out = null;
+        try {
+            audioIn = new FileInputStream(audioFile);
+            Input video = new Input(videoIn.getChannel(), HANDLER_VIDEO, VIDEO_TRACK_ID);
+            Input audio = new Input(audioIn.getChannel(), HANDLER_SOUND, AUDIO_TRACK_ID);
+            if (video.fragmented != audio.fragmented)
+                throw new IOException("Can't merge a fragmented with an unfragmented file");
+            out = new FileOutputStream(outFile);
+            if (video.fragmented) {
+                writeFragmented(video, audio, out.getChannel());
+            } else {
+                writeUnfragmented(video, audio, out.getChannel());
+            }
+        } finally {
+            close(videoIn);
+            close(audioIn);
+            close(out);
+        }
+    }
+
+    /**
+     * The ftyp and moov of the fragmented file merged from two fragmented files.
+     *
+     * @param videoInit the start of the video file up to at least the end of its moov
+     * @param audioInit the start of the audio file up to at least the end of its moov
+     */
+    static byte[] fragmentedHeader(ByteBuffer videoInit, ByteBuffer audioInit) throws IOException {
+        Input video = new Input(videoInit, HANDLER_VIDEO, VIDEO_TRACK_ID);
+        Input audio = new Input(audioInit, HANDLER_SOUND, AUDIO_TRACK_ID);
+        if (!video.fragmented || !audio.fragmented)
+            throw new IOException("The files are not fragmented");
+        return fragmentedHeader(video, audio);
+    }
+
+    private static byte[] fragmentedHeader(Input video, Input audio) throws IOException {
+        ByteArrayOutputStream mvex = new ByteArrayOutputStream();
+        DataOutputStream mvexOut = new DataOutputStream(mvex);
+        writeTrex(video, mvexOut);
+        writeTrex(audio, mvexOut);
+        byte[] ftyp = ftyp();
+        byte[] moov = moov(video, audio, false, box(MVEX, mvex.toByteArray()));
+        byte[] header = new byte[ftyp.length + moov.length];
+        System.arraycopy(ftyp, 0, header, 0, ftyp.length);
+        System.arraycopy(moov, 0, header, ftyp.length, moov.length);
+        return header;
+    }
+
+    /**
+     * The fragments listed in the sidx box of a DASH stream.
+     *
+     * @param index the start of the file up to at least the end of its sidx box
+     * @return the fragments in the order of the file
+     * @throws IOException if there is no sidx box or it references other sidx boxes
+     */
+    static List<IndexedFragment> readSegmentIndex(ByteBuffer index) throws IOException {
+        int end = index.limit();
+        int sidx = findChild(index, 0, end, SIDX);
+        if (sidx < 0)
+            throw new IOException("No sidx box");
+        int payload = payloadOffset(index, sidx);
+        boolean version1 = index.get(payload) == 1;
+        long timescale = index.getInt(payload + 8) & MAX_UINT32;
+        int field = payload + 12;
+        long time = version1 ? index.getLong(field) : index.getInt(field) & MAX_UINT32;
+        long offset = version1 ? index.getLong(field + 8) : index.getInt(field + 4) & MAX_UINT32;
+        field += version1 ? 16 : 8;
+        int count = index.getShort(field + 2) & 0xFFFF;
+        offset += sidx + size(index, sidx, end);
+        List<IndexedFragment> fragments = new ArrayList<>(count);
+        for (int i = 0, reference = field + 4; i < count; i++, reference += 12) {
+            int referencedSize = index.getInt(reference);
+            if (referencedSize < 0)
+                throw new IOException("Hierarchical sidx boxes are not supported");
+            fragments.add(new IndexedFragment(offset, referencedSize, timescale > 0 ? (double) time / timescale : 0));
+            offset += referencedSize;
+            time += index.getInt(reference + 4) & MAX_UINT32;
+        }
+        return fragments;
+    }
+
+    private static void writeFragmented(Input video, Input audio, FileChannel out) throws IOException {
+        write(out, fragmentedHeader(video, audio));
+
+        int sequenceNumber = 0;
+        int v = 0;
+        int a = 0;
+        while (v < video.fragments.size() || a < audio.fragments.size()) {
+            Fragment fragment;
+            if (a == audio.fragments.size() || (v < video.fragments.size()
+                    && video.fragments.get(v).startSeconds <= audio.fragments.get(a).startSeconds)) {
+                fragment = video.fragments.get(v++);
+            } else {
+                fragment = audio.fragments.get(a++);
+            }
+            writeFragment(fragment, ++sequenceNumber, out);
+        }
+    }
+
+    /**
+     * Copy one moof box and the mdat boxes behind it. The moof gets the new sequence number
+     * and track id, absolute data offsets are moved to the new position. Relative offsets stay
+     * valid since everything behind the moof is copied unchanged.
+     */
+    private static void writeFragment(Fragment fragment, int sequenceNumber, FileChannel out) throws IOException {
+        Input input = fragment.input;
+        ByteBuffer moof = read(input.channel, fragment.moof.offset, fragment.moof.size);
+        patchMoof(moof, sequenceNumber, input.newTrackId, out.position() - fragment.moof.offset);
+        write(out, moof);
+        long dataStart = fragment.moof.offset + fragment.moof.size;
+        transfer(input.channel, dataStart, fragment.end - dataStart, out);
+    }
+
+    /**
+     * Give a moof box its place in the merged file.
+     *
+     * @param moof           the whole moof box
+     * @param sequenceNumber the new sequence number
+     * @param trackId        the new id of its track
+     * @param shift          how far the moof moves from its position in the original file
+     */
+    static void patchMoof(ByteBuffer moof, int sequenceNumber, int trackId, long shift) throws IOException {
+        int moofEnd = moof.limit();
+        for (int box = payloadOffset(moof, 0); box < moofEnd; box += size(moof, box, moofEnd)) {
+            int type = moof.getInt(box + 4);
+            if (type == MFHD) {
+                moof.putInt(payloadOffset(moof, box) + 4, sequenceNumber);
+            } else if (type == TRAF) {
+                int tfhd = findChild(moof, payloadOffset(moof, box), box + size(moof, box, moofEnd), TFHD);
+                if (tfhd < 0)
+                    throw new IOException("Track fragment without tfhd");
+                int tfhdPayload = payloadOffset(moof, tfhd);
+                moof.putInt(tfhdPayload + 4, trackId);
+                if ((moof.getInt(tfhdPayload) & TFHD_BASE_DATA_OFFSET_PRESENT) != 0)
+                    moof.putLong(tfhdPayload + 8, moof.getLong(tfhdPayload + 8) + shift);
+            }
+        }
+    }
+
+    private static void writeUnfragmented(Input video, Input audio, FileChannel out) throws IOException {
+        byte[] ftyp = ftyp();
+        long payloadSize = video.getMdatPayloadSize() + audio.getMdatPayloadSize();
+        int mdatHeaderSize = payloadSize + 8 > MAX_UINT32 ? 16 : 8;
+        // 64 bit chunk offsets are only needed if the file may get larger than 4 GiB
+        long maxMoovSize = 2L * (video.moov.limit() + audio.moov.limit());
+        boolean co64 = ftyp.length + maxMoovSize + mdatHeaderSize + payloadSize > MAX_UINT32;
+
+        // The size of the moov doesn't depend on the offsets, so the first one tells where
+        // the samples start
+        video.mapMdats(0);
+        audio.mapMdats(video.getMdatPayloadSize());
+        int moovSize = moov(video, audio, co64, null).length;
+        long payloadStart = ftyp.length + moovSize + mdatHeaderSize;
+        video.mapMdats(payloadStart);
+        audio.mapMdats(payloadStart + video.getMdatPayloadSize());
+        byte[] moov = moov(video, audio, co64, null);
+
+        write(out, ftyp);
+        write(out, moov);
+        ByteBuffer mdatHeader = ByteBuffer.allocate(mdatHeaderSize);
+        if (mdatHeaderSize == 16) {
+            mdatHeader.putInt(1).putInt(MDAT).putLong(payloadSize + 16);
+        } else {
+            mdatHeader.putInt((int) (payloadSize + 8)).putInt(MDAT);
+        }
+        mdatHeader.flip();
+        write(out, mdatHeader);
+        for (Input input : new Input[]{video, audio}) {
+            for (Box mdat : input.mdats) {
+                transfer(input.channel, mdat.offset + mdat.headerSize, mdat.size - mdat.headerSize, out);
+            }
+        }
+    }
+
+    /**
+     * The moov with the mvhd of the video, the tracks of both files and the given boxes.
+     */
+    private static byte[] moov(Input video, Input audio, boolean co64, byte[] extraBoxes) throws IOException {
+        ByteArrayOutputStream moov = new ByteArrayOutputStream(video.moov.limit() + audio.moov.limit());
+        DataOutputStream out = new DataOutputStream(moov);
+
+        byte[] mvhd = copy(video.moov, video.mvhd, size(video.moov, video.mvhd, video.moov.limit()));
+        ByteBuffer buffer = ByteBuffer.wrap(mvhd);
+        int payload = payloadOffset(buffer, 0);
+        int durationOffset = buffer.get(payload) == 1 ? payload + 24 : payload + 16;
+        long duration = Math.max(video.movieDuration, audio.scaleToMovie(audio.movieDuration, video.movieTimescale));
+        if (buffer.get(payload) == 1) {
+            buffer.putLong(durationOffset, duration);
+        } else if (duration <= MAX_UINT32) {
+            buffer.putInt(durationOffset, (int) duration);
+        }
+        // next_track_ID is the last field
+        buffer.putInt(mvhd.length - 4, AUDIO_TRACK_ID + 1);
+        out.write(mvhd);
+
+        copyBox(video, video.trak, video.movieTimescale, co64, out);
+        copyBox(audio, audio.trak, video.movieTimescale, co64, out);
+        if (extraBoxes != null)
+            out.write(extraBoxes);
+        return box(MOOV, moov.toByteArray());
+    }
+
+    /**
+     * Copy a box of a track and its children. The track id, the durations in the movie
+     * timescale and the chunk offsets are replaced on the way.
+     */
+    private static void copyBox(Input input, int offset, long movieTimescale, boolean co64, DataOutputStream out)
+            throws IOException {
+        ByteBuffer moov = input.moov;
+        int size = size(moov, offset, moov.limit());
+        int type = moov.getInt(offset + 4);
+        int payload = payloadOffset(moov, offset);
+        if (type == TRAK || type == EDTS || type == MDIA || type == MINF || type == STBL) {
+            ByteArrayOutputStream children = new ByteArrayOutputStream(size);
+            DataOutputStream childrenOut = new DataOutputStream(children);
+            for (int child = payload; child < offset + size; child += size(moov, child, offset + size)) {
+                copyBox(input, child, movieTimescale, co64, childrenOut);
+            }
+            out.write(box(type, children.toByteArray()));
+        } else if (type == TKHD) {
+            ByteBuffer tkhd = ByteBuffer.wrap(copy(moov, offset, size));
+            int tkhdPayload = payload - offset;
+            boolean version1 = tkhd.get(tkhdPayload) == 1;
+            int idOffset = tkhdPayload + (version1 ? 20 : 12);
+            tkhd.putInt(idOffset, input.newTrackId);
+            if (version1) {
+                tkhd.putLong(idOffset + 8, input.scaleToMovie(tkhd.getLong(idOffset + 8), movieTimescale));
+            } else {
+                long duration = tkhd.getInt(idOffset + 8) & MAX_UINT32;
+                if (duration != MAX_UINT32)
+                    tkhd.putInt(idOffset + 8, (int) input.scaleToMovie(duration, movieTimescale));
+            }
+            out.write(tkhd.array());
+        } else if (type == ELST) {
+            ByteBuffer elst = ByteBuffer.wrap(copy(moov, offset, size));
+            int elstPayload = payload - offset;
+            boolean version1 = elst.get(elstPayload) == 1;
+            int count = elst.getInt(elstPayload + 4);
+            for (int i = 0, entry = elstPayload + 8; i < count; i++, entry += version1 ? 20 : 12) {
+                if (version1) {
+                    elst.putLong(entry, input.scaleToMovie(elst.getLong(entry), movieTimescale));
+                } else {
+                    elst.putInt(entry, (int) input.scaleToMovie(elst.getInt(entry) & MAX_UINT32, movieTimescale));
+                }
+            }
+            out.write(elst.array());
+        } else if (type == STCO || type == CO64) {
+            int count = moov.getInt(payload + 4);
+            int entrySize = type == CO64 ? 8 : 4;
+            out.writeInt(16 + count * (co64 ? 8 : 4));
+            out.writeInt(co64 ? CO64 : STCO);
+            out.writeInt(0);
+            out.writeInt(count);
+            for (int i = 0, entry = payload + 8; i < count; i++, entry += entrySize) {
+                long chunkOffset = input.mapOffset(type == CO64 ? moov.getLong(entry) : moov.getInt(entry) & MAX_UINT32);
+                if (co64) {
+                    out.writeLong(chunkOffset);
+                } else {
+                    out.writeInt((int) chunkOffset);
+                }
+            }
+        } else {
+            out.write(copy(moov, offset, size));
+        }
+    }
+
+    private static void writeTrex(Input input, DataOutputStream out) throws IOException {
+        if (input.trex < 0)
+            throw new IOException("No trex for track " + input.trackId);
+        ByteBuffer trex = ByteBuffer.wrap(copy(input.moov, input.trex, size(input.moov, input.trex, input.moov.limit())));
+        trex.putInt(payloadOffset(trex, 0) + 4, input.newTrackId);
+        out.write(trex.array());
+    }
+
+    private static byte[] ftyp() throws IOException {
+        ByteArrayOutputStream ftyp = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(ftyp);
+        out.writeInt(BRANDS[0]);
+        out.writeInt(0x200);
+        for (int brand : BRANDS) {
+            out.writeInt(brand);
+        }
+        return box(FTYP, ftyp.toByteArray());
+    }
+
+    private static byte[] box(int type, byte[] payload) throws IOException {
+        ByteArrayOutputStream box = new ByteArrayOutputStream(payload.length + 8);
+        DataOutputStream out = new DataOutputStream(box);
+        out.writeInt(payload.length + 8);
+        out.writeInt(type);
+        out.write(payload);
+        return box.toByteArray();
+    }
+
+    private static byte[] copy(ByteBuffer buffer, int offset, int size) {
+        byte[] bytes = new byte[size];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * The size of the box at the offset, it must end before the end of its parent.
+     */
+    private static int size(ByteBuffer buffer, int offset, int parentEnd) throws IOException {
+        if (offset + 8 > parentEnd)
+            throw new IOException("Truncated box at " + offset);
+        long size = buffer.getInt(offset) & MAX_UINT32;
+        if (size == 1) {
+            size = buffer.getLong(offset + 8);
+        } else if (size == 0) {
+            size = parentEnd - offset;
+        }
+        if (size < 8 || offset + size > parentEnd)
+            throw new IOException("Invalid box size at " + offset);
+        return (int) size;
+    }
+
+    private static int payloadOffset(ByteBuffer buffer, int offset) {
+        return offset + (buffer.getInt(offset) == 1 ? 16 : 8);
+    }
+
+    /**
+     * @return the offset of the first child with the type or -1 if there is none
+     */
+    private static int findChild(ByteBuffer buffer, int start, int end, int type) throws IOException {
+        for (int offset = start; offset < end; offset += size(buffer, offset, end)) {
+            if (buffer.getInt(offset + 4) == type)
+                return offset;
+        }
+        return -1;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Box too large: " + size);
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("File ended at " + (position + buffer.position()));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void write(FileChannel out, byte[] bytes) throws IOException {
+        write(out, ByteBuffer.wrap(bytes));
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long transferred = in.transferTo(position, count, out);
+            if (transferred <= 0)
+                throw new EOFException("File ended at " + position);
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    static int type(String type) {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+
+    /**
+     * A box in a file.
+     */
+    private static class Box {
+        final int type;
+        final long offset;
+        final long size;
+        final int headerSize;
+
+        Box(int type, long offset, long size, int headerSize) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+            this.headerSize = headerSize;
+        }
+    }
+
+    /**
+     * A fragment of a file listed in its sidx box.
+     */
+    static class IndexedFragment {
+        final long offset;
+        final long size;
+        final double startSeconds;
+
+        IndexedFragment(long offset, long size, double startSeconds) {
+            this.offset = offset;
+            this.size = size;
+            this.startSeconds = startSeconds;
+        }
+    }
+
+    /**
+     * A moof box and the data behind it up to the end of the last mdat before the next moof.
+     */
+    private static class Fragment {
+        final Input input;
+        final Box moof;
+        final double startSeconds;
+        long end;
+
+        Fragment(Input input, Box moof, double startSeconds) {
+            this.input = input;
+            this.moof = moof;
+            this.startSeconds = startSeconds;
+            end = moof.offset + moof.size;
+        }
+    }
+
+    /**
+     * One of the merged files: the boxes of the wanted track and where its samples are.
+     */
+    private static class Input {
+
+        final FileChannel channel;
+        final int newTrackId;
+        final List<Box> mdats = new ArrayList<>();
+        final List<Fragment> fragments = new ArrayList<>();
+        ByteBuffer moov;
+        int mvhd;
+        int trak = -1;
+        int trex = -1;
+        int trackId;
+        long movieTimescale;
+        long movieDuration;
+        long mediaTimescale;
+        boolean fragmented;
+        // The new offsets of the mdat payloads, in the order of mdats
+        private long[] mdatTargets;
+
+        /**
+         * Only the moov of a file, without access to its samples.
+         */
+        Input(ByteBuffer init, int handlerType, int newTrackId) throws IOException {
+            channel = null;
+            this.newTrackId = newTrackId;
+            int moovOffset = findChild(init, 0, init.limit(), MOOV);
+            if (moovOffset < 0)
+                throw new IOException("No moov box");
+            moov = ByteBuffer.wrap(copy(init, moovOffset, size(init, moovOffset, init.limit())));
+            parseMoov(handlerType);
+        }
+
+        Input(FileChannel channel, int handlerType, int newTrackId) throws IOException {
+            this.channel = channel;
+            this.newTrackId = newTrackId;
+            List<Box> boxes = readBoxes(channel);
+            for (Box box : boxes) {
+                if (box.type == MOOV) {
+                    moov = read(channel, box.offset, box.size);
+                    parseMoov(handlerType);
+                    break;
+                }
+            }
+            if (moov == null)
+                throw new IOException("No moov box");
+            Fragment fragment = null;
+            double lastStart = 0;
+            for (Box box : boxes) {
+                if (box.type == MOOF) {
+                    lastStart = fragmented ? readStartSeconds(box, lastStart) : lastStart;
+                    fragment = new Fragment(this, box, lastStart);
+                    fragments.add(fragment);
+                } else if (box.type == MDAT) {
+                    if (fragment != null) {
+                        fragment.end = box.offset + box.size;
+                    } else {
+                        mdats.add(box);
+                    }
+                }
+            }
+            if (fragmented && !mdats.isEmpty())
+                throw new IOException("Samples outside of the fragments are not supported");
+        }
+
+        private void parseMoov(int handlerType) throws IOException {
+            int end = moov.limit();
+            mvhd = findChild(moov, payloadOffset(moov, 0), end, MVHD);
+            if (mvhd < 0)
+                throw new IOException("No mvhd box");
+            int mvhdPayload = payloadOffset(moov, mvhd);
+            boolean version1 = moov.get(mvhdPayload) == 1;
+            movieTimescale = moov.getInt(mvhdPayload + (version1 ? 20 : 12)) & MAX_UINT32;
+            movieDuration = version1 ? moov.getLong(mvhdPayload + 24) : moov.getInt(mvhdPayload + 16) & MAX_UINT32;
+
+            for (int box = payloadOffset(moov, 0); box < end; box += size(moov, box, end)) {
+                int type = moov.getInt(box + 4);
+                int boxEnd = box + size(moov, box, end);
+                if (type == TRAK && trak < 0 && getHandlerType(box, boxEnd) == handlerType) {
+                    trak = box;
+                    int tkhd = findChild(moov, payloadOffset(moov, box), boxEnd, TKHD);
+                    if (tkhd < 0)
+                        throw new IOException("No tkhd box");
+                    int tkhdPayload = payloadOffset(moov, tkhd);
+                    trackId = moov.getInt(tkhdPayload + (moov.get(tkhdPayload) == 1 ? 20 : 12));
+                    int mdhd = findPath(box, boxEnd, MDIA, MDHD);
+                    if (mdhd >= 0) {
+                        int mdhdPayload = payloadOffset(moov, mdhd);
+                        mediaTimescale = moov.getInt(mdhdPayload + (moov.get(mdhdPayload) == 1 ? 20 : 12)) & MAX_UINT32;
+                    }
+                } else if (type == MVEX) {
+                    fragmented = true;
+                }
+            }
+            if (trak < 0)
+                throw new IOException("No track of type " + Integer.toHexString(handlerType));
+            if (fragmented) {
+                int mvex = findChild(moov, payloadOffset(moov, 0), end, MVEX);
+                int mvexEnd = mvex + size(moov, mvex, end);
+                for (int box = payloadOffset(moov, mvex); box < mvexEnd; box += size(moov, box, mvexEnd)) {
+                    if (moov.getInt(box + 4) == TREX && moov.getInt(payloadOffset(moov, box) + 4) == trackId)
+                        trex = box;
+                }
+            }
+        }
+
+        private int getHandlerType(int trak, int trakEnd) throws IOException {
+            int hdlr = findPath(trak, trakEnd, MDIA, HDLR);
+            return hdlr < 0 ? 0 : moov.getInt(payloadOffset(moov, hdlr) + 8);
+        }
+
+        // The offset of the grandchild of a box
+        private int findPath(int box, int boxEnd, int childType, int grandchildType) throws IOException {
+            int child = findChild(moov, payloadOffset(moov, box), boxEnd, childType);
+            if (child < 0)
+                return -1;
+            return findChild(moov, payloadOffset(moov, child), child + size(moov, child, boxEnd), grandchildType);
+        }
+
+        /**
+         * The decode time of the first sample of the fragment from its tfdt box or the start
+         * of the previous fragment if it has none.
+         */
+        private double readStartSeconds(Box moofBox, double lastStart) throws IOException {
+            ByteBuffer moof = read(channel, moofBox.offset, moofBox.size);
+            int end = moof.limit();
+            for (int box = payloadOffset(moof, 0); box < end; box += size(moof, box, end)) {
+                if (moof.getInt(box + 4) != TRAF)
+                    continue;
+                int tfdt = findChild(moof, payloadOffset(moof, box), box + size(moof, box, end), TFDT);
+                if (tfdt < 0 || mediaTimescale == 0)
+                    break;
+                int payload = payloadOffset(moof, tfdt);
+                long time = moof.get(payload) == 1 ? moof.getLong(payload + 4) : moof.getInt(payload + 4) & MAX_UINT32;
+                return (double) time / mediaTimescale;
+            }
+            return lastStart;
+        }
+
+        /**
+         * Convert a duration in the movie timescale of this file to another timescale.
+         */
+        long scaleToMovie(long duration, long targetTimescale) {
+            if (movieTimescale == 0 || movieTimescale == targetTimescale)
+                return duration;
+            return duration * targetTimescale / movieTimescale;
+        }
+
+        long getMdatPayloadSize() {
+            long size = 0;
+            for (Box mdat : mdats) {
+                size += mdat.size - mdat.headerSize;
+            }
+            return size;
+        }
+
+        /**
+         * Place the mdat payloads one after another starting at the offset.
+         */
+        void mapMdats(long start) {
+            mdatTargets = new long[mdats.size()];
+            for (int i = 0; i < mdats.size(); i++) {
+                mdatTargets[i] = start;
+                start += mdats.get(i).size - mdats.get(i).headerSize;
+            }
+        }
+
+        /**
+         * The new position of a byte in one of the mdats.
+         */
+        long mapOffset(long offset) throws IOException {
+            for (int i = 0; i < mdats.size(); i++) {
+                Box mdat = mdats.get(i);
+                long payloadStart = mdat.offset + mdat.headerSize;
+                if (offset >= payloadStart && offset < mdat.offset + mdat.size)
+                    return mdatTargets[i] + offset - payloadStart;
+            }
+            throw new IOException("Chunk offset " + offset + " is outside of the mdat");
+        }
+
+        private static List<Box> readBoxes(FileChannel channel) throws IOException {
+            List<Box> boxes = new ArrayList<>();
+            long fileSize = channel.size();
+            long position = 0;
+            while (position + 8 <= fileSize) {
+                ByteBuffer header = read(channel, position, Math.min(16, fileSize - position));
+                long size = header.getInt(0) & MAX_UINT32;
+                int headerSize = 8;
+                if (size == 1) {
+                    if (header.limit() < 16)
+                        throw new IOException("Truncated box at " + position);
+                    size = header.getLong(8);
+                    headerSize = 16;
+                } else if (size == 0) {
+                    size = fileSize - position;
+                }
+                if (size < headerSize || position + size > fileSize)
+                    throw new IOException("Invalid box size at " + position);
+                boxes.add(new Box(header.getInt(4), position, size, headerSize));
+                position += size;
+            }
+            return boxes;
+        }
+    }
+}
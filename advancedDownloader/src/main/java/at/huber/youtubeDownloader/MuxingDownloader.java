@@ -0,0 +1,440 @@
+package at.huber.youtubeDownloader;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.huber.youtubeExtractor.HttpTransport;
+
+/**
+ * Downloads a fragmented DASH video and audio stream at once and writes them as one merged
+ * mp4 file while the data arrives, so no separate files are downloaded and read again.
+ * <p/>
+ * The moov and the sidx box at the start of both streams tell where every fragment is, so
+ * every fragment gets its fixed place in the merged file before the download starts: the
+ * fragments of both streams are interleaved by their start time behind the merged moov. The
+ * connections fetch the fragments in the order of the merged file with range requests, the
+ * moof of a fragment is patched like {@link Mp4Muxer} does and the rest is written directly to
+ * its position.
+ * <p/>
+ * The written fragments are recorded in a {@link BlockBitmap}, an interrupted download
+ * continues with the missing fragments.
+ */
+final class MuxingDownloader {
+
+    /**
+     * One of the streams to download.
+     */
+    static class Stream {
+        final String url;
+        final long contentLength;
+        final long indexEnd;
+        final SegmentedDownloader.UrlResolver resolver;
+
+        /**
+         * @param url           the url of the stream
+         * @param contentLength the size of the stream or -1 if it is unknown
+         * @param indexEnd      the last byte of the sidx box or -1 if it is unknown
+         * @param resolver      supplies a new url when the server rejects the old one or null
+         */
+        Stream(String url, long contentLength, long indexEnd, SegmentedDownloader.UrlResolver resolver) {
+            this.url = url;
+            this.contentLength = contentLength;
+            this.indexEnd = indexEnd;
+            this.resolver = resolver;
+        }
+    }
+
+    private static final int MOOF = Mp4Muxer.type("moof");
+    // Room for the sequence numbers of the moof boxes of one fragment
+    private static final int SEQUENCE_NUMBERS_PER_FRAGMENT = 256;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long RETRY_DELAY_MILLIS = 500;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_MOOF_SIZE = 16 * 1024 * 1024;
+
+    private final HttpTransport transport;
+    private final int connections;
+
+    MuxingDownloader(HttpTransport transport, int connections) {
+        this.transport = transport;
+        this.connections = connections;
+    }
+
+    /**
+     * Download and merge both streams into the file, blocks until it is complete. The written
+     * fragments are recorded in the state file, a download into the same file with the same
+     * state file only fetches the missing fragments.
+     *
+     * @param stateFile where the written fragments are recorded or null to always start from
+     *                  zero
+     * @param listener  receives the progress or null
+     * @return false if the streams can't be merged while they download, nothing was written
+     * to the file then
+     * @throws IOException if a fragment still failed after several attempts
+     */
+    boolean download(Stream video, Stream audio, File file, File stateFile,
+                     SegmentedDownloader.ProgressListener listener) throws IOException {
+        if (video.contentLength < 0 || video.indexEnd < 0 || audio.contentLength < 0 || audio.indexEnd < 0)
+            return false;
+        StreamUrl videoUrl = new StreamUrl(video.url, video.resolver);
+        StreamUrl audioUrl = new StreamUrl(audio.url, audio.resolver);
+        ByteBuffer videoIndex = ByteBuffer.wrap(fetchBytes(videoUrl, video.indexEnd + 1));
+        ByteBuffer audioIndex = ByteBuffer.wrap(fetchBytes(audioUrl, audio.indexEnd + 1));
+        byte[] header;
+        List<Mp4Muxer.IndexedFragment> videoFragments;
+        List<Mp4Muxer.IndexedFragment> audioFragments;
+        try {
+            header = Mp4Muxer.fragmentedHeader(videoIndex, audioIndex);
+            videoFragments = Mp4Muxer.readSegmentIndex(videoIndex);
+            audioFragments = Mp4Muxer.readSegmentIndex(audioIndex);
+        } catch (IOException e) {
+            // Like WebM streams or files without a plain sidx
+            e.printStackTrace();
+            return false;
+        }
+        if (!fitsInto(videoFragments, video.contentLength) || !fitsInto(audioFragments, audio.contentLength))
+            return false;
+
+        List<Job> jobs = new ArrayList<>(videoFragments.size() + audioFragments.size());
+        long outOffset = header.length;
+        int v = 0;
+        int a = 0;
+        while (v < videoFragments.size() || a < audioFragments.size()) {
+            Job job;
+            if (a == audioFragments.size() || (v < videoFragments.size()
+                    && videoFragments.get(v).startSeconds <= audioFragments.get(a).startSeconds)) {
+                job = new Job(videoUrl, Mp4Muxer.VIDEO_TRACK_ID, videoFragments.get(v++), outOffset);
+            } else {
+                job = new Job(audioUrl, Mp4Muxer.AUDIO_TRACK_ID, audioFragments.get(a++), outOffset);
+            }
+            job.firstSequenceNumber = jobs.size() * SEQUENCE_NUMBERS_PER_FRAGMENT + 1;
+            jobs.add(job);
+            outOffset += job.fragment.size;
+        }
+        long length = outOffset;
+
+        // The fragments are only valid as long as the file they were written to is still there
+        BlockBitmap bitmap = file.length() == length ? BlockBitmap.load(stateFile, jobs.size(), 1)
+                : BlockBitmap.create(stateFile, jobs.size(), 1);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length);
+            FileChannel channel = randomAccessFile.getChannel();
+            write(channel, ByteBuffer.wrap(header), 0);
+            new Download(jobs, length, channel, bitmap, listener).fetchAll();
+        } finally {
+            randomAccessFile.close();
+        }
+        return true;
+    }
+
+    private static boolean fitsInto(List<Mp4Muxer.IndexedFragment> fragments, long contentLength) {
+        if (fragments.isEmpty())
+            return false;
+        Mp4Muxer.IndexedFragment last = fragments.get(fragments.size() - 1);
+        return last.offset + last.size <= contentLength;
+    }
+
+    /**
+     * The first bytes of a stream.
+     */
+    private byte[] fetchBytes(StreamUrl url, long count) throws IOException {
+        if (count > Integer.MAX_VALUE)
+            throw new IOException("Index too large: " + count);
+        byte[] bytes = new byte[(int) count];
+        for (int attempt = 1; ; ) {
+            String requestUrl = url.get();
+            try {
+                Map<String, String> headers = new HashMap<>();
+                headers.put("Range", "bytes=0-" + (count - 1));
+                headers.put("Accept-Encoding", "identity");
+                HttpTransport.Response response = transport.get(requestUrl, headers);
+                boolean complete = false;
+                try {
+                    int statusCode = response.getStatusCode();
+                    StreamUrl.checkStatus(statusCode);
+                    if (statusCode != 206 && statusCode != 200)
+                        throw new IOException("Unexpected status " + statusCode + " for bytes 0-" + (count - 1));
+                    readFully(response.getBody(), bytes, 0, bytes.length);
+                    // A server that ignores the range sends the whole stream
+                    complete = statusCode == 206;
+                } finally {
+                    if (complete) {
+                        response.close();
+                    } else {
+                        response.abort();
+                    }
+                }
+                return bytes;
+            } catch (StreamUrl.ExpiredException e) {
+                url.refresh(requestUrl, e);
+            } catch (IOException e) {
+                if (attempt++ >= MAX_ATTEMPTS || e instanceof InterruptedIOException)
+                    throw e;
+                sleep(RETRY_DELAY_MILLIS * attempt);
+            }
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] bytes, int offset, int count) throws IOException {
+        for (int read = 0; read < count; ) {
+            int n = in.read(bytes, offset + read, count - read);
+            if (n == -1)
+                throw new EOFException("Response ended early");
+            read += n;
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download cancelled");
+        }
+    }
+
+    /**
+     * A fragment of one of the streams and its place in the merged file.
+     */
+    private static class Job {
+        final StreamUrl url;
+        final int trackId;
+        final Mp4Muxer.IndexedFragment fragment;
+        final long outOffset;
+        int firstSequenceNumber;
+
+        Job(StreamUrl url, int trackId, Mp4Muxer.IndexedFragment fragment, long outOffset) {
+            this.url = url;
+            this.trackId = trackId;
+            this.fragment = fragment;
+            this.outOffset = outOffset;
+        }
+    }
+
+    private class Download implements Runnable {
+
+        private final List<Job> jobs;
+        private final long length;
+        private final FileChannel channel;
+        private final BlockBitmap bitmap;
+        private final SegmentedDownloader.ProgressListener listener;
+        private final AtomicLong downloaded = new AtomicLong();
+        private int nextJob;
+        // An IOException or RuntimeException
+        private Exception failure;
+
+        Download(List<Job> jobs, long length, FileChannel channel, BlockBitmap bitmap,
+                 SegmentedDownloader.ProgressListener listener) {
+            this.jobs = jobs;
+            this.length = length;
+            this.channel = channel;
+            this.bitmap = bitmap;
+            this.listener = listener;
+        }
+
+        void fetchAll() throws IOException {
+            long completed = length;
+            for (int i = 0; i < jobs.size(); i++) {
+                if (!bitmap.isComplete(i))
+                    completed -= jobs.get(i).fragment.size;
+            }
+            downloaded.set(completed);
+            if (listener != null)
+                listener.onProgress(completed, length);
+            if (bitmap.isAllComplete())
+                return;
+            int threads = Math.max(1, Math.min(connections, jobs.size()));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            for (int i = 0; i < threads; i++) {
+                executor.execute(this);
+            }
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    synchronized (this) {
+                        if (failure != null)
+                            executor.shutdownNow();
+                    }
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download cancelled");
+            }
+            synchronized (this) {
+                if (failure instanceof RuntimeException)
+                    throw (RuntimeException) failure;
+                if (failure != null)
+                    throw (IOException) failure;
+            }
+            // A worker that died in another way left its fragment behind
+            if (!bitmap.isAllComplete())
+                throw new IOException("Download incomplete");
+        }
+
+        @Override
+        public void run() {
+            int index;
+            try {
+                while ((index = nextJob()) >= 0) {
+                    fetch(jobs.get(index));
+                    channel.force(false);
+                    bitmap.setComplete(index);
+                    bitmap.save();
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private synchronized int nextJob() {
+            if (failure != null)
+                return -1;
+            while (nextJob < jobs.size() && bitmap.isComplete(nextJob))
+                nextJob++;
+            return nextJob < jobs.size() ? nextJob++ : -1;
+        }
+
+        private synchronized void fail(Exception e) {
+            if (failure == null)
+                failure = e;
+        }
+
+        /**
+         * Fetch a fragment, a failed request starts the fragment again since its moof has to be
+         * patched as a whole.
+         */
+        private void fetch(Job job) throws IOException {
+            for (int attempt = 1; ; ) {
+                String requestUrl = job.url.get();
+                try {
+                    fetchFragment(requestUrl, job);
+                    return;
+                } catch (StreamUrl.ExpiredException e) {
+                    job.url.refresh(requestUrl, e);
+                } catch (IOException e) {
+                    if (attempt++ >= MAX_ATTEMPTS || e instanceof InterruptedIOException)
+                        throw e;
+                    sleep(RETRY_DELAY_MILLIS * attempt);
+                }
+            }
+        }
+
+        /**
+         * Copy the boxes of a fragment from the response to the file, moof boxes are read
+         * completely and patched, everything else is written as it arrives.
+         */
+        private void fetchFragment(String url, Job job) throws IOException {
+            long start = job.fragment.offset;
+            long size = job.fragment.size;
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Range", "bytes=" + start + "-" + (start + size - 1));
+            headers.put("Accept-Encoding", "identity");
+            HttpTransport.Response response = transport.get(url, headers);
+            boolean complete = false;
+            long written = 0;
+            // Bytes reported to the listener so far, taken back if the fragment fails
+            long reported = 0;
+            try {
+                int statusCode = response.getStatusCode();
+                StreamUrl.checkStatus(statusCode);
+                if (statusCode != 206)
+                    throw new IOException("Unexpected status " + statusCode + " for bytes " + start + "-"
+                            + (start + size - 1));
+                InputStream in = response.getBody();
+                byte[] bytes = new byte[BUFFER_SIZE];
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                int sequenceNumber = job.firstSequenceNumber;
+                while (written < size) {
+                    if (Thread.currentThread().isInterrupted())
+                        throw new InterruptedIOException("Download cancelled");
+                    if (size - written < 8)
+                        throw new IOException("Fragment ends inside a box header");
+                    readFully(in, bytes, 0, 8);
+                    int headerSize = 8;
+                    long boxSize = buffer.getInt(0) & 0xFFFFFFFFL;
+                    if (boxSize == 1) {
+                        readFully(in, bytes, 8, 8);
+                        headerSize = 16;
+                        boxSize = buffer.getLong(8);
+                    } else if (boxSize == 0) {
+                        boxSize = size - written;
+                    }
+                    if (boxSize < headerSize || boxSize > size - written)
+                        throw new IOException("Invalid box size " + boxSize + " at byte " + (start + written));
+                    long position = job.outOffset + written;
+                    if (buffer.getInt(4) == MOOF) {
+                        if (boxSize > MAX_MOOF_SIZE)
+                            throw new IOException("moof box too large: " + boxSize);
+                        if (sequenceNumber - job.firstSequenceNumber == SEQUENCE_NUMBERS_PER_FRAGMENT)
+                            throw new IOException("Too many moof boxes in one fragment");
+                        byte[] moof = new byte[(int) boxSize];
+                        System.arraycopy(bytes, 0, moof, 0, headerSize);
+                        readFully(in, moof, headerSize, moof.length - headerSize);
+                        ByteBuffer moofBuffer = ByteBuffer.wrap(moof);
+                        Mp4Muxer.patchMoof(moofBuffer, sequenceNumber++, job.trackId, job.outOffset - start);
+                        write(channel, moofBuffer, position);
+                        progress(boxSize);
+                        reported += boxSize;
+                    } else {
+                        buffer.clear();
+                        buffer.limit(headerSize);
+                        write(channel, buffer, position);
+                        progress(headerSize);
+                        reported += headerSize;
+                        for (long copied = headerSize; copied < boxSize; ) {
+                            if (Thread.currentThread().isInterrupted())
+                                throw new InterruptedIOException("Download cancelled");
+                            int read = in.read(bytes, 0, (int) Math.min(bytes.length, boxSize - copied));
+                            if (read == -1)
+                                throw new EOFException("Response ended at byte " + (start + written + copied));
+                            buffer.clear();
+                            buffer.limit(read);
+                            write(channel, buffer, position + copied);
+                            copied += read;
+                            progress(read);
+                            reported += read;
+                        }
+                    }
+                    written += boxSize;
+                }
+                complete = true;
+            } finally {
+                if (complete) {
+                    response.close();
+                } else {
+                    response.abort();
+                    // The fragment starts again
+                    progress(-reported);
+                }
+            }
+        }
+
+        private void progress(long bytes) {
+            long total = downloaded.addAndGet(bytes);
+            if (listener != null && bytes > 0)
+                listener.onProgress(total, length);
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package at.huber.youtubeDownloader;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.huber.youtubeExtractor.HttpTransport;
+
+/**
+ * Downloads a file over several connections at once. The file is preallocated and split into
+ * chunks which are fetched with range requests, every connection takes the next chunk as soon
+ * as its last one is finished and writes the data directly to its position in the file.
+ * <p/>
+ * The chunk size adapts to the throughput of each connection so a request takes a few
+ * seconds: fast connections need fewer requests, towards the end of the file the chunks get
+ * smaller so all connections finish at about the same time.
+ * <p/>
+ * The written blocks of a file are recorded in a {@link BlockBitmap}, an interrupted download
+ * continues with the missing blocks. If the server rejects an expired url, the download
+ * continues with a new url from a {@link UrlResolver}.
+ */
+public class SegmentedDownloader {
+
+    public interface ProgressListener {
+        /**
+         * Called from the download threads whenever data was written.
+         *
+         * @param downloadedBytes the bytes written so far
+         * @param totalBytes      the size of the file or -1 if it is unknown
+         */
+        void onProgress(long downloadedBytes, long totalBytes);
+    }
+
+    /**
+     * Supplies a new url of a file when the old one expired.
+     */
+    public interface UrlResolver {
+        /**
+         * Called on a download thread when the server rejected the url with 403 or 410.
+         *
+         * @param expiredUrl the rejected url
+         * @return a new url of the same file
+         * @throws IOException if there is no new url
+         */
+        String resolveUrl(String expiredUrl) throws IOException;
+    }
+
+    // Chunks are multiples of this size
+    static final int BLOCK_SIZE = 256 * 1024;
+    private static final int INITIAL_CHUNK_BLOCKS = 4;
+    private static final int MAX_CHUNK_BLOCKS = 32;
+    private static final long TARGET_CHUNK_MILLIS = 3000;
+    private static final int DEFAULT_CONNECTIONS = 4;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long RETRY_DELAY_MILLIS = 500;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final HttpTransport transport;
+    private int connections = DEFAULT_CONNECTIONS;
+    private volatile boolean cancelled;
+
+    public SegmentedDownloader(HttpTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * The number of parallel connections per file. Default: 4
+     */
+    public void setConnections(int connections) {
+        if (connections < 1)
+            throw new IllegalArgumentException("At least one connection is needed");
+        this.connections = connections;
+    }
+
+    /**
+     * Stop all running and future downloads of this downloader, they fail with an
+     * {@link InterruptedIOException}.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Download a file from the start, blocks until it is complete.
+     *
+     * @see #download(String, long, File, File, UrlResolver, ProgressListener)
+     */
+    public void download(String url, long contentLength, File file, ProgressListener listener)
+            throws IOException {
+        download(url, contentLength, file, null, null, listener);
+    }
+
+    /**
+     * Download a file, blocks until it is complete. The written blocks are recorded in the
+     * state file, a download into the same file with the same state file only fetches the
+     * missing blocks. The state file is kept when the download is complete, delete it when
+     * the file is not downloaded again.
+     *
+     * @param url           the url of the file, the server has to support range requests
+     * @param contentLength the size of the file or -1 if it is unknown. Files of unknown size
+     *                      are downloaded over a single connection and always from the start.
+     * @param file          the destination
+     * @param stateFile     where the written blocks are recorded or null to always start
+     *                      from zero
+     * @param urlResolver   supplies a new url when the server rejects the old one or null
+     * @param listener      receives the progress or null
+     * @throws IOException if a chunk still failed after several attempts or the download was
+     *                     cancelled
+     */
+    public void download(String url, long contentLength, File file, File stateFile,
+                         UrlResolver urlResolver, ProgressListener listener) throws IOException {
+        // The blocks are only valid as long as the file they were written to is still there
+        BlockBitmap bitmap = null;
+        if (contentLength >= 0) {
+            bitmap = file.length() == contentLength ? BlockBitmap.load(stateFile, contentLength, BLOCK_SIZE)
+                    : BlockBitmap.create(stateFile, contentLength, BLOCK_SIZE);
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (bitmap == null) {
+                randomAccessFile.setLength(0);
+                Download download = new Download(url, Long.MAX_VALUE, channel, null, urlResolver, listener);
+                download.fetch(new Chunk(0, Long.MAX_VALUE), true);
+            } else {
+                randomAccessFile.setLength(contentLength);
+                new Download(url, contentLength, channel, bitmap, urlResolver, listener).fetchAll();
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * The number of blocks of the next chunk of a connection which needed the time for the
+     * last chunk.
+     */
+    static int adaptChunkBlocks(int blocks, long bytes, long millis) {
+        long target = millis > 0 ? bytes * TARGET_CHUNK_MILLIS / millis / BLOCK_SIZE : MAX_CHUNK_BLOCKS;
+        // Grow slowly, one fast response doesn't mean the connection stays fast
+        return (int) Math.max(1, Math.min(Math.min(target, blocks * 2L), MAX_CHUNK_BLOCKS));
+    }
+
+    private static class Chunk {
+        final long start;
+        final long end;
+        long position;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+            position = start;
+        }
+    }
+
+    private class Download implements Runnable {
+
+        private final long length;
+        private final FileChannel channel;
+        private final BlockBitmap bitmap;
+        private final ProgressListener listener;
+        private final AtomicLong downloaded = new AtomicLong();
+        private final StreamUrl url;
+        private int nextBlock;
+        // An IOException or RuntimeException
+        private Exception failure;
+
+        Download(String url, long length, FileChannel channel, BlockBitmap bitmap, UrlResolver urlResolver,
+                 ProgressListener listener) {
+            this.url = new StreamUrl(url, urlResolver);
+            this.length = length;
+            this.channel = channel;
+            this.bitmap = bitmap;
+            this.listener = listener;
+        }
+
+        void fetchAll() throws IOException {
+            downloaded.set(bitmap.getCompletedBytes());
+            if (listener != null)
+                listener.onProgress(downloaded.get(), length);
+            if (bitmap.isAllComplete())
+                return;
+            int threads = Math.max(1, Math.min(connections, bitmap.getBlockCount()));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            for (int i = 0; i < threads; i++) {
+                executor.execute(this);
+            }
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    if (cancelled)
+                        executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                cancel();
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                if (failure instanceof RuntimeException)
+                    throw (RuntimeException) failure;
+                if (failure != null)
+                    throw (IOException) failure;
+            }
+            if (cancelled)
+                throw new InterruptedIOException("Download cancelled");
+            // A worker that died in another way left its chunk behind
+            if (!bitmap.isAllComplete())
+                throw new IOException("Download incomplete");
+        }
+
+        @Override
+        public void run() {
+            int blocks = INITIAL_CHUNK_BLOCKS;
+            Chunk chunk;
+            try {
+                while ((chunk = nextChunk(blocks)) != null) {
+                    long startTime = System.currentTimeMillis();
+                    try {
+                        fetch(chunk, false);
+                    } catch (IOException | RuntimeException e) {
+                        // Keep the blocks written so far, but report why the chunk failed
+                        try {
+                            commit(chunk);
+                        } catch (IOException commitFailure) {
+                            commitFailure.printStackTrace();
+                        }
+                        throw e;
+                    }
+                    commit(chunk);
+                    blocks = adaptChunkBlocks(blocks, chunk.end - chunk.start,
+                            System.currentTimeMillis() - startTime);
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private synchronized Chunk nextChunk(int blocks) {
+            if (failure != null || cancelled)
+                return null;
+            int blockCount = bitmap.getBlockCount();
+            while (nextBlock < blockCount && bitmap.isComplete(nextBlock))
+                nextBlock++;
+            if (nextBlock == blockCount)
+                return null;
+            // Split the rest evenly when it is small, so no connection stays busy on its own
+            int maxBlocks = Math.max(1, Math.min(blocks, (blockCount - nextBlock) / connections));
+            int firstBlock = nextBlock;
+            while (nextBlock < blockCount && nextBlock - firstBlock < maxBlocks && !bitmap.isComplete(nextBlock))
+                nextBlock++;
+            return new Chunk((long) firstBlock * BLOCK_SIZE, Math.min((long) nextBlock * BLOCK_SIZE, length));
+        }
+
+        /**
+         * Record the blocks the chunk has completely written, also if it failed halfway.
+         */
+        private void commit(Chunk chunk) throws IOException {
+            int firstBlock = (int) (chunk.start / BLOCK_SIZE);
+            int endBlock = chunk.position == length ? bitmap.getBlockCount() : (int) (chunk.position / BLOCK_SIZE);
+            if (endBlock <= firstBlock)
+                return;
+            for (int block = firstBlock; block < endBlock; block++) {
+                bitmap.setComplete(block);
+            }
+            channel.force(false);
+            bitmap.save();
+        }
+
+        private synchronized void fail(Exception e) {
+            if (failure == null)
+                failure = e;
+        }
+
+        /**
+         * Fetch the rest of a chunk, a failed request is continued where it broke off.
+         */
+        void fetch(Chunk chunk, boolean toEnd) throws IOException {
+            for (int attempt = 1; ; ) {
+                String requestUrl = url.get();
+                try {
+                    fetchRange(requestUrl, chunk, toEnd);
+                    return;
+                } catch (StreamUrl.ExpiredException e) {
+                    if (cancelled)
+                        throw e;
+                    url.refresh(requestUrl, e);
+                } catch (IOException e) {
+                    if (attempt++ >= MAX_ATTEMPTS || cancelled || e instanceof InterruptedIOException)
+                        throw e;
+                    try {
+                        Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Download cancelled");
+                    }
+                }
+            }
+        }
+
+        private void fetchRange(String url, Chunk chunk, boolean toEnd) throws IOException {
+            Map<String, String> headers = new HashMap<>();
+            if (toEnd) {
+                if (chunk.position > 0)
+                    headers.put("Range", "bytes=" + chunk.position + "-");
+            } else {
+                headers.put("Range", "bytes=" + chunk.position + "-" + (chunk.end - 1));
+            }
+            headers.put("Accept-Encoding", "identity");
+            HttpTransport.Response response = transport.get(url, headers);
+            boolean complete = false;
+            try {
+                int statusCode = response.getStatusCode();
+                StreamUrl.checkStatus(statusCode);
+                if (statusCode != 206 && !(statusCode == 200 && chunk.position == 0))
+                    throw new IOException("Unexpected status " + statusCode + " for bytes " + chunk.position
+                            + "-" + (chunk.end - 1));
+                InputStream in = response.getBody();
+                byte[] bytes = new byte[BUFFER_SIZE];
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (chunk.position < chunk.end) {
+                    if (cancelled || Thread.currentThread().isInterrupted())
+                        throw new InterruptedIOException("Download cancelled");
+                    int read = in.read(bytes, 0, (int) Math.min(bytes.length, chunk.end - chunk.position));
+                    if (read == -1) {
+                        if (toEnd)
+                            break;
+                        throw new EOFException("Response ended at byte " + chunk.position);
+                    }
+                    buffer.clear();
+                    buffer.limit(read);
+                    while (buffer.hasRemaining()) {
+                        chunk.position += channel.write(buffer, chunk.position);
+                    }
+                    long total = downloaded.addAndGet(read);
+                    if (listener != null)
+                        listener.onProgress(total, toEnd ? -1 : length);
+                }
+                complete = statusCode == 206 || toEnd;
+            } finally {
+                if (complete) {
+                    response.close();
+                } else {
+                    response.abort();
+                }
+            }
+        }
+    }
+}
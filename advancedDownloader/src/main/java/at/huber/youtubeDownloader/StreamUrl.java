@@ -0,0 +1,64 @@
+package at.huber.youtubeDownloader;
+
+import java.io.IOException;
+
+/**
+ * The url of a stream shared by all connections of a download. When the server rejects it
+ * as expired it is replaced with a new one from a {@link SegmentedDownloader.UrlResolver}.
+ */
+final class StreamUrl {
+
+    /**
+     * The server rejected the url with 403 or 410.
+     */
+    static class ExpiredException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ExpiredException(int statusCode) {
+            super("Url rejected with status " + statusCode);
+        }
+    }
+
+    private static final int MAX_REFRESHES = 3;
+
+    private final SegmentedDownloader.UrlResolver resolver;
+    private volatile String url;
+    private int refreshes;
+
+    /**
+     * @param url      the current url
+     * @param resolver supplies a new url or null if an expired url can't be replaced
+     */
+    StreamUrl(String url, SegmentedDownloader.UrlResolver resolver) {
+        this.url = url;
+        this.resolver = resolver;
+    }
+
+    String get() {
+        return url;
+    }
+
+    /**
+     * @throws ExpiredException if the status code tells that the url expired
+     */
+    static void checkStatus(int statusCode) throws ExpiredException {
+        if (statusCode == 403 || statusCode == 410)
+            throw new ExpiredException(statusCode);
+    }
+
+    /**
+     * Continue with a new url. Only the first connection that finds the url expired asks the
+     * resolver, the others use its result.
+     *
+     * @param expiredUrl the url that was rejected
+     * @param e          thrown if there is no new url
+     */
+    synchronized void refresh(String expiredUrl, ExpiredException e) throws IOException {
+        if (!expiredUrl.equals(url))
+            return;
+        if (resolver == null || refreshes >= MAX_REFRESHES)
+            throw e;
+        refreshes++;
+        url = resolver.resolveUrl(expiredUrl);
+    }
+}
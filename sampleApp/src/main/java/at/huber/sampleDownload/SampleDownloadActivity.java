@@ -15,6 +15,10 @@ import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import at.huber.youtubeExtractor.FormatSelector;
 import at.huber.youtubeExtractor.VideoMeta;
 import at.huber.youtubeExtractor.YouTubeExtractor;
 import at.huber.youtubeExtractor.YtFile;
@@ -68,16 +72,18 @@ public class SampleDownloadActivity extends Activity {
                     finish();
                     return;
                 }
-                // Iterate over itags
-                for (int i = 0, itag; i < ytFiles.size(); i++) {
-                    itag = ytFiles.keyAt(i);
+                List<YtFile> allFiles = new ArrayList<>(ytFiles.size());
+                for (int i = 0; i < ytFiles.size(); i++) {
                     // ytFile represents one file with its url and meta data
-                    YtFile ytFile = ytFiles.get(itag);
-
-                    // Just add videos in a decent format => height -1 = audio
-                    if (ytFile.getFormat().getHeight() == -1 || ytFile.getFormat().getHeight() >= 360) {
-                        addButtonToMainLayout(vMeta.getTitle(), ytFile);
-                    }
+                    allFiles.add(ytFiles.valueAt(i));
+                }
+                FormatSelector selector = new FormatSelector(allFiles);
+                // Just add videos in a decent format, sorted by their quality
+                for (YtFile ytFile : selector.getAudios()) {
+                    addButtonToMainLayout(vMeta.getTitle(), ytFile);
+                }
+                for (YtFile ytFile : selector.getVideos(360)) {
+                    addButtonToMainLayout(vMeta.getTitle(), ytFile);
                 }
             }
         }.extract(youtubeLink);
@@ -0,0 +1,204 @@
+package at.huber.youtubeExtractor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static android.support.test.InstrumentationRegistry.getInstrumentation;
+import static at.huber.youtubeExtractor.EngineTestCases.VIDEO_INFO;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Runs batches against canned responses instead of YouTube.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchExtractorTestCases {
+
+    @Test
+    public void testBatch() throws Throwable {
+        // Unique ids, so no result comes from the shared caches
+        String prefix = "b" + System.nanoTime();
+        final List<String> links = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            links.add(prefix + "ok" + i);
+        }
+        links.add(prefix + "nostreams");
+        links.add(prefix + "gone");
+
+        EngineTestCases.FakeTransport responses = new EngineTestCases.FakeTransport();
+        responses.respond("https://www.youtube.com/get_video_info?video_id=" + prefix + "nostreams", 200,
+                "status=fail&reason=Unavailable");
+        responses.respond("https://www.youtube.com/get_video_info?video_id=" + prefix + "gone", 404, "");
+        responses.respond("https://www.youtube.com/get_video_info", 200, VIDEO_INFO);
+        responses.respond("https://youtube.com/watch", 200, "<html></html>");
+        final ParallelTransport transport = new ParallelTransport(responses);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+        final Map<String, Exception> failed = Collections.synchronizedMap(new HashMap<String, Exception>());
+        final boolean[] offMainThread = new boolean[1];
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                YouTubeBatchExtractor batch = new YouTubeBatchExtractor(getInstrumentation().getTargetContext(), 2) {
+                    @Override
+                    protected void onExtractionComplete(String youtubeLink, SparseArray<YtFile> ytFiles,
+                                                        VideoMeta videoMeta) {
+                        offMainThread[0] |= Looper.myLooper() != Looper.getMainLooper();
+                        if (ytFiles.size() == 2)
+                            completed.add(youtubeLink);
+                    }
+
+                    @Override
+                    protected void onExtractionFailed(String youtubeLink, Exception e) {
+                        offMainThread[0] |= Looper.myLooper() != Looper.getMainLooper();
+                        failed.put(youtubeLink, e);
+                    }
+
+                    @Override
+                    protected void onBatchComplete() {
+                        offMainThread[0] |= Looper.myLooper() != Looper.getMainLooper();
+                        done.countDown();
+                    }
+                };
+                batch.setHttpTransport(transport);
+                batch.extract(links);
+            }
+        });
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+
+        assertEquals(6, completed.size());
+        assertTrue(completed.containsAll(links.subList(0, 6)));
+        assertEquals(2, failed.size());
+        // A video without streams is no error
+        assertTrue(failed.containsKey(prefix + "nostreams"));
+        assertNull(failed.get(prefix + "nostreams"));
+        assertTrue(failed.get(prefix + "gone") instanceof IOException);
+        assertFalse(offMainThread[0]);
+        // Runs in parallel, but never more than allowed
+        assertEquals(2, transport.maxActive);
+    }
+
+    @Test
+    public void testParallelEncipheredVideos() throws Throwable {
+        String prefix = "e" + System.nanoTime();
+        final List<String> links = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            links.add(prefix + "enc" + i);
+        }
+        String jsFileName = "player-" + prefix + "/en_US/base.js";
+        EngineTestCases.FakeTransport responses = EngineTestCases.encipheredVideo(jsFileName);
+        final ParallelTransport transport = new ParallelTransport(responses);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                YouTubeBatchExtractor batch = new YouTubeBatchExtractor(getInstrumentation().getTargetContext(), 3) {
+                    @Override
+                    protected void onExtractionComplete(String youtubeLink, SparseArray<YtFile> ytFiles,
+                                                        VideoMeta videoMeta) {
+                        urls.add(ytFiles.get(22).getUrl());
+                    }
+
+                    @Override
+                    protected void onBatchComplete() {
+                        done.countDown();
+                    }
+                };
+                batch.setHttpTransport(transport);
+                batch.extract(links);
+            }
+        });
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+
+        // All extractions share the decipher function of the player, it is loaded once
+        assertEquals(6, urls.size());
+        for (String url : urls) {
+            assertEquals("https://r1.googlevideo.com/videoplayback?itag=22&sig=" +
+                    SignatureDecipherTestCases.DEC_SIGNATURE, url);
+        }
+        int playerRequests = 0;
+        synchronized (responses) {
+            for (String request : responses.requests) {
+                if (request.equals("https://s.ytimg.com/yts/jsbin/" + jsFileName))
+                    playerRequests++;
+            }
+        }
+        assertEquals(1, playerRequests);
+        assertEquals(3, transport.maxActive);
+    }
+
+    @Test
+    public void testEmptyBatch() throws Throwable {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                new YouTubeBatchExtractor(getInstrumentation().getTargetContext(), 1) {
+                    @Override
+                    protected void onExtractionComplete(String youtubeLink, SparseArray<YtFile> ytFiles,
+                                                        VideoMeta videoMeta) {
+                    }
+
+                    @Override
+                    protected void onBatchComplete() {
+                        done.countDown();
+                    }
+                }.extract(Arrays.<String>asList());
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Holds every get_video_info request for a while and records how many run at once.
+     */
+    static class ParallelTransport implements HttpTransport {
+
+        private final HttpTransport responses;
+        private int active;
+        int maxActive;
+
+        ParallelTransport(HttpTransport responses) {
+            this.responses = responses;
+        }
+
+        @Override
+        public Response get(String url, Map<String, String> headers) throws IOException {
+            if (!url.startsWith("https://www.youtube.com/get_video_info"))
+                return responses.get(url, headers);
+            synchronized (this) {
+                maxActive = Math.max(maxActive, ++active);
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                synchronized (this) {
+                    active--;
+                }
+            }
+            return responses.get(url, headers);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package at.huber.youtubeExtractor;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DiskExtractionCacheTestCases {
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File dir = tempDir();
+        try {
+            new DiskExtractionCache(dir, 1024 * 1024).put("abc:d", result("abc"),
+                    System.currentTimeMillis() + HOUR_MILLIS);
+
+            // Read by another instance like after a restart
+            ExtractionResult result = new DiskExtractionCache(dir, 1024 * 1024).get("abc:d");
+            assertNotNull(result);
+            VideoMeta videoMeta = result.getVideoMeta();
+            assertEquals("abc", videoMeta.getVideoId());
+            assertEquals("Title ä", videoMeta.getTitle());
+            assertNull(videoMeta.getAuthor());
+            assertEquals("channel", videoMeta.getChannelId());
+            assertEquals(215, videoMeta.getVideoLength());
+            assertEquals(1234567890123L, videoMeta.getViewCount());
+            assertTrue(videoMeta.isLiveStream());
+            assertEquals("Line 1\nLine 2", videoMeta.getShortDescription());
+
+            assertEquals(Arrays.asList(22, 137), Arrays.asList(result.getYtFiles().keySet().toArray()));
+            YtFile muxed = result.getYtFiles().get(22);
+            assertEquals(Formats.get(22), muxed.getFormat());
+            assertEquals("https://r1.googlevideo.com/videoplayback?itag=22", muxed.getUrl());
+            assertEquals(-1, muxed.getContentLength());
+            assertNull(muxed.getMimeType());
+            assertNull(muxed.getInitRange());
+            assertNull(muxed.getInitSegment());
+            assertTrue(muxed.getSegments().isEmpty());
+
+            YtFile dash = result.getYtFiles().get(137);
+            assertEquals("https://r1.googlevideo.com/videoplayback?itag=137&expire=1", dash.getUrl());
+            assertEquals(4000000, dash.getBitrate());
+            assertEquals(5000000000L, dash.getContentLength());
+            assertEquals(1920, dash.getWidth());
+            assertEquals(1080, dash.getHeight());
+            assertEquals(30, dash.getFps());
+            assertEquals("video/mp4", dash.getMimeType());
+            assertEquals("avc1.640028", dash.getCodecs());
+            assertEquals(new ByteRange(0, 740), dash.getInitRange());
+            assertEquals(new ByteRange(741, 1300), dash.getIndexRange());
+            assertEquals("https://r1.googlevideo.com/init", dash.getInitSegment().getUrl());
+            assertNull(dash.getInitSegment().getRange());
+            assertEquals(2, dash.getSegments().size());
+            assertEquals(new ByteRange(1301, 90000), dash.getSegments().get(1).getRange());
+            assertEquals(5005, dash.getSegments().get(1).getDurationMillis());
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void testExpiredResultIsDeleted() throws Exception {
+        File dir = tempDir();
+        try {
+            DiskExtractionCache cache = new DiskExtractionCache(dir, 1024 * 1024);
+            cache.put("old", result("old"), System.currentTimeMillis() - 1);
+            assertNull(cache.get("old"));
+            assertEquals(0, cacheFiles(dir).length);
+
+            cache.put("soon", result("soon"), System.currentTimeMillis() + 100);
+            assertNotNull(cache.get("soon"));
+            Thread.sleep(150);
+            assertNull(cache.get("soon"));
+            assertEquals(0, cacheFiles(dir).length);
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFilesAreDeleted() throws Exception {
+        File dir = tempDir();
+        try {
+            long expiresAt = System.currentTimeMillis() + HOUR_MILLIS;
+            new DiskExtractionCache(dir, Long.MAX_VALUE).put("aaa", result("aaa"), expiresAt);
+            long fileSize = cacheFiles(dir)[0].length();
+            // Room for two results
+            DiskExtractionCache cache = new DiskExtractionCache(dir, fileSize * 5 / 2);
+            cache.put("bbb", result("bbb"), expiresAt);
+            long now = System.currentTimeMillis();
+            new File(dir, "aaa.ytc").setLastModified(now - 20000);
+            new File(dir, "bbb.ytc").setLastModified(now - 10000);
+            // Now bbb is the least recently used one
+            assertNotNull(cache.get("aaa"));
+
+            cache.put("ccc", result("ccc"), expiresAt);
+            assertEquals(2, cacheFiles(dir).length);
+            assertNotNull(cache.get("aaa"));
+            assertNull(cache.get("bbb"));
+            assertNotNull(cache.get("ccc"));
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void testTempFilesOfACrashAreIgnored() throws Exception {
+        File dir = tempDir();
+        try {
+            long expiresAt = System.currentTimeMillis() + HOUR_MILLIS;
+            DiskExtractionCache cache = new DiskExtractionCache(dir, 1024 * 1024);
+            cache.put("aaa", result("aaa"), expiresAt);
+            // A crash while writing leaves a partly written temp file
+            File tempFile = new File(dir, "bbb.ytc.tmp");
+            byte[] bytes = readFile(new File(dir, "aaa.ytc"));
+            writeFile(tempFile, Arrays.copyOf(bytes, bytes.length / 2));
+            assertNull(cache.get("bbb"));
+
+            cache.put("ccc", result("ccc"), expiresAt);
+            assertFalse(tempFile.exists());
+            assertNotNull(cache.get("aaa"));
+
+            // A truncated result is dropped
+            File truncated = new File(dir, "ccc.ytc");
+            writeFile(truncated, Arrays.copyOf(bytes, bytes.length - 3));
+            assertNull(cache.get("ccc"));
+            assertFalse(truncated.exists());
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void testOtherFormatIsRejected() throws Exception {
+        File dir = tempDir();
+        try {
+            long expiresAt = System.currentTimeMillis() + HOUR_MILLIS;
+            DiskExtractionCache cache = new DiskExtractionCache(dir, 1024 * 1024);
+            cache.put("magic", result("magic"), expiresAt);
+            File file = new File(dir, "magic.ytc");
+            patchByte(file, 0, 'X');
+            assertNull(cache.get("magic"));
+            assertFalse(file.exists());
+
+            // Written by another version
+            cache.put("version", result("version"), expiresAt);
+            file = new File(dir, "version.ytc");
+            patchByte(file, 4, 2);
+            assertNull(cache.get("version"));
+            assertFalse(file.exists());
+
+            cache.put("version", result("version"), expiresAt);
+            assertNotNull(cache.get("version"));
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    private static ExtractionResult result(String videoId) {
+        Map<Integer, YtFile> ytFiles = new TreeMap<>();
+        ytFiles.put(137, new YtFile(Formats.get(137), "https://r1.googlevideo.com/videoplayback?itag=137&expire=1",
+                4000000, 5000000000L, 1920, 1080, 30, "video/mp4", "avc1.640028", new ByteRange(0, 740),
+                new ByteRange(741, 1300), new Segment("https://r1.googlevideo.com/init", null, 0),
+                Arrays.asList(new Segment("https://r1.googlevideo.com/media", new ByteRange(0, 1300), 0),
+                        new Segment("https://r1.googlevideo.com/media", new ByteRange(1301, 90000), 5005))));
+        ytFiles.put(22, new YtFile(Formats.get(22), "https://r1.googlevideo.com/videoplayback?itag=22"));
+        VideoMeta videoMeta = new VideoMeta(videoId, "Title ä", null, "channel", 215, 1234567890123L, true,
+                "Line 1\nLine 2");
+        return new ExtractionResult(videoMeta, ytFiles);
+    }
+
+    private static File tempDir() {
+        return new File(System.getProperty("java.io.tmpdir"), "extraction-cache-test-" + System.nanoTime());
+    }
+
+    private static File[] cacheFiles(File dir) {
+        File[] files = dir.listFiles();
+        return files != null ? files : new File[0];
+    }
+
+    private static void patchByte(File file, long position, int value) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(position);
+            randomAccessFile.write(value);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            return bytes;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void deleteDir(File dir) {
+        for (File f : cacheFiles(dir)) {
+            f.delete();
+        }
+        dir.delete();
+    }
+}
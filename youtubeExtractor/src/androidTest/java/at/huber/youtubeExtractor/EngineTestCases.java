@@ -0,0 +1,508 @@
+package at.huber.youtubeExtractor;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * Runs the engine against canned responses instead of YouTube.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EngineTestCases {
+
+    static final String VIDEO_INFO = "status=ok&title=Test&author=Someone&length_seconds=10" +
+            "&url_encoded_fmt_stream_map=itag%3D22%26url%3Dhttps%253A%252F%252Fr1.googlevideo.com%252F" +
+            "videoplayback%253Fitag%253D22%2Citag%3D43%26url%3Dhttps%253A%252F%252Fr1.googlevideo.com%252F" +
+            "videoplayback%253Fitag%253D43";
+
+    private static final SignatureDecipherer NO_DECIPHERER = new SignatureDecipherer() {
+        @Override
+        public void decipher(DecipherFunction function, String[] encSignatures, Callback callback) {
+            throw new AssertionError("Nothing to decipher");
+        }
+    };
+
+    @Test
+    public void testExtractWithTransport() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.respond("https://www.youtube.com/get_video_info?video_id=abc", 200, VIDEO_INFO);
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(NO_DECIPHERER);
+        engine.setHttpTransport(transport);
+
+        ExtractionResult result = engine.extract("https://youtu.be/abc");
+        assertEquals("Test", result.getVideoMeta().getTitle());
+        assertEquals(10, result.getVideoMeta().getVideoLength());
+        assertNotNull(result.getYtFiles());
+        assertEquals(2, result.getYtFiles().size());
+        assertEquals("https://r1.googlevideo.com/videoplayback?itag=22", result.getYtFiles().get(22).getUrl());
+        assertEquals(1, transport.requests.size());
+        assertEquals(1, transport.closed);
+
+        engine.setIncludeWebM(false);
+        result = engine.extract("abc");
+        assertEquals(1, result.getYtFiles().size());
+        assertFalse(result.getYtFiles().containsKey(43));
+    }
+
+    @Test
+    public void testSpeculativeFetch() throws Exception {
+        final FakeTransport transport = new FakeTransport();
+        transport.respond("https://www.youtube.com/get_video_info", 200, VIDEO_INFO +
+                "&dashmpd=https%3A%2F%2Fmanifest.googlevideo.com%2Fapi%2Fmanifest%2Fdash");
+        transport.respond("https://manifest.googlevideo.com/", 200, "<?xml version=\"1.0\"?>\n" +
+                "<MPD><Period><AdaptationSet><Representation id=\"140\">\n" +
+                "<BaseURL>https://r1.googlevideo.com/videoplayback/itag/140/</BaseURL>\n" +
+                "</Representation></AdaptationSet></Period></MPD>");
+        // The watch page never ends unless it is aborted
+        final BlockingTransport page = new BlockingTransport();
+        final boolean[] pageBeforeInfo = new boolean[1];
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(NO_DECIPHERER);
+        engine.setHttpTransport(new HttpTransport() {
+            @Override
+            public Response get(String url, Map<String, String> headers) throws IOException {
+                if (url.startsWith("https://youtube.com/watch"))
+                    return page.get(url, headers);
+                if (url.startsWith("https://www.youtube.com/get_video_info")) {
+                    try {
+                        pageBeforeInfo[0] = page.requested.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return transport.get(url, headers);
+            }
+        });
+        engine.setSpeculativeFetch(true);
+        engine.setParseDashManifest(true);
+
+        ExtractionResult result = engine.extract("abc");
+        assertEquals(3, result.getYtFiles().size());
+        assertEquals("https://r1.googlevideo.com/videoplayback/itag/140/", result.getYtFiles().get(140).getUrl());
+        assertTrue(pageBeforeInfo[0]);
+        // The video is not enciphered, so the page is not needed
+        assertTrue(page.aborted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStreamDetails() throws Exception {
+        String adaptiveFmts = "itag=137&bitrate=4400000&size=1920x1080&fps=30&init=0-711&index=712-2643" +
+                "&type=" + URLEncoder.encode("video/mp4; codecs=\"avc1.640028\"", "UTF-8") +
+                "&url=" + URLEncoder.encode("https://r1.googlevideo.com/videoplayback?itag=137&clen=5000000", "UTF-8");
+        FakeTransport transport = new FakeTransport();
+        transport.respond("https://www.youtube.com/get_video_info", 200, VIDEO_INFO +
+                "&adaptive_fmts=" + URLEncoder.encode(adaptiveFmts, "UTF-8") +
+                "&dashmpd=https%3A%2F%2Fmanifest.googlevideo.com%2Fapi%2Fmanifest%2Fdash");
+        transport.respond("https://manifest.googlevideo.com/", 200, "<?xml version=\"1.0\"?>\n" +
+                "<MPD><Period><AdaptationSet mimeType=\"audio/mp4\"><Representation id=\"140\" " +
+                "codecs=\"mp4a.40.2\" bandwidth=\"130000\"><BaseURL yt:contentLength=\"160000\">" +
+                "https://r1.googlevideo.com/videoplayback/itag/140/</BaseURL><SegmentBase indexRange=\"592-1163\">" +
+                "<Initialization range=\"0-591\"/></SegmentBase></Representation></AdaptationSet></Period></MPD>");
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(NO_DECIPHERER);
+        engine.setHttpTransport(transport);
+        engine.setParseDashManifest(true);
+
+        ExtractionResult result = engine.extract("abc");
+        YtFile video = result.getYtFiles().get(137);
+        assertEquals(4400000, video.getBitrate());
+        assertEquals(5000000, video.getContentLength());
+        assertEquals(1920, video.getWidth());
+        assertEquals(1080, video.getHeight());
+        assertEquals("video/mp4", video.getMimeType());
+        assertEquals("avc1.640028", video.getCodecs());
+        assertEquals(new ByteRange(0, 711), video.getInitRange());
+        assertEquals(1932, video.getIndexRange().getLength());
+
+        YtFile audio = result.getYtFiles().get(140);
+        assertEquals(130000, audio.getBitrate());
+        assertEquals(160000, audio.getContentLength());
+        assertEquals("audio/mp4", audio.getMimeType());
+        assertEquals("mp4a.40.2", audio.getCodecs());
+        assertEquals("0-591", audio.getInitRange().toString());
+        assertEquals(new ByteRange(592, 1163), audio.getIndexRange());
+
+        // Nothing known about the muxed stream but its format
+        YtFile muxed = result.getYtFiles().get(22);
+        assertEquals(-1, muxed.getBitrate());
+        assertEquals(720, muxed.getHeight());
+        assertNull(muxed.getInitRange());
+    }
+
+    @Test
+    public void testLiveStream() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.respond("https://www.youtube.com/get_video_info", 200, "status=ok&title=Live" +
+                "&hlsvp=https%3A%2F%2Fmanifest.googlevideo.com%2Fapi%2Fmanifest%2Fhls_variant%2Fmaster.m3u8");
+        transport.respond("https://manifest.googlevideo.com/api/manifest/hls_variant/", 200, "#EXTM3U\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=1280000,RESOLUTION=1280x720\n" +
+                "https://manifest.googlevideo.com/api/manifest/hls_playlist/itag/95/index.m3u8\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=1000\n" +
+                "https://manifest.googlevideo.com/api/manifest/hls_playlist/itag/99999/index.m3u8\n");
+        transport.respond("https://manifest.googlevideo.com/api/manifest/hls_playlist/", 200, "#EXTM3U\n" +
+                "#EXT-X-TARGETDURATION:2\n#EXT-X-MEDIA-SEQUENCE:7\n" +
+                "#EXTINF:2.0,\nsq/7/file.ts\n#EXTINF:2.0,\nsq/8/file.ts\n");
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(NO_DECIPHERER);
+        engine.setHttpTransport(transport);
+
+        ExtractionResult result = engine.extract("live");
+        assertTrue(result.getVideoMeta().isLiveStream());
+        assertEquals(1, result.getYtFiles().size());
+        YtFile ytFile = result.getYtFiles().get(95);
+        assertEquals(1280000, ytFile.getBitrate());
+        assertEquals(1280, ytFile.getWidth());
+
+        HlsRefresher refresher = engine.createHlsRefresher(ytFile);
+        List<Segment> segments = refresher.refresh();
+        assertEquals(2, segments.size());
+        assertEquals("https://manifest.googlevideo.com/api/manifest/hls_playlist/itag/95/sq/7/file.ts",
+                segments.get(0).getUrl());
+        assertEquals(2000, refresher.getRefreshDelayMillis());
+
+        // Nothing new, refresh again after half the target duration
+        assertTrue(refresher.refresh().isEmpty());
+        assertEquals(1000, refresher.getRefreshDelayMillis());
+
+        transport.respond("https://manifest.googlevideo.com/api/manifest/hls_playlist/", 200, "#EXTM3U\n" +
+                "#EXT-X-TARGETDURATION:2\n#EXT-X-MEDIA-SEQUENCE:8\n" +
+                "#EXTINF:2.0,\nsq/8/file.ts\n#EXTINF:2.0,\nsq/9/file.ts\n#EXT-X-ENDLIST\n");
+        segments = refresher.refresh();
+        assertEquals(1, segments.size());
+        assertTrue(segments.get(0).getUrl().endsWith("/sq/9/file.ts"));
+        assertTrue(refresher.isEnded());
+    }
+
+    @Test
+    public void testEncipheredVideo() throws Exception {
+        String jsFileName = "player-" + System.nanoTime() + "/en_US/base.js";
+        FakeTransport transport = encipheredVideo(jsFileName);
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(new InterpretingSignatureDecipherer(null));
+        engine.setHttpTransport(transport);
+
+        ExtractionResult result = engine.extract("enc");
+        assertNotNull(result.getYtFiles());
+        assertEquals("https://r1.googlevideo.com/videoplayback?itag=22&sig=" +
+                SignatureDecipherTestCases.DEC_SIGNATURE, result.getYtFiles().get(22).getUrl());
+        assertTrue(transport.requests.contains("https://s.ytimg.com/yts/jsbin/" + jsFileName));
+    }
+
+    @Test
+    public void testWarmUpLoadsPlayer() throws Exception {
+        String jsFileName = "player-" + System.nanoTime() + "/en_US/base.js";
+        FakeTransport transport = encipheredVideo(jsFileName);
+        transport.respond("https://www.youtube.com/robots.txt", 200, "");
+        transport.respond("https://s.ytimg.com/robots.txt", 200, "");
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(new InterpretingSignatureDecipherer(null));
+        engine.setHttpTransport(transport);
+
+        engine.warmUp("enc");
+        assertTrue(transport.requests.contains("https://s.ytimg.com/yts/jsbin/" + jsFileName));
+        assertTrue(transport.requests.contains("https://www.youtube.com/robots.txt"));
+        transport.requests.clear();
+
+        ExtractionResult result = engine.extract("enc");
+        assertNotNull(result.getYtFiles());
+        assertFalse(transport.requests.contains("https://s.ytimg.com/yts/jsbin/" + jsFileName));
+    }
+
+    @Test
+    public void testAsyncDecipherCallback() throws Exception {
+        FakeTransport transport = encipheredVideo("player-" + System.nanoTime() + "/en_US/base.js");
+        // Hands the result back on another thread like the WebView does
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(new SignatureDecipherer() {
+            @Override
+            public void decipher(DecipherFunction function, final String[] encSignatures, final Callback callback) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onDeciphered(new String[]{"DEC"});
+                    }
+                }).start();
+            }
+        });
+        engine.setHttpTransport(transport);
+        final ExtractionResult[] callbackResult = new ExtractionResult[1];
+        final CountDownLatch called = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ExtractionTask task = engine.extractAsync("enc", executor, new ExtractionTask.Callback() {
+                @Override
+                public void onExtractionComplete(ExtractionResult result) {
+                    callbackResult[0] = result;
+                    called.countDown();
+                }
+
+                @Override
+                public void onExtractionFailed(Exception e) {
+                    called.countDown();
+                }
+            });
+            ExtractionResult result = task.get(5, TimeUnit.SECONDS);
+            assertTrue(called.await(5, TimeUnit.SECONDS));
+            assertSame(result, callbackResult[0]);
+            assertEquals("https://r1.googlevideo.com/videoplayback?itag=22&sig=DEC",
+                    result.getYtFiles().get(22).getUrl());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDecipherTimeout() throws Exception {
+        FakeTransport transport = encipheredVideo("player-" + System.nanoTime() + "/en_US/base.js");
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(new SignatureDecipherer() {
+            @Override
+            public void decipher(DecipherFunction function, String[] encSignatures, Callback callback) {
+                // Never calls back
+            }
+        });
+        engine.setHttpTransport(transport);
+        engine.setDecipherTimeout(100, TimeUnit.MILLISECONDS);
+        long start = System.currentTimeMillis();
+        ExtractionResult result = engine.extract("enc");
+        assertNull(result.getYtFiles());
+        assertEquals("Test", result.getVideoMeta().getTitle());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testCancelAbortsRequest() throws Exception {
+        BlockingTransport transport = new BlockingTransport();
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(NO_DECIPHERER);
+        engine.setHttpTransport(transport);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ExtractionTask task = engine.extractAsync("abc", executor);
+            assertTrue(transport.requested.await(5, TimeUnit.SECONDS));
+            assertTrue(task.cancel(true));
+            assertTrue(transport.aborted.await(5, TimeUnit.SECONDS));
+            assertTrue(task.isCancelled());
+            try {
+                task.get();
+                fail("Not cancelled");
+            } catch (CancellationException ignored) {
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancellationCheck() throws Exception {
+        final BlockingTransport transport = new BlockingTransport();
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(NO_DECIPHERER);
+        engine.setHttpTransport(transport);
+        try {
+            engine.extract("abc", new YouTubeExtractorEngine.CancellationCheck() {
+                @Override
+                public boolean isCancelled() {
+                    return transport.requested.getCount() == 0;
+                }
+            });
+            fail("Not cancelled");
+        } catch (CancellationException ignored) {
+        }
+        assertEquals(0, transport.aborted.getCount());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        BlockingTransport transport = new BlockingTransport();
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(NO_DECIPHERER);
+        engine.setHttpTransport(transport);
+        engine.setDeadline(200, TimeUnit.MILLISECONDS);
+        try {
+            engine.extract("abc");
+            fail("Deadline not enforced");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, transport.aborted.getCount());
+    }
+
+    @Test
+    public void testErrorStatus() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.respond("https://www.youtube.com/get_video_info", 404, "");
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(NO_DECIPHERER);
+        engine.setHttpTransport(transport);
+        try {
+            engine.extract("abc");
+            fail("No IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("HTTP 404"));
+        }
+        assertEquals(1, transport.aborted);
+    }
+
+    @Test
+    public void testCachedResultNeedsNoRequest() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.respond("https://www.youtube.com/get_video_info", 200, VIDEO_INFO);
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(NO_DECIPHERER);
+        engine.setHttpTransport(transport);
+        engine.setExtractionCache(new ExtractionCache(4));
+
+        ExtractionResult first = engine.extract("abc");
+        ExtractionResult second = engine.extract("abc");
+        assertEquals(first, second);
+        assertEquals(1, transport.requests.size());
+        engine.extract("https://www.youtube.com/watch?v=xyz");
+        assertEquals(2, transport.requests.size());
+    }
+
+    /**
+     * A video with an enciphered signature, the player js has the decipher function of
+     * {@link SignatureDecipherTestCases}.
+     */
+    static FakeTransport encipheredVideo(String jsFileName) {
+        String streamMap = "itag=22&s=" + SignatureDecipherTestCases.ENC_SIGNATURE +
+                "&url=https%3A%2F%2Fr1.googlevideo.com%2Fvideoplayback%3Fitag%3D22";
+        FakeTransport transport = new FakeTransport();
+        transport.respond("https://www.youtube.com/get_video_info", 200, "status=ok&title=Test" +
+                "&url_encoded_fmt_stream_map=" + streamMap.replace("%", "%25").replace("&", "%26")
+                .replace("=", "%3D"));
+        transport.respond("https://youtube.com/watch", 200, "<html><script>var ytplayer = {\"args\":{" +
+                "\"url_encoded_fmt_stream_map\":\"" + streamMap.replace("&", "\\u0026") + "\"}," +
+                "\"assets\":{\"js\":\"\\/yts\\/jsbin\\/" + jsFileName.replace("/", "\\/") + "\"}};\n" +
+                "</script></html>");
+        transport.respond("https://s.ytimg.com/yts/jsbin/", 200, "var _yt_player={};" +
+                SignatureDecipherTestCases.DECIPHER_FUNCTIONS.replace("var Qo=", "Qo="));
+        return transport;
+    }
+
+    /**
+     * Never answers a request until it is aborted.
+     */
+    static class BlockingTransport implements HttpTransport {
+
+        final CountDownLatch requested = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+
+        @Override
+        public Response get(String url, Map<String, String> headers) {
+            requested.countDown();
+            return new Response() {
+                @Override
+                public int getStatusCode() {
+                    return 200;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new InputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            // Like a socket an interrupt doesn't end the read, only an abort
+                            boolean interrupted = false;
+                            while (true) {
+                                try {
+                                    aborted.await();
+                                    break;
+                                } catch (InterruptedException e) {
+                                    interrupted = true;
+                                }
+                            }
+                            if (interrupted)
+                                Thread.currentThread().interrupt();
+                            throw new IOException("Connection aborted");
+                        }
+                    };
+                }
+
+                @Override
+                public void close() {
+                }
+
+                @Override
+                public void abort() {
+                    aborted.countDown();
+                }
+            };
+        }
+    }
+
+    /**
+     * Answers every request whose url starts with a registered prefix.
+     */
+    static class FakeTransport implements HttpTransport {
+
+        final List<String> requests = new ArrayList<>();
+        private final Map<String, Object[]> responses = new LinkedHashMap<>();
+        int closed;
+        int aborted;
+
+        void respond(String urlPrefix, int statusCode, String body) {
+            responses.put(urlPrefix, new Object[]{statusCode, body});
+        }
+
+        @Override
+        public synchronized Response get(String url, Map<String, String> headers) throws IOException {
+            requests.add(url);
+            for (Map.Entry<String, Object[]> response : responses.entrySet()) {
+                if (url.startsWith(response.getKey())) {
+                    return new FakeResponse((Integer) response.getValue()[0], (String) response.getValue()[1]);
+                }
+            }
+            throw new IOException("Unexpected request: " + url);
+        }
+
+        private class FakeResponse implements Response {
+
+            private final int statusCode;
+            private final String body;
+
+            FakeResponse(int statusCode, String body) {
+                this.statusCode = statusCode;
+                this.body = body;
+            }
+
+            @Override
+            public int getStatusCode() {
+                return statusCode;
+            }
+
+            @Override
+            public InputStream getBody() throws UnsupportedEncodingException {
+                return new ByteArrayInputStream(body.getBytes("UTF-8"));
+            }
+
+            @Override
+            public void close() {
+                synchronized (FakeTransport.this) {
+                    closed++;
+                }
+            }
+
+            @Override
+            public void abort() {
+                synchronized (FakeTransport.this) {
+                    aborted++;
+                }
+            }
+        }
+    }
+}
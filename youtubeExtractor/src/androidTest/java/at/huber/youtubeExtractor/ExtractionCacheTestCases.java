@@ -0,0 +1,94 @@
+package at.huber.youtubeExtractor;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ExtractionCacheTestCases {
+
+    private static final long MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    @Test
+    public void testExpireParameter() {
+        long now = System.currentTimeMillis();
+        long soon = TimeUnit.MILLISECONDS.toSeconds(now) + 3600;
+        long later = soon + 3600;
+        // The first url to expire counts, as query parameter or path segment
+        ExtractionResult result = result("https://r1.googlevideo.com/videoplayback?itag=22&expire=" + later,
+                "https://r1.googlevideo.com/videoplayback/expire/" + soon + "/itag/43");
+        assertEquals(TimeUnit.SECONDS.toMillis(soon), ExtractionCache.getExpireTime(result));
+        assertEquals(TimeUnit.SECONDS.toMillis(soon) - MARGIN_MILLIS, ExtractionCache.getUsableUntil(result));
+
+        // Parameters that only end with expire don't count
+        result = result("https://r1.googlevideo.com/videoplayback?noexpire=" + soon,
+                "https://r1.googlevideo.com/videoplayback?itag=43");
+        long expireTime = ExtractionCache.getExpireTime(result);
+        assertTrue(expireTime >= now + TimeUnit.HOURS.toMillis(1));
+        assertTrue(expireTime <= System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+    }
+
+    @Test
+    public void testAlmostExpiredResultIsNotCached() {
+        ExtractionCache cache = new ExtractionCache(4);
+        // Expires within the margin
+        long expire = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() + MARGIN_MILLIS - 10000);
+        cache.put("abc", result("https://r1.googlevideo.com/videoplayback?expire=" + expire));
+        assertEquals(0, cache.size());
+        assertNull(cache.get("abc"));
+
+        // Results without urls are not cached at all
+        cache.put("def", new ExtractionResult(null, null));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResultIsRemoved() {
+        ExtractionCache cache = new ExtractionCache(2);
+        ExtractionResult a = result("https://r1.googlevideo.com/a");
+        ExtractionResult b = result("https://r1.googlevideo.com/b");
+        ExtractionResult c = result("https://r1.googlevideo.com/c");
+        cache.put("a", a);
+        cache.put("b", b);
+        assertSame(a, cache.get("a"));
+        cache.put("c", c);
+        assertEquals(2, cache.size());
+        assertSame(a, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertSame(c, cache.get("c"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testHitAndMissCounts() {
+        ExtractionCache cache = new ExtractionCache(2);
+        assertNull(cache.get("a"));
+        cache.put("a", result("https://r1.googlevideo.com/a"));
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    private static ExtractionResult result(String... urls) {
+        Map<Integer, YtFile> ytFiles = new TreeMap<>();
+        int[] itags = {22, 43, 18};
+        for (int i = 0; i < urls.length; i++) {
+            ytFiles.put(itags[i], new YtFile(Formats.get(itags[i]), urls[i]));
+        }
+        return new ExtractionResult(null, ytFiles);
+    }
+}
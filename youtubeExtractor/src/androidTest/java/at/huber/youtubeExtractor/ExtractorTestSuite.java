@@ -4,7 +4,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses({ExtractorTestCases.class})
+@Suite.SuiteClasses({ExtractorTestCases.class, SignatureDecipherTestCases.class,
+        ParserTestCases.class, EngineTestCases.class, FormatSelectorTestCases.class,
+        DiskExtractionCacheTestCases.class, ExtractionCacheTestCases.class, BatchExtractorTestCases.class})
 public class ExtractorTestSuite {}
 
 
@@ -0,0 +1,88 @@
+package at.huber.youtubeExtractor;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import at.huber.youtubeExtractor.Format.ACodec;
+import at.huber.youtubeExtractor.Format.VCodec;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class FormatSelectorTestCases {
+
+    private static FormatSelector selector(int... itags) {
+        List<YtFile> ytFiles = new ArrayList<>();
+        for (int itag : itags) {
+            ytFiles.add(new YtFile(Formats.get(itag), "https://r1.googlevideo.com/videoplayback?itag=" + itag));
+        }
+        return new FormatSelector(ytFiles);
+    }
+
+    @Test
+    public void testBestVideo() {
+        FormatSelector selector = selector(18, 22, 133, 136, 137, 299, 247, 248, 140, 251);
+        assertEquals(299, selector.getBestVideo(1080).getFormat().getItag());
+        assertEquals(136, selector.getBestVideo(1079, VCodec.H264).getFormat().getItag());
+        assertEquals(248, selector.getBestVideo(1080, VCodec.VP9, VCodec.H264).getFormat().getItag());
+        assertEquals(133, selector.getBestVideo(300, VCodec.VP9, VCodec.H264).getFormat().getItag());
+        assertNull(selector.getBestVideo(100));
+        assertNull(selector.getBestVideo(1080, VCodec.VP8));
+        assertEquals(22, selector.getBestMuxed(1080, VCodec.H264).getFormat().getItag());
+    }
+
+    @Test
+    public void testBestAudio() {
+        FormatSelector selector = selector(137, 248, 139, 140, 249, 251);
+        assertEquals(251, selector.getBestAudio(Integer.MAX_VALUE).getFormat().getItag());
+        assertEquals(140, selector.getBestAudio(128, ACodec.AAC).getFormat().getItag());
+        assertEquals(249, selector.getBestAudio(60, ACodec.OPUS).getFormat().getItag());
+        assertNull(selector.getBestAudio(40));
+
+        assertEquals(140, selector.getBestAudioFor(selector.getBestVideo(1080, VCodec.H264),
+                Integer.MAX_VALUE).getFormat().getItag());
+        assertEquals(251, selector.getBestAudioFor(selector.getBestVideo(1080, VCodec.VP9),
+                Integer.MAX_VALUE).getFormat().getItag());
+    }
+
+    @Test
+    public void testBestVideoForBitrate() {
+        List<YtFile> ytFiles = new ArrayList<>();
+        int[][] streams = {{135, 1100000}, {136, 2300000}, {137, 4400000}, {247, 1500000}, {248, -1}};
+        for (int[] stream : streams) {
+            ytFiles.add(new YtFile(Formats.get(stream[0]), "https://r1.googlevideo.com/videoplayback",
+                    stream[1], -1, -1, -1, -1, null, null, null, null));
+        }
+        FormatSelector selector = new FormatSelector(ytFiles);
+        assertEquals(136, selector.getBestVideoForBitrate(3000000).getFormat().getItag());
+        assertEquals(247, selector.getBestVideoForBitrate(2000000).getFormat().getItag());
+        assertEquals(135, selector.getBestVideoForBitrate(2000000, VCodec.H264).getFormat().getItag());
+        // The bitrate of 248 is unknown
+        assertEquals(247, selector.getBestVideoForBitrate(Integer.MAX_VALUE, VCodec.VP9).getFormat().getItag());
+        assertNull(selector.getBestVideoForBitrate(1000000));
+    }
+
+    @Test
+    public void testSortedLists() {
+        FormatSelector selector = selector(140, 136, 22, 18, 160, 298, 139);
+        List<YtFile> videos = selector.getVideos(360);
+        assertEquals(4, videos.size());
+        assertEquals(18, videos.get(0).getFormat().getItag());
+        // The muxed file comes before the dash file of the same quality
+        assertEquals(22, videos.get(1).getFormat().getItag());
+        assertEquals(136, videos.get(2).getFormat().getItag());
+        assertEquals(298, videos.get(3).getFormat().getItag());
+        assertEquals(5, selector.getVideos(0).size());
+
+        List<YtFile> audios = selector.getAudios();
+        assertEquals(2, audios.size());
+        assertEquals(139, audios.get(0).getFormat().getItag());
+        assertEquals(140, audios.get(1).getFormat().getItag());
+    }
+}
@@ -0,0 +1,226 @@
+package at.huber.youtubeExtractor;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.List;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ParserTestCases {
+
+    private static final String VIDEO_INFO = "status=ok&title=H%C3%A4llo+World+%26+co&length_seconds=597" +
+            "&url_encoded_fmt_stream_map=itag%3D22%26url%3Dhttps%253A%252F%252Fr1.googlevideo.com%252F" +
+            "videoplayback%253Fexpire%253D123%26s%3DABCDEF0123456789.ABC" +
+            "&adaptive_fmts=itag%3D140%26sp%3Dsig%26url%3Dhttps%253A%252F%252Fr1.googlevideo.com%252F" +
+            "videoplayback%253Fitag%253D140%2Citag%3D251%26url%3Dhttps%253A%252F%252Fr1.googlevideo.com" +
+            "&ucid=UC1&view_count=abc";
+
+    @Test
+    public void testVideoInfo() {
+        QueryString info = new QueryString(VIDEO_INFO);
+        assertEquals("ok", info.get("status"));
+        assertEquals("Hällo World & co", info.get("title"));
+        assertEquals(597, info.getLong("length_seconds", 0));
+        assertEquals(0, info.getLong("view_count", 0));
+        assertEquals("UC1", info.get("ucid"));
+        assertFalse(info.contains("hlsvp"));
+        assertNull(info.get("author"));
+    }
+
+    @Test
+    public void testStreamMaps() {
+        QueryString info = new QueryString(VIDEO_INFO);
+        List<QueryString> streams = YouTubeExtractorEngine.parseStreams(info.get("url_encoded_fmt_stream_map"),
+                info.get("adaptive_fmts"));
+        assertEquals(3, streams.size());
+        assertEquals("22", streams.get(0).get("itag"));
+        assertEquals("https://r1.googlevideo.com/videoplayback?expire=123", streams.get(0).get("url"));
+        assertEquals("ABCDEF0123456789.ABC", streams.get(0).get("s"));
+        assertEquals("sig", streams.get(1).get("sp"));
+        assertTrue(streams.get(2).contains("url"));
+        assertFalse(streams.get(2).contains("s"));
+    }
+
+    @Test
+    public void testPlayerConfigScanner() throws Throwable {
+        StringBuilder page = new StringBuilder("<html><head>\n");
+        // Let the player config cross the read buffer
+        for (int i = 0; i < 900; i++) {
+            page.append("<div>filler</div>\n");
+        }
+        page.append("<script>var ytplayer = ytplayer || {};ytplayer.config = {\"assets\":{\"js\":")
+                .append("\"\\/yts\\/jsbin\\/player_ias-vflTest\\/en_US\\/base.js\"},\"args\":{")
+                .append("\"url_encoded_fmt_stream_map\":\"itag=22\\u0026s=AB\\\"C\",")
+                .append("\"dashmpd\":\"https:\\/\\/manifest.googlevideo.com\\/s\\/ABC\"}};</script>\n")
+                .append("<script>\"adaptive_fmts\":\"itag=140\"</script>\n");
+        PlayerConfigScanner config = PlayerConfigScanner.scan(
+                new ByteArrayInputStream(page.toString().getBytes("UTF-8")));
+        assertEquals("itag=22&s=AB\"C", config.getStreamMap());
+        assertEquals("https://manifest.googlevideo.com/s/ABC", config.getDashMpdUrl());
+        assertEquals("player_ias-vflTest/en_US/base.js", config.getPlayerJsFileName());
+        // Not part of the player config line
+        assertNull(config.getAdaptiveFmts());
+    }
+
+    @Test
+    public void testPlayerConfigScannerWithoutConfig() throws Throwable {
+        PlayerConfigScanner config = PlayerConfigScanner.scan(
+                new ByteArrayInputStream("<html>\"dashmpd\":\"x\"\n</html>".getBytes("UTF-8")));
+        assertNull(config.getStreamMap());
+        assertNull(config.getDashMpdUrl());
+    }
+
+    @Test
+    public void testFormats() {
+        Format format = Formats.get(22);
+        assertEquals(22, format.getItag());
+        assertEquals(Format.VCodec.H264, format.getVideoCodec());
+        assertEquals(Format.ACodec.AAC, format.getAudioCodec());
+        assertFalse(format.isWebM());
+        assertTrue(format.hasVideo() && format.hasAudio());
+
+        format = Formats.get(251);
+        assertTrue(format.isWebM());
+        assertFalse(format.hasVideo());
+        assertEquals(Format.ACodec.OPUS, format.getAudioCodec());
+
+        assertNull(Formats.get(0));
+        assertNull(Formats.get(-1));
+        assertNull(Formats.get(100000));
+    }
+
+    @Test
+    public void testDashManifest() throws Throwable {
+        String manifest = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<MPD xmlns=\"urn:mpeg:DASH:schema:MPD:2011\" xmlns:yt=\"http://youtube.com/yt/2012/10/10\">\n" +
+                "  <Period>\n" +
+                "    <AdaptationSet mimeType=\"audio/mp4\">\n" +
+                "      <Representation id=\"140\" codecs=\"mp4a.40.2\" bandwidth=\"130000\">\n" +
+                "        <BaseURL yt:contentLength=\"160000\">\n" +
+                "          https://r1.googlevideo.com/videoplayback/itag/140/\n" +
+                "        </BaseURL>\n" +
+                "        <SegmentBase indexRange=\"592-1163\">\n" +
+                "          <Initialization range=\"0-591\"/>\n" +
+                "        </SegmentBase>\n" +
+                "      </Representation>\n" +
+                "      <Representation id=\"99999\" bandwidth=\"1\">\n" +
+                "        <BaseURL>https://r1.googlevideo.com/videoplayback/itag/99999/</BaseURL>\n" +
+                "      </Representation>\n" +
+                "    </AdaptationSet>\n" +
+                "    <AdaptationSet mimeType=\"video/mp4\">\n" +
+                "      <Representation id=\"137\" codecs=\"avc1.640028\" width=\"1920\" height=\"1080\"" +
+                " frameRate=\"30\" bandwidth=\"4400000\">\n" +
+                "        <BaseURL>https://r2.googlevideo.com/videoplayback/id/abc/itag/137/</BaseURL>\n" +
+                "        <SegmentList duration=\"5000\" timescale=\"1000\">\n" +
+                "          <Initialization sourceURL=\"sq/0\"/>\n" +
+                "          <SegmentURL media=\"sq/1\"/>\n" +
+                "          <SegmentURL media=\"sq/2\" mediaRange=\"0-999\"/>\n" +
+                "        </SegmentList>\n" +
+                "      </Representation>\n" +
+                "    </AdaptationSet>\n" +
+                "  </Period>\n" +
+                "</MPD>\n";
+        List<YtFile> ytFiles = DashManifestParser.parse(new ByteArrayInputStream(manifest.getBytes("UTF-8")));
+        assertEquals(2, ytFiles.size());
+
+        YtFile audio = ytFiles.get(0);
+        assertEquals(140, audio.getFormat().getItag());
+        assertEquals("https://r1.googlevideo.com/videoplayback/itag/140/", audio.getUrl());
+        assertEquals(130000, audio.getBitrate());
+        assertEquals(160000, audio.getContentLength());
+        assertEquals("audio/mp4", audio.getMimeType());
+        assertEquals("mp4a.40.2", audio.getCodecs());
+        assertEquals("0-591", audio.getInitRange().toString());
+        assertEquals("592-1163", audio.getIndexRange().toString());
+        assertTrue(audio.getSegments().isEmpty());
+
+        YtFile video = ytFiles.get(1);
+        assertEquals(137, video.getFormat().getItag());
+        assertEquals(1920, video.getWidth());
+        assertEquals("video/mp4", video.getMimeType());
+        assertNull(video.getInitRange());
+        assertEquals("https://r2.googlevideo.com/videoplayback/id/abc/itag/137/sq/0", video.getInitSegment().getUrl());
+        List<Segment> segments = video.getSegments();
+        assertEquals(2, segments.size());
+        assertEquals("https://r2.googlevideo.com/videoplayback/id/abc/itag/137/sq/1", segments.get(0).getUrl());
+        assertNull(segments.get(0).getRange());
+        assertEquals(5000, segments.get(0).getDurationMillis());
+        assertEquals(1000, segments.get(1).getRange().getLength());
+    }
+
+    @Test
+    public void testBackoff() {
+        Backoff backoff = new Backoff(100, 1000, 5);
+        assertEquals(5, backoff.getMaxAttempts());
+        long delay = backoff.getDelayMillis(1);
+        assertTrue(delay >= 50 && delay <= 100);
+        delay = backoff.getDelayMillis(3);
+        assertTrue(delay >= 200 && delay <= 400);
+        // Capped
+        delay = backoff.getDelayMillis(40);
+        assertTrue(delay >= 500 && delay <= 1000);
+    }
+
+    @Test
+    public void testHlsMasterPlaylist() throws Throwable {
+        String playlist = "#EXTM3U\n" +
+                "#EXT-X-INDEPENDENT-SEGMENTS\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=1280000,CODECS=\"avc1.4d401f,mp4a.40.2\",RESOLUTION=1280x720,FRAME-RATE=30.000\n" +
+                "https://manifest.googlevideo.com/api/manifest/hls_playlist/itag/95/index.m3u8\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=300000\n" +
+                "low/index.m3u8\n";
+        List<HlsPlaylistParser.Variant> variants = HlsPlaylistParser.parseMaster(new StringReader(playlist),
+                "https://manifest.googlevideo.com/api/manifest/hls_variant/master.m3u8");
+        assertEquals(2, variants.size());
+        HlsPlaylistParser.Variant variant = variants.get(0);
+        assertEquals(1280000, variant.bandwidth);
+        assertEquals(1280, variant.width);
+        assertEquals(720, variant.height);
+        assertEquals(30, variant.fps);
+        assertEquals("avc1.4d401f,mp4a.40.2", variant.codecs);
+        assertEquals("https://manifest.googlevideo.com/api/manifest/hls_variant/low/index.m3u8", variants.get(1).url);
+        assertEquals(-1, variants.get(1).height);
+    }
+
+    @Test
+    public void testHlsMediaPlaylist() throws Throwable {
+        String playlist = "#EXTM3U\n" +
+                "#EXT-X-VERSION:7\n" +
+                "#EXT-X-TARGETDURATION:5\n" +
+                "#EXT-X-MEDIA-SEQUENCE:100\n" +
+                "#EXT-X-MAP:URI=\"init.mp4\",BYTERANGE=\"700@0\"\n" +
+                "#EXTINF:5.005,\n" +
+                "https://r1.googlevideo.com/videoplayback/sq/100/file.ts\n" +
+                "#EXTINF:4.5,\n" +
+                "#EXT-X-BYTERANGE:1000@700\n" +
+                "media.mp4\n" +
+                "#EXTINF:4.5,\n" +
+                "#EXT-X-BYTERANGE:500\n" +
+                "media.mp4\n" +
+                "#EXT-X-ENDLIST\n";
+        HlsMediaPlaylist media = HlsPlaylistParser.parseMedia(new StringReader(playlist),
+                "https://r1.googlevideo.com/live/index.m3u8");
+        assertEquals(5000, media.getTargetDurationMillis());
+        assertEquals(100, media.getMediaSequence());
+        assertTrue(media.isEnded());
+        assertEquals("https://r1.googlevideo.com/live/init.mp4", media.getInitSegment().getUrl());
+        assertEquals("0-699", media.getInitSegment().getRange().toString());
+        List<Segment> segments = media.getSegments();
+        assertEquals(3, segments.size());
+        assertEquals(5005, segments.get(0).getDurationMillis());
+        assertNull(segments.get(0).getRange());
+        assertEquals("https://r1.googlevideo.com/live/media.mp4", segments.get(1).getUrl());
+        assertEquals("700-1699", segments.get(1).getRange().toString());
+        // Continues behind the previous range
+        assertEquals("1700-2199", segments.get(2).getRange().toString());
+    }
+}
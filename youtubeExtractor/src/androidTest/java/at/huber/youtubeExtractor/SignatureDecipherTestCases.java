@@ -0,0 +1,310 @@
+package at.huber.youtubeExtractor;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class SignatureDecipherTestCases {
+
+    static final String DECIPHER_FUNCTIONS = "var Qo=function(a){a=a.split(\"\");Po.Ys(a,3);" +
+            "Po.Dc(a,52);Po.Ys(a,2);Po.Dc(a,19);Po.TY(a,1);return a.join(\"\")};" +
+            "var Po={Ys:function(a,b){a.splice(0,b)},TY:function(a){a.reverse()}," +
+            "Dc:function(a,b){var c=a[0];a[0]=a[b%a.length];a[b%a.length]=c}};";
+
+    static final String ENC_SIGNATURE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    // Result of evaluating the decipher function above in a js engine
+    static final String DEC_SIGNATURE = "987654D210zyxwvutsrqponmlkjihgfedcbaZFXWVUTSRQPONMLKJIHGY";
+
+    @Test
+    public void testInterpretDecipherFunction() throws Throwable {
+        DecipherFunction function = new DecipherFunction("player-test.js", "Qo", DECIPHER_FUNCTIONS);
+        String[] sigs = decipher(new InterpretingSignatureDecipherer(null), function,
+                new String[]{ENC_SIGNATURE, ENC_SIGNATURE});
+        assertNotNull(sigs);
+        assertEquals(2, sigs.length);
+        assertEquals(DEC_SIGNATURE, sigs[0]);
+        assertEquals(DEC_SIGNATURE, sigs[1]);
+    }
+
+    @Test
+    public void testCompileDecipherProgram() throws Throwable {
+        DecipherProgram program = DecipherProgram.compile("Qo", DECIPHER_FUNCTIONS);
+        assertNotNull(program);
+        assertEquals("s3,w52,s2,w19,r", program.toString());
+        assertEquals(DEC_SIGNATURE, program.decipher(ENC_SIGNATURE));
+
+        DecipherProgram parsed = DecipherProgram.parse(program.toString());
+        assertNotNull(parsed);
+        assertEquals(DEC_SIGNATURE, parsed.decipher(ENC_SIGNATURE));
+        assertNull(DecipherProgram.parse("s3,x1"));
+    }
+
+    @Test
+    public void testUnknownOperationUsesFallback() throws Throwable {
+        DecipherFunction function = new DecipherFunction("player-test.js", "Qo",
+                DECIPHER_FUNCTIONS.replace("a.reverse()", "a.sort()"));
+        assertNull(function.getProgram());
+        assertNull(decipher(new InterpretingSignatureDecipherer(null), function,
+                new String[]{ENC_SIGNATURE}));
+
+        final String[] fallbackResult = new String[]{"fallback"};
+        String[] sigs = decipher(new InterpretingSignatureDecipherer(new SignatureDecipherer() {
+            @Override
+            public void decipher(DecipherFunction function, String[] encSignatures, Callback callback) {
+                callback.onDeciphered(fallbackResult);
+            }
+        }), function, new String[]{ENC_SIGNATURE});
+        assertEquals(fallbackResult, sigs);
+    }
+
+    /**
+     * Run a decipherer which calls back right away.
+     */
+    private static String[] decipher(SignatureDecipherer decipherer, DecipherFunction function,
+                                     String[] encSignatures) {
+        final String[][] result = new String[1][];
+        final boolean[] called = new boolean[1];
+        decipherer.decipher(function, encSignatures, new SignatureDecipherer.Callback() {
+            @Override
+            public void onDeciphered(String[] signatures) {
+                result[0] = signatures;
+                called[0] = true;
+            }
+        });
+        assertTrue(called[0]);
+        return result[0];
+    }
+
+    @Test
+    public void testAnalyzePlayerScript() throws Throwable {
+        String script = "var _yt_player={};(function(g){var window=this;var Kp=function(a){return a};\n" +
+                "var Po={Ys:function(a,b){a.splice(0,b)},TY:function(a){a.reverse()},\n" +
+                "Dc:function(a,b){var c=a[0];a[0]=a[b%a.length];a[b%a.length]=c}};var Pq=5;\n" +
+                "g.Xd=function(){};Qo=function(a){a=a.split(\"\");Po.Ys(a,3);Po.Dc(a,52);Po.Ys(a,2);" +
+                "Po.Dc(a,19);Po.TY(a,1);return a.join(\"\")};var Ro={};})(_yt_player);";
+        PlayerScriptAnalyzer analyzer = PlayerScriptAnalyzer.read(new StringReader(script));
+        String[] function = analyzer.findDecipherFunction();
+        assertNotNull(function);
+        assertEquals("Qo", function[0]);
+        assertEquals(DECIPHER_FUNCTIONS.replace("TY:function(a){a.reverse()},", "TY:function(a){a.reverse()},\n"),
+                function[1]);
+        DecipherFunction decipherFunction = new DecipherFunction("player-test.js", function[0], function[1]);
+        assertEquals(DEC_SIGNATURE, decipherFunction.getProgram().decipher(ENC_SIGNATURE));
+
+        assertNull(PlayerScriptAnalyzer.of("var a={};function b(){}").findDecipherFunction());
+    }
+
+    @Test
+    public void testRegistryLoadsPlayerOnce() throws Throwable {
+        final DecipherFunctionRegistry registry = new DecipherFunctionRegistry(4);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final DecipherFunctionRegistry.Loader loader = new DecipherFunctionRegistry.Loader() {
+            @Override
+            public DecipherFunction load(String jsFileName) throws IOException {
+                loads.incrementAndGet();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new DecipherFunction(jsFileName, "Qo", DECIPHER_FUNCTIONS);
+            }
+        };
+        final DecipherFunction[] results = new DecipherFunction[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        results[index] = registry.get("player-new.js", loader);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, loads.get());
+        for (DecipherFunction result : results) {
+            assertSame(results[0], result);
+        }
+        assertSame(results[0], registry.getLatest());
+        assertSame(results[0], registry.get(null, loader));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testRegistryLoadsPlayerOnceWhileCallersArrive() throws Throwable {
+        final DecipherFunctionRegistry registry = new DecipherFunctionRegistry(4);
+        final AtomicInteger loads = new AtomicInteger();
+        final DecipherFunctionRegistry.Loader loader = new DecipherFunctionRegistry.Loader() {
+            @Override
+            public DecipherFunction load(String jsFileName) {
+                loads.incrementAndGet();
+                return new DecipherFunction(jsFileName, "Qo", DECIPHER_FUNCTIONS);
+            }
+        };
+        // Callers keep arriving while the first load finishes
+        Thread[] threads = new Thread[32];
+        final AtomicInteger misses = new AtomicInteger();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (registry.get("player-new.js", loader) == null)
+                            misses.incrementAndGet();
+                    } catch (Exception e) {
+                        misses.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, misses.get());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testRegistryKeepsPlayerWithoutFunction() throws Throwable {
+        DecipherFunctionRegistry registry = new DecipherFunctionRegistry(2);
+        final AtomicInteger loads = new AtomicInteger();
+        DecipherFunctionRegistry.Loader loader = new DecipherFunctionRegistry.Loader() {
+            @Override
+            public DecipherFunction load(String jsFileName) throws IOException {
+                if (loads.incrementAndGet() == 1)
+                    throw new IOException("offline");
+                return null;
+            }
+        };
+        try {
+            registry.get("player-a.js", loader);
+            fail("The failed load was not reported");
+        } catch (IOException e) {
+            // Failed loads are not kept
+        }
+        assertNull(registry.get("player-a.js", loader));
+        assertNull(registry.get("player-a.js", loader));
+        assertEquals(2, loads.get());
+        assertNull(registry.getLatest());
+    }
+
+    @Test
+    public void testRegistryKeepsSeveralPlayers() throws Throwable {
+        DecipherFunctionRegistry registry = new DecipherFunctionRegistry(2);
+        final AtomicInteger loads = new AtomicInteger();
+        DecipherFunctionRegistry.Loader loader = new DecipherFunctionRegistry.Loader() {
+            @Override
+            public DecipherFunction load(String jsFileName) {
+                loads.incrementAndGet();
+                return new DecipherFunction(jsFileName, "Qo", DECIPHER_FUNCTIONS);
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            registry.get("player-a.js", loader);
+            registry.get("player-b.js", loader);
+        }
+        assertEquals(2, loads.get());
+        assertEquals("player-b.js", registry.getLatest().getJsFileName());
+        registry.get("player-c.js", loader);
+        // player-a.js was the least recently used one
+        registry.get("player-b.js", loader);
+        assertEquals(3, loads.get());
+        registry.get("player-a.js", loader);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void testDiskCacheKeepsSeveralPlayers() throws Throwable {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "decipher-test-" + System.nanoTime());
+        DiskDecipherFunctionCache cache = new DiskDecipherFunctionCache(dir, 2);
+        try {
+            cache.put(new DecipherFunction("player-a/base.js", "Qo", DECIPHER_FUNCTIONS));
+            new File(dir, "player-a.base.js.dfc").setLastModified(System.currentTimeMillis() - 20000);
+            cache.put(new DecipherFunction("player-b/base.js", "Qo", DECIPHER_FUNCTIONS));
+            new File(dir, "player-b.base.js.dfc").setLastModified(System.currentTimeMillis() - 10000);
+
+            DecipherFunction function = cache.get("player-a/base.js");
+            assertNotNull(function);
+            assertEquals("s3,w52,s2,w19,r", function.getProgram().toString());
+            assertEquals(DEC_SIGNATURE, function.getProgram().decipher(ENC_SIGNATURE));
+            assertEquals("player-a/base.js", cache.getLatest().getJsFileName());
+
+            cache.put(new DecipherFunction("player-c/base.js", "Qo", DECIPHER_FUNCTIONS));
+            assertNull(cache.get("player-b/base.js"));
+            assertNotNull(cache.get("player-a/base.js"));
+            assertNotNull(cache.get("player-c/base.js"));
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void testDiskCacheKeepsFunctionWithoutProgram() throws Throwable {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "decipher-test-" + System.nanoTime());
+        DiskDecipherFunctionCache cache = new DiskDecipherFunctionCache(dir, 2);
+        try {
+            String functions = DECIPHER_FUNCTIONS.replace("a.reverse()", "a.sort()");
+            cache.put(new DecipherFunction("player-a/base.js", "Qo", functions));
+            DecipherFunction function = cache.get("player-a/base.js");
+            assertNotNull(function);
+            assertNull(function.getProgram());
+            assertEquals(functions, function.getFunctions());
+            assertNull(decipher(new InterpretingSignatureDecipherer(null), function,
+                    new String[]{ENC_SIGNATURE}));
+
+            // A program without operations is no missing program
+            cache.put(new DecipherFunction("player-b/base.js", "Qo", "var Qo=function(a){a=a.split(\"\");" +
+                    "return a.join(\"\")};"));
+            function = cache.get("player-b/base.js");
+            assertNotNull(function.getProgram());
+            assertEquals(ENC_SIGNATURE, function.getProgram().decipher(ENC_SIGNATURE));
+
+            // The helper object of a player js spans several lines
+            String multiLine = "var Ab={Xy:function(a){a.sort()},\nZz:function(a,b){a.splice(0,b)}\r\n};\n" +
+                    "var Qo=function(a){a=a.split(\"\");Ab.Xy(a,1);Ab.Zz(a,2);return a.join(\"\")};\n";
+            cache.put(new DecipherFunction("player-c/base.js", "Qo", multiLine));
+            function = cache.get("player-c/base.js");
+            assertNull(function.getProgram());
+            assertEquals(multiLine, function.getFunctions());
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+}
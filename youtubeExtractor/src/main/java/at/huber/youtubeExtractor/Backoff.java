@@ -0,0 +1,46 @@
+package at.huber.youtubeExtractor;
+
+import java.util.Random;
+
+/**
+ * A capped exponential backoff for retries. The delay doubles with every failed attempt up
+ * to a maximum and is randomized by up to half of it, so many clients that failed at the
+ * same time don't retry at the same time again.
+ */
+final class Backoff {
+
+    private static final Random random = new Random();
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+
+    /**
+     * @param initialDelayMillis the delay after the first failed attempt
+     * @param maxDelayMillis     the maximum delay
+     * @param maxAttempts        the number of attempts including the first one
+     */
+    Backoff(long initialDelayMillis, long maxDelayMillis, int maxAttempts) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxAttempts = maxAttempts;
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param failedAttempts the number of attempts that failed so far, at least 1
+     * @return the time to wait before the next attempt
+     */
+    long getDelayMillis(int failedAttempts) {
+        long delay = initialDelayMillis << Math.min(failedAttempts - 1, 30);
+        if (delay <= 0 || delay > maxDelayMillis)
+            delay = maxDelayMillis;
+        long half = delay / 2;
+        synchronized (random) {
+            return delay - half + (half > 0 ? (long) (random.nextDouble() * half) : 0);
+        }
+    }
+}
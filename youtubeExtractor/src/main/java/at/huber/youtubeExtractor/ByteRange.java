@@ -0,0 +1,78 @@
+package at.huber.youtubeExtractor;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A range of bytes in a stream, both ends are inclusive like in a http Range header.
+ */
+public final class ByteRange {
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        if (start < 0 || end < start)
+            throw new IllegalArgumentException("Invalid range: " + start + "-" + end);
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parse a range like "0-591".
+     *
+     * @return the range or null if it is missing or malformed
+     */
+    static ByteRange parse(String range) {
+        if (range == null)
+            return null;
+        int dash = range.indexOf('-');
+        if (dash < 0)
+            return null;
+        try {
+            long start = Long.parseLong(range.substring(0, dash).trim());
+            long end = Long.parseLong(range.substring(dash + 1).trim());
+            return start >= 0 && end >= start ? new ByteRange(start, end) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * The index of the last byte of the range.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ByteRange byteRange = (ByteRange) o;
+
+        return start == byteRange.start && end == byteRange.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (start ^ (start >>> 32)) + (int) (end ^ (end >>> 32));
+    }
+
+    /**
+     * The range as used in a http Range header, like "0-591".
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+}
@@ -0,0 +1,217 @@
+package at.huber.youtubeExtractor;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Parses a DASH manifest while it is read with a SAX parser, no document is built. Every
+ * Representation of a known format becomes a file with its attributes, its segment base
+ * ranges or the segments of its segment list.
+ * <p/>
+ * SAX is part of Android and of every JVM, so the engine needs no xml library.
+ */
+final class DashManifestParser extends DefaultHandler {
+
+    private static final Pattern patItag = Pattern.compile("itag/([0-9]+?)/");
+
+    private final List<YtFile> ytFiles = new ArrayList<>();
+
+    private String baseUrl;
+    private String adaptationSetMimeType;
+    private String adaptationSetCodecs;
+    private Representation representation;
+    private long segmentDurationMillis = -1;
+    // The attributes of the element that just started
+    private Attributes attributes;
+    // Collects the text of a BaseURL
+    private StringBuilder text;
+
+    private DashManifestParser() {
+    }
+
+    /**
+     * Parse the manifest. The stream is read to its end, the parser might close it.
+     *
+     * @return the files of all representations with a known itag in manifest order
+     */
+    static List<YtFile> parse(InputStream in) throws IOException {
+        try {
+            SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+            DashManifestParser manifestParser = new DashManifestParser();
+            parser.parse(in, manifestParser);
+            return manifestParser.ytFiles;
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new IOException("Invalid dash manifest: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        this.attributes = attributes;
+        switch (localName(qName)) {
+            case "AdaptationSet":
+                adaptationSetMimeType = attribute("mimeType");
+                adaptationSetCodecs = attribute("codecs");
+                break;
+            case "Representation":
+                representation = new Representation();
+                representation.id = attribute("id");
+                representation.bitrate = (int) parseLong(attribute("bandwidth"));
+                representation.width = (int) parseLong(attribute("width"));
+                representation.height = (int) parseLong(attribute("height"));
+                representation.fps = (int) parseLong(attribute("frameRate"));
+                representation.mimeType = attribute("mimeType");
+                representation.codecs = attribute("codecs");
+                break;
+            case "BaseURL":
+                text = new StringBuilder();
+                if (representation != null)
+                    representation.contentLength = parseLong(attribute("contentLength"));
+                break;
+            case "SegmentBase":
+                if (representation != null)
+                    representation.indexRange = ByteRange.parse(attribute("indexRange"));
+                break;
+            case "SegmentList":
+                long timescale = parseLong(attribute("timescale"));
+                long duration = parseLong(attribute("duration"));
+                segmentDurationMillis = duration < 0 ? -1 : duration * 1000 / (timescale > 0 ? timescale : 1);
+                break;
+            case "Initialization":
+                if (representation != null) {
+                    representation.initRange = ByteRange.parse(attribute("range"));
+                    representation.initSourceUrl = attribute("sourceURL");
+                }
+                break;
+            case "SegmentURL":
+                if (representation != null) {
+                    representation.segmentMedia.add(attribute("media"));
+                    representation.segmentRanges.add(ByteRange.parse(attribute("mediaRange")));
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        switch (localName(qName)) {
+            case "BaseURL":
+                String url = text.toString().trim();
+                text = null;
+                if (representation != null) {
+                    representation.baseUrl = resolve(baseUrl, url);
+                } else {
+                    baseUrl = resolve(baseUrl, url);
+                }
+                break;
+            case "Representation":
+                YtFile ytFile = representation.toYtFile(baseUrl, adaptationSetMimeType, adaptationSetCodecs,
+                        segmentDurationMillis);
+                if (ytFile != null)
+                    ytFiles.add(ytFile);
+                representation = null;
+                segmentDurationMillis = -1;
+                break;
+            case "AdaptationSet":
+                adaptationSetMimeType = null;
+                adaptationSetCodecs = null;
+                break;
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (text != null)
+            text.append(ch, start, length);
+    }
+
+    /**
+     * The value of the attribute of the current element, prefixes like "yt:" are ignored.
+     */
+    private String attribute(String name) {
+        for (int i = 0; i < attributes.getLength(); i++) {
+            if (localName(attributes.getQName(i)).equals(name))
+                return attributes.getValue(i);
+        }
+        return null;
+    }
+
+    private static String localName(String name) {
+        int colon = name.indexOf(':');
+        return colon < 0 ? name : name.substring(colon + 1);
+    }
+
+    private static String resolve(String base, String url) {
+        if (url == null || url.isEmpty())
+            return base;
+        if (base == null || url.startsWith("http://") || url.startsWith("https://"))
+            return url;
+        return base + url;
+    }
+
+    private static long parseLong(String s) {
+        if (s == null)
+            return -1;
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class Representation {
+        String id;
+        String baseUrl;
+        int bitrate = -1;
+        long contentLength = -1;
+        int width = -1;
+        int height = -1;
+        int fps = -1;
+        String mimeType;
+        String codecs;
+        ByteRange initRange;
+        ByteRange indexRange;
+        String initSourceUrl;
+        final List<String> segmentMedia = new ArrayList<>();
+        final List<ByteRange> segmentRanges = new ArrayList<>();
+
+        YtFile toYtFile(String defaultBaseUrl, String defaultMimeType, String defaultCodecs,
+                        long segmentDurationMillis) {
+            String url = baseUrl != null ? baseUrl : defaultBaseUrl;
+            if (url == null)
+                return null;
+            int itag;
+            Matcher mat = patItag.matcher(url);
+            if (mat.find()) {
+                itag = Integer.parseInt(mat.group(1));
+            } else {
+                itag = (int) parseLong(id);
+            }
+            Format format = Formats.get(itag);
+            if (format == null)
+                return null;
+
+            Segment initSegment = initSourceUrl != null ? new Segment(resolve(url, initSourceUrl), initRange, 0) : null;
+            List<Segment> segments = new ArrayList<>(segmentMedia.size());
+            for (int i = 0; i < segmentMedia.size(); i++) {
+                segments.add(new Segment(resolve(url, segmentMedia.get(i)), segmentRanges.get(i),
+                        segmentDurationMillis));
+            }
+            return new YtFile(format, url, bitrate, contentLength, width, height, fps,
+                    mimeType != null ? mimeType : defaultMimeType, codecs != null ? codecs : defaultCodecs,
+                    initSourceUrl == null ? initRange : null, indexRange, initSegment, segments);
+        }
+    }
+}
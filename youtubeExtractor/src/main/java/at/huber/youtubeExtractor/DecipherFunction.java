@@ -0,0 +1,65 @@
+package at.huber.youtubeExtractor;
+
+import android.support.annotation.NonNull;
+
+/**
+ * The signature decipher function of one YouTube player version as extracted from
+ * its player js file.
+ */
+public class DecipherFunction {
+
+    private final String jsFileName;
+    private final String functionName;
+    private final String functions;
+    private final DecipherProgram program;
+
+    DecipherFunction(String jsFileName, String functionName, String functions) {
+        this(jsFileName, functionName, functions, DecipherProgram.compile(functionName, functions));
+    }
+
+    DecipherFunction(String jsFileName, String functionName, String functions, DecipherProgram program) {
+        this.jsFileName = jsFileName;
+        this.functionName = functionName;
+        this.functions = functions;
+        this.program = program;
+    }
+
+    /**
+     * The file name of the player js file, it identifies the player version.
+     */
+    public String getJsFileName() {
+        return jsFileName;
+    }
+
+    /**
+     * The name of the js function which deciphers one signature.
+     */
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    /**
+     * The js source of the decipher function and all helpers it needs. Might be null if the
+     * function was restored from the cache as a compiled program.
+     */
+    public String getFunctions() {
+        return functions;
+    }
+
+    /**
+     * The compiled decipher function or null if it could not be compiled.
+     */
+    public DecipherProgram getProgram() {
+        return program;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DecipherFunction{" +
+                "jsFileName='" + jsFileName + '\'' +
+                ", functionName='" + functionName + '\'' +
+                ", program=" + program +
+                '}';
+    }
+}
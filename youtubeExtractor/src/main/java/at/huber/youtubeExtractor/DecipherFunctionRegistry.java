@@ -0,0 +1,143 @@
+package at.huber.youtubeExtractor;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Holds the decipher functions of the last few player versions and makes sure that a new
+ * player js is only loaded once. If many extractions need the same new player at the same
+ * time, the first one loads it and the others wait for its result. During a rollout YouTube
+ * serves several players side by side, so more than one version is kept.
+ * <p/>
+ * A player js in which no function was found is kept as well, a player js never changes so
+ * loading it again would not find one either. Failed loads are not kept.
+ * <p/>
+ * The registry is thread safe.
+ */
+final class DecipherFunctionRegistry {
+
+    /**
+     * Loads the decipher function of a player js.
+     */
+    interface Loader {
+        /**
+         * @return the function or null if it could not be found in the player js
+         */
+        DecipherFunction load(String jsFileName) throws IOException;
+    }
+
+    private final ConcurrentMap<String, FutureTask<DecipherFunction>> loading = new ConcurrentHashMap<>();
+    // Kept for a player js without a decipher function
+    private static final DecipherFunction NONE = new DecipherFunction(null, null, null, null);
+
+    private final Map<String, DecipherFunction> functions;
+    private volatile DecipherFunction latest;
+
+    /**
+     * @param maxVersions the maximum number of player versions to keep
+     */
+    DecipherFunctionRegistry(final int maxVersions) {
+        functions = new LinkedHashMap<String, DecipherFunction>(8, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DecipherFunction> eldest) {
+                return size() > maxVersions;
+            }
+        };
+    }
+
+    /**
+     * The function of the player that was used last or null if there is none.
+     */
+    DecipherFunction getLatest() {
+        return latest;
+    }
+
+    /**
+     * Use the function if there is none yet, e.g. after it was read from a cache file.
+     */
+    void offer(DecipherFunction function) {
+        synchronized (functions) {
+            if (latest == null) {
+                latest = function;
+                functions.put(function.getJsFileName(), function);
+            }
+        }
+    }
+
+    /**
+     * Get the decipher function of a player js. It is loaded if it is not one of the kept
+     * versions, if it is already being loaded by another thread its result is awaited instead.
+     *
+     * @param jsFileName the name of the player js or null to use the current function
+     * @return the function or null if it could not be loaded
+     */
+    DecipherFunction get(final String jsFileName, final Loader loader)
+            throws IOException, InterruptedException {
+        if (jsFileName == null)
+            return latest;
+        DecipherFunction kept = getKept(jsFileName);
+        if (kept != null)
+            return kept != NONE ? kept : null;
+
+        FutureTask<DecipherFunction> task = new FutureTask<>(new Callable<DecipherFunction>() {
+            @Override
+            public DecipherFunction call() throws Exception {
+                DecipherFunction function = loader.load(jsFileName);
+                // Kept before the task is removed from loading, so no caller loads it again
+                synchronized (functions) {
+                    functions.put(jsFileName, function != null ? function : NONE);
+                }
+                return function;
+            }
+        });
+        FutureTask<DecipherFunction> running = loading.putIfAbsent(jsFileName, task);
+        if (running == null) {
+            // Another thread might have finished loading it since the first look
+            kept = getKept(jsFileName);
+            if (kept != null) {
+                loading.remove(jsFileName, task);
+                return kept != NONE ? kept : null;
+            }
+            running = task;
+            try {
+                task.run();
+            } finally {
+                // Failed loads are retried by the next caller
+                loading.remove(jsFileName, task);
+            }
+        }
+        DecipherFunction function;
+        try {
+            function = running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+        if (function != null)
+            latest = function;
+        return function;
+    }
+
+    /**
+     * @return the kept function, {@link #NONE} or null if the player js is not kept
+     */
+    private DecipherFunction getKept(String jsFileName) {
+        DecipherFunction function;
+        synchronized (functions) {
+            function = functions.get(jsFileName);
+        }
+        if (function != null && function != NONE)
+            latest = function;
+        return function;
+    }
+}
@@ -0,0 +1,242 @@
+package at.huber.youtubeExtractor;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A decipher function compiled into a list of primitive array operations. The decipher
+ * function of YouTube only splits the signature into an array, calls helper functions which
+ * reverse, splice or swap that array and joins it again, so it can be applied without any js
+ * engine.
+ * <p/>
+ * A program is immutable and can be shared by many threads.
+ */
+public final class DecipherProgram {
+
+    private static final Pattern patHelperCall = Pattern.compile("^([\\w$]+)(?:\\.([\\w$]+)|\\[\"([\\w$]+)\"\\])\\(([\\w$]+)(?:,(\\d+))?\\)$");
+    private static final Pattern patHelperMethod = Pattern.compile("([\\w$]+|\"[\\w$]+\"):function\\(([\\w$]+)(?:,([\\w$]+))?\\)\\{([^}]*)\\}");
+
+    private static final int REVERSE = 0;
+    private static final int SPLICE = 1;
+    private static final int SWAP = 2;
+
+    private static final int OP_SHIFT = 28;
+    private static final int ARG_MASK = (1 << OP_SHIFT) - 1;
+
+    // Every instruction holds the operation in the upper 4 bits and its argument in the rest
+    private final int[] instructions;
+
+    private DecipherProgram(int[] instructions) {
+        this.instructions = instructions;
+    }
+
+    /**
+     * Compile the decipher function.
+     *
+     * @return the program or null if the function does something else than reversing, splicing
+     * or swapping the signature
+     */
+    public static DecipherProgram compile(String functionName, String functions) {
+        if (functionName == null || functions == null)
+            return null;
+        String mainBody = getMainFunctionBody(functions, functionName);
+        if (mainBody == null)
+            return null;
+
+        String[] statements = mainBody.split(";");
+        // The first statement splits the signature, the last one joins and returns it
+        if (statements.length < 2 || !statements[0].contains(".split(\"\")")
+                || !statements[statements.length - 1].contains(".join(\"\")"))
+            return null;
+
+        int[] instructions = new int[statements.length - 2];
+        int count = 0;
+        Map<String, Map<String, Integer>> helperObjects = new HashMap<>();
+        for (int s = 1; s < statements.length - 1; s++) {
+            String statement = statements[s].trim();
+            if (statement.length() == 0)
+                continue;
+            Matcher mat = patHelperCall.matcher(statement);
+            if (!mat.matches())
+                return null;
+            String objectName = mat.group(1);
+            String methodName = mat.group(2) != null ? mat.group(2) : mat.group(3);
+            int argument = mat.group(5) != null ? Integer.parseInt(mat.group(5)) : 0;
+            if (argument > ARG_MASK)
+                return null;
+
+            Map<String, Integer> helperMethods = helperObjects.get(objectName);
+            if (helperMethods == null) {
+                helperMethods = parseHelperObject(functions, objectName);
+                if (helperMethods == null)
+                    return null;
+                helperObjects.put(objectName, helperMethods);
+            }
+            Integer operation = helperMethods.get(methodName);
+            if (operation == null)
+                return null;
+            instructions[count++] = (operation << OP_SHIFT) | argument;
+        }
+        if (count < instructions.length) {
+            int[] trimmed = new int[count];
+            System.arraycopy(instructions, 0, trimmed, 0, count);
+            instructions = trimmed;
+        }
+        return new DecipherProgram(instructions);
+    }
+
+    /**
+     * Read a program written by {@link #toString()}.
+     *
+     * @return the program or null if the text is no valid program
+     */
+    public static DecipherProgram parse(String program) {
+        if (program == null)
+            return null;
+        if (program.length() == 0)
+            return new DecipherProgram(new int[0]);
+        String[] ops = program.split(",");
+        int[] instructions = new int[ops.length];
+        try {
+            for (int i = 0; i < ops.length; i++) {
+                String op = ops[i];
+                if (op.equals("r")) {
+                    instructions[i] = REVERSE << OP_SHIFT;
+                } else if (op.length() > 1 && (op.charAt(0) == 's' || op.charAt(0) == 'w')) {
+                    int argument = Integer.parseInt(op.substring(1));
+                    if (argument < 0 || argument > ARG_MASK)
+                        return null;
+                    instructions[i] = ((op.charAt(0) == 's' ? SPLICE : SWAP) << OP_SHIFT) | argument;
+                } else {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new DecipherProgram(instructions);
+    }
+
+    /**
+     * Decipher one signature.
+     */
+    public String decipher(String encSignature) {
+        char[] sig = encSignature.toCharArray();
+        // Splicing only ever removes leading chars, so the start index is moved instead
+        int start = 0;
+        int end = sig.length;
+        for (int instruction : instructions) {
+            int argument = instruction & ARG_MASK;
+            switch (instruction >>> OP_SHIFT) {
+                case REVERSE:
+                    for (int i = start, j = end - 1; i < j; i++, j--) {
+                        char c = sig[i];
+                        sig[i] = sig[j];
+                        sig[j] = c;
+                    }
+                    break;
+                case SPLICE:
+                    start += Math.min(argument, end - start);
+                    break;
+                case SWAP:
+                    if (end > start) {
+                        int pos = start + argument % (end - start);
+                        char c = sig[start];
+                        sig[start] = sig[pos];
+                        sig[pos] = c;
+                    }
+                    break;
+            }
+        }
+        return new String(sig, start, end - start);
+    }
+
+    /**
+     * Decipher many signatures.
+     *
+     * @return the deciphered signatures in the same order
+     */
+    public String[] decipher(String[] encSignatures) {
+        String[] signatures = new String[encSignatures.length];
+        for (int i = 0; i < encSignatures.length; i++) {
+            signatures[i] = decipher(encSignatures[i]);
+        }
+        return signatures;
+    }
+
+    /**
+     * The program as compact text like "s3,w52,r" which can be read by {@link #parse(String)}.
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(instructions.length * 4);
+        for (int i = 0; i < instructions.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            int argument = instructions[i] & ARG_MASK;
+            switch (instructions[i] >>> OP_SHIFT) {
+                case REVERSE:
+                    sb.append('r');
+                    break;
+                case SPLICE:
+                    sb.append('s').append(argument);
+                    break;
+                case SWAP:
+                    sb.append('w').append(argument);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String getMainFunctionBody(String functions, String functionName) {
+        int start = functions.indexOf("var " + functionName + "=function(");
+        if (start < 0)
+            start = functions.indexOf("function " + functionName + "(");
+        if (start < 0)
+            return null;
+        int bodyStart = functions.indexOf('{', start);
+        int bodyEnd = functions.indexOf('}', bodyStart);
+        if (bodyStart < 0 || bodyEnd < 0)
+            return null;
+        return functions.substring(bodyStart + 1, bodyEnd);
+    }
+
+    /**
+     * Map the methods of a helper object to the array operation they perform.
+     */
+    private static Map<String, Integer> parseHelperObject(String functions, String objectName) {
+        String objectDef = "var " + objectName + "={";
+        int start = functions.indexOf(objectDef);
+        if (start < 0)
+            return null;
+        Map<String, Integer> methods = new HashMap<>();
+        int end = start + objectDef.length();
+        for (int braces = 1; end < functions.length() && braces > 0; end++) {
+            if (functions.charAt(end) == '{')
+                braces++;
+            else if (functions.charAt(end) == '}')
+                braces--;
+        }
+        Matcher mat = patHelperMethod.matcher(functions.substring(start + objectDef.length(), end));
+        while (mat.find()) {
+            String body = mat.group(4);
+            int operation;
+            if (body.contains(".reverse("))
+                operation = REVERSE;
+            else if (body.contains(".splice("))
+                operation = SPLICE;
+            else if (mat.group(3) != null && body.contains("%" + mat.group(2) + ".length"))
+                operation = SWAP;
+            else
+                return null;
+            methods.put(mat.group(1).replace("\"", ""), operation);
+        }
+        return methods;
+    }
+}
@@ -0,0 +1,189 @@
+package at.huber.youtubeExtractor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the decipher functions of the last few player versions on disk, one file per player
+ * js. A player js never changes once it is published, so the files do not expire. When there
+ * are more files than allowed, the least recently used ones are deleted.
+ */
+final class DiskDecipherFunctionCache {
+
+    private static final String FILE_SUFFIX = ".dfc";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final int maxVersions;
+
+    /**
+     * @param directory   the directory holding the cache files, it is used for nothing else
+     * @param maxVersions the maximum number of player versions to keep
+     */
+    DiskDecipherFunctionCache(File directory, int maxVersions) {
+        this.directory = directory;
+        this.maxVersions = maxVersions;
+    }
+
+    /**
+     * @return the decipher function of the player js or null if it is not cached
+     */
+    DecipherFunction get(String jsFileName) {
+        File file = getFile(jsFileName);
+        DecipherFunction function = read(file);
+        if (function == null || !function.getJsFileName().equals(jsFileName))
+            return null;
+        // Used as the access time for the LRU eviction
+        file.setLastModified(System.currentTimeMillis());
+        return function;
+    }
+
+    /**
+     * @return the function of the most recently used player or null if there is none
+     */
+    DecipherFunction getLatest() {
+        File[] files = listCacheFiles();
+        if (files == null || files.length == 0)
+            return null;
+        sortByLastModified(files);
+        return read(files[files.length - 1]);
+    }
+
+    void put(DecipherFunction function) {
+        if (!directory.exists() && !directory.mkdirs())
+            return;
+        File file = getFile(function.getJsFileName());
+        // Other engines may read the file at the same time, so it is replaced at once
+        File tempFile = new File(file.getPath() + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        if (write(tempFile, function) && tempFile.renameTo(file)) {
+            trimToSize();
+        } else {
+            tempFile.delete();
+        }
+    }
+
+    private void trimToSize() {
+        File[] files = listCacheFiles();
+        if (files == null || files.length <= maxVersions)
+            return;
+        sortByLastModified(files);
+        for (int i = 0; i < files.length - maxVersions; i++) {
+            files[i].delete();
+        }
+    }
+
+    private File[] listCacheFiles() {
+        return directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(FILE_SUFFIX);
+            }
+        });
+    }
+
+    private File getFile(String jsFileName) {
+        return new File(directory, jsFileName.replaceAll("[^\\w\\-]", ".") + FILE_SUFFIX);
+    }
+
+    private static void sortByLastModified(File[] files) {
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified(), r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+    }
+
+    /**
+     * Read a cache file. The first line is the player js, the second the function name, the
+     * third the compiled program and the rest of the file the js functions if there is no
+     * program, the third line is empty then. The js functions may span several lines.
+     * Files written by older versions have the js functions in the third line.
+     *
+     * @return the function or null if the file does not exist or can not be read
+     */
+    static DecipherFunction read(File file) {
+        if (!file.exists())
+            return null;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String jsFileName = reader.readLine();
+            String functionName = reader.readLine();
+            String program = reader.readLine();
+            StringBuilder rest = new StringBuilder();
+            char[] buffer = new char[4096];
+            for (int n; (n = reader.read(buffer)) != -1; ) {
+                rest.append(buffer, 0, n);
+            }
+            String functions = rest.toString();
+            if (jsFileName == null || functionName == null || program == null)
+                return null;
+            boolean hasFunctions = functions.length() > 0;
+            // An empty program line followed by the js functions means there is no program,
+            // without the js functions it is a program that leaves the signature unchanged
+            DecipherProgram decipherProgram = program.length() == 0 && hasFunctions ? null
+                    : DecipherProgram.parse(program);
+            if (decipherProgram != null) {
+                return new DecipherFunction(jsFileName, functionName, hasFunctions ? functions : null,
+                        decipherProgram);
+            } else if (hasFunctions) {
+                return new DecipherFunction(jsFileName, functionName, functions);
+            }
+            // Written by an older version which only stored the js functions
+            return new DecipherFunction(jsFileName, functionName, program);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static boolean write(File file, DecipherFunction function) {
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            writer.write(function.getJsFileName() + "\n");
+            writer.write(function.getFunctionName() + "\n");
+            // The compiled program is all we need, the js functions are only kept for the
+            // fallback decipherer if the function could not be compiled
+            if (function.getProgram() != null) {
+                writer.write(function.getProgram() + "\n");
+            } else {
+                writer.write("\n");
+                writer.write(function.getFunctions());
+            }
+            writer.close();
+            writer = null;
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
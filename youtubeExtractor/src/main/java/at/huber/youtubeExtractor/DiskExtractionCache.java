@@ -0,0 +1,265 @@
+package at.huber.youtubeExtractor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps extraction results on disk so they survive a restart of the process. Every result is
+ * stored in its own file in a compact binary format and is only returned until shortly before
+ * its first url expires. If the files exceed the size limit the least recently used ones are
+ * deleted.
+ * <p/>
+ * Files are written to a temp file first and then renamed, so a crash never leaves a partly
+ * written result behind.
+ */
+public class DiskExtractionCache {
+
+    private static final int MAGIC = 0x59544543; // "YTEC"
+    private static final int VERSION = 3;
+
+    private static final String FILE_SUFFIX = ".ytc";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * @param directory the directory holding the cache files, it is used for nothing else
+     * @param maxBytes  the maximum size of all cache files
+     */
+    public DiskExtractionCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get a cached result.
+     *
+     * @param key the cache key built by the engine from the video id and its settings
+     * @return the result or null if there is none, it could not be read or its urls are about
+     * to expire
+     */
+    public synchronized ExtractionResult get(String key) {
+        File file = getFile(key);
+        if (!file.exists())
+            return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                file.delete();
+                return null;
+            }
+            long expiresAt = in.readLong();
+            if (expiresAt <= System.currentTimeMillis()) {
+                file.delete();
+                return null;
+            }
+            VideoMeta videoMeta = new VideoMeta(readString(in), readString(in), readString(in),
+                    readString(in), in.readLong(), in.readLong(), in.readBoolean(), readString(in));
+            int count = in.readUnsignedShort();
+            Map<Integer, YtFile> ytFiles = new TreeMap<>();
+            for (int i = 0; i < count; i++) {
+                int itag = in.readUnsignedShort();
+                String url = in.readUTF();
+                YtFile ytFile = new YtFile(Formats.get(itag), url, in.readInt(), in.readLong(), in.readInt(),
+                        in.readInt(), in.readInt(), readString(in), readString(in), readRange(in), readRange(in),
+                        in.readBoolean() ? readSegment(in) : null, readSegments(in));
+                if (ytFile.getFormat() != null)
+                    ytFiles.put(itag, ytFile);
+            }
+            // Used as the access time for the LRU eviction
+            file.setLastModified(System.currentTimeMillis());
+            return new ExtractionResult(videoMeta, ytFiles);
+        } catch (IOException e) {
+            e.printStackTrace();
+            file.delete();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Store a result until its urls are about to expire.
+     *
+     * @param expiresAt the time in millis after which the result must not be used anymore
+     */
+    public synchronized void put(String key, ExtractionResult result, long expiresAt) {
+        if (result.getYtFiles() == null || expiresAt <= System.currentTimeMillis())
+            return;
+        if (!directory.exists() && !directory.mkdirs())
+            return;
+        File file = getFile(key);
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(tempFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(expiresAt);
+            VideoMeta videoMeta = result.getVideoMeta();
+            writeString(out, videoMeta.getVideoId());
+            writeString(out, videoMeta.getTitle());
+            writeString(out, videoMeta.getAuthor());
+            writeString(out, videoMeta.getChannelId());
+            out.writeLong(videoMeta.getVideoLength());
+            out.writeLong(videoMeta.getViewCount());
+            out.writeBoolean(videoMeta.isLiveStream());
+            writeString(out, videoMeta.getShortDescription());
+            out.writeShort(result.getYtFiles().size());
+            for (Map.Entry<Integer, YtFile> ytFile : result.getYtFiles().entrySet()) {
+                YtFile value = ytFile.getValue();
+                out.writeShort(ytFile.getKey());
+                out.writeUTF(value.getUrl());
+                out.writeInt(value.getBitrate());
+                out.writeLong(value.getContentLength());
+                out.writeInt(value.getWidth());
+                out.writeInt(value.getHeight());
+                out.writeInt(value.getFps());
+                writeString(out, value.getMimeType());
+                writeString(out, value.getCodecs());
+                writeRange(out, value.getInitRange());
+                writeRange(out, value.getIndexRange());
+                out.writeBoolean(value.getInitSegment() != null);
+                if (value.getInitSegment() != null)
+                    writeSegment(out, value.getInitSegment());
+                out.writeInt(value.getSegments().size());
+                for (Segment segment : value.getSegments()) {
+                    writeSegment(out, segment);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            fos = null;
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return;
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * Delete all cache files.
+     */
+    public synchronized void clear() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File f : files) {
+            f.delete();
+        }
+    }
+
+    private void trimToSize() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        long size = 0;
+        for (File f : files) {
+            // Left over by a crash while writing
+            if (f.getName().endsWith(TEMP_SUFFIX)) {
+                f.delete();
+                continue;
+            }
+            size += f.length();
+        }
+        if (size <= maxBytes)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified(), r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File f : files) {
+            if (size <= maxBytes)
+                break;
+            if (!f.exists())
+                continue;
+            long length = f.length();
+            if (f.delete())
+                size -= length;
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(directory, key.replaceAll("[^\\w\\-]", ".") + FILE_SUFFIX);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeRange(DataOutputStream out, ByteRange range) throws IOException {
+        out.writeLong(range != null ? range.getStart() : -1);
+        out.writeLong(range != null ? range.getEnd() : -1);
+    }
+
+    private static ByteRange readRange(DataInputStream in) throws IOException {
+        long start = in.readLong();
+        long end = in.readLong();
+        return start >= 0 && end >= start ? new ByteRange(start, end) : null;
+    }
+
+    private static void writeSegment(DataOutputStream out, Segment segment) throws IOException {
+        out.writeUTF(segment.getUrl());
+        writeRange(out, segment.getRange());
+        out.writeLong(segment.getDurationMillis());
+    }
+
+    private static Segment readSegment(DataInputStream in) throws IOException {
+        return new Segment(in.readUTF(), readRange(in), in.readLong());
+    }
+
+    private static List<Segment> readSegments(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0)
+            throw new IOException("Invalid segment count: " + count);
+        List<Segment> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            segments.add(readSegment(in));
+        }
+        return segments;
+    }
+}
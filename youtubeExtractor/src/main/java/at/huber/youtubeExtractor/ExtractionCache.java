@@ -0,0 +1,149 @@
+package at.huber.youtubeExtractor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded in memory cache for extraction results. The stream urls of YouTube expire after a
+ * few hours, every result is therefore only kept until shortly before the first of its urls
+ * expires. When the cache is full the least recently used result is removed.
+ * <p/>
+ * The cache is thread safe and can be shared by many engines.
+ */
+public class ExtractionCache {
+
+    private static final Pattern patExpire = Pattern.compile("[?&/]expire[=/](\\d+)");
+
+    // Keep a margin so the urls are still usable for a while after they were handed out
+    private static final long EXPIRE_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    // Used if none of the urls contains an expire parameter
+    private static final long DEFAULT_LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Map<String, CacheEntry> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of cached results
+     */
+    public ExtractionCache(final int maxEntries) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get a cached result.
+     *
+     * @param key the cache key built by the engine from the video id and its settings
+     * @return the result or null if there is none or its urls are about to expire
+     */
+    public ExtractionResult get(String key) {
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                hitCount.incrementAndGet();
+                return entry.result;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Cache a result until shortly before its first url expires. Results without stream urls
+     * are not cached.
+     */
+    public void put(String key, ExtractionResult result) {
+        if (result.getYtFiles() == null)
+            return;
+        long expiresAt = getUsableUntil(result);
+        if (expiresAt <= System.currentTimeMillis())
+            return;
+        synchronized (entries) {
+            entries.put(key, new CacheEntry(result, expiresAt));
+        }
+    }
+
+    /**
+     * Remove all cached results.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * The number of currently cached results, including expired ones that were not
+     * requested since they expired.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * The number of requests that were served from the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * The number of requests that were not in the cache or already expired.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * The time in millis until the urls of the result should be handed out.
+     */
+    static long getUsableUntil(ExtractionResult result) {
+        return getExpireTime(result) - EXPIRE_MARGIN_MILLIS;
+    }
+
+    /**
+     * The time in millis when the first url of the result expires.
+     */
+    static long getExpireTime(ExtractionResult result) {
+        long expireTime = Long.MAX_VALUE;
+        for (YtFile ytFile : result.getYtFiles().values()) {
+            Matcher mat = patExpire.matcher(ytFile.getUrl());
+            if (mat.find()) {
+                try {
+                    expireTime = Math.min(expireTime, TimeUnit.SECONDS.toMillis(Long.parseLong(mat.group(1))));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        if (expireTime == Long.MAX_VALUE)
+            expireTime = System.currentTimeMillis() + DEFAULT_LIFETIME_MILLIS;
+        return expireTime;
+    }
+
+    private static class CacheEntry {
+        final ExtractionResult result;
+        final long expiresAt;
+
+        CacheEntry(ExtractionResult result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package at.huber.youtubeExtractor;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The result of one extraction by the {@link YouTubeExtractorEngine}.
+ */
+public class ExtractionResult {
+
+    private final VideoMeta videoMeta;
+    private final Map<Integer, YtFile> ytFiles;
+
+    ExtractionResult(VideoMeta videoMeta, Map<Integer, YtFile> ytFiles) {
+        this.videoMeta = videoMeta;
+        this.ytFiles = ytFiles != null ? Collections.unmodifiableMap(ytFiles) : null;
+    }
+
+    public VideoMeta getVideoMeta() {
+        return videoMeta;
+    }
+
+    /**
+     * The extracted files sorted by their itag or null if no stream urls could be extracted.
+     * The map can not be modified.
+     */
+    public Map<Integer, YtFile> getYtFiles() {
+        return ytFiles;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ExtractionResult{" +
+                "videoMeta=" + videoMeta +
+                ", ytFiles=" + ytFiles +
+                '}';
+    }
+}
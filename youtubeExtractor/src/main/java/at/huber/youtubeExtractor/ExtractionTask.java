@@ -0,0 +1,198 @@
+package at.huber.youtubeExtractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A running extraction of the {@link YouTubeExtractorEngine}. Cancelling it or missing its
+ * deadline aborts the requests that are in flight, the remaining steps are skipped.
+ */
+public class ExtractionTask implements Future<ExtractionResult> {
+
+    /**
+     * Receives the outcome of an extraction. It is called on the thread that finishes the
+     * extraction, which can be any thread of the executor or the one cancelling the task.
+     */
+    public interface Callback {
+        void onExtractionComplete(ExtractionResult result);
+
+        /**
+         * @param e the cause, a CancellationException if the task was cancelled or a
+         *          TimeoutException if it missed its deadline
+         */
+        void onExtractionFailed(Exception e);
+    }
+
+    private final Callback callback;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<HttpTransport.Response> responses = new ArrayList<>();
+    // Cancelled when the task is finished, e.g. the timeouts and speculative requests
+    private final List<Future<?>> dependents = new ArrayList<>();
+
+    private boolean finished;
+    private boolean cancelled;
+    private ExtractionResult result;
+    private Exception exception;
+
+    ExtractionTask(Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException("Extraction cancelled"), true);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return finished;
+    }
+
+    @Override
+    public ExtractionResult get() throws InterruptedException, ExecutionException {
+        done.await();
+        return report();
+    }
+
+    @Override
+    public ExtractionResult get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit))
+            throw new TimeoutException();
+        return report();
+    }
+
+    private synchronized ExtractionResult report() throws ExecutionException {
+        if (cancelled)
+            throw new CancellationException("Extraction cancelled");
+        if (exception != null)
+            throw new ExecutionException(exception);
+        return result;
+    }
+
+    void complete(ExtractionResult result) {
+        finish(result, null, false);
+    }
+
+    void fail(Exception exception) {
+        finish(null, exception, false);
+    }
+
+    /**
+     * Stop the extraction because it missed its deadline.
+     */
+    void expire() {
+        finish(null, new TimeoutException("Extraction deadline exceeded"), false);
+    }
+
+    private boolean finish(ExtractionResult result, Exception exception, boolean cancelled) {
+        List<HttpTransport.Response> inFlight;
+        List<Future<?>> toCancel;
+        synchronized (this) {
+            if (finished)
+                return false;
+            finished = true;
+            this.cancelled = cancelled;
+            this.result = result;
+            this.exception = cancelled ? null : exception;
+            inFlight = new ArrayList<>(responses);
+            responses.clear();
+            toCancel = new ArrayList<>(dependents);
+            dependents.clear();
+        }
+        if (exception != null) {
+            for (HttpTransport.Response response : inFlight) {
+                response.abort();
+            }
+        }
+        for (Future<?> dependent : toCancel) {
+            dependent.cancel(true);
+        }
+        done.countDown();
+        if (callback != null) {
+            if (exception != null)
+                callback.onExtractionFailed(exception);
+            else
+                callback.onExtractionComplete(result);
+        }
+        return true;
+    }
+
+    /**
+     * Checked by every step of the extraction.
+     *
+     * @throws CancellationException if the task is already cancelled, failed or finished
+     */
+    void throwIfDone() {
+        if (isDone())
+            throw new CancellationException("Extraction cancelled");
+    }
+
+    /**
+     * Cancel the future when the task is finished, right away if it is already finished.
+     */
+    void cancelWhenDone(Future<?> future) {
+        synchronized (this) {
+            if (!finished) {
+                dependents.add(future);
+                return;
+            }
+        }
+        future.cancel(true);
+    }
+
+    /**
+     * Wrap a response so it is aborted if the task is cancelled before it is closed.
+     *
+     * @throws CancellationException if the task is already cancelled, the response is aborted
+     */
+    HttpTransport.Response track(final HttpTransport.Response response) {
+        synchronized (this) {
+            if (!finished) {
+                responses.add(response);
+                return new HttpTransport.Response() {
+                    @Override
+                    public int getStatusCode() {
+                        return response.getStatusCode();
+                    }
+
+                    @Override
+                    public InputStream getBody() throws IOException {
+                        return response.getBody();
+                    }
+
+                    @Override
+                    public void close() {
+                        untrack(response);
+                        response.close();
+                    }
+
+                    @Override
+                    public void abort() {
+                        untrack(response);
+                        response.abort();
+                    }
+                };
+            }
+        }
+        response.abort();
+        throw new CancellationException("Extraction cancelled");
+    }
+
+    private synchronized void untrack(HttpTransport.Response response) {
+        responses.remove(response);
+    }
+}
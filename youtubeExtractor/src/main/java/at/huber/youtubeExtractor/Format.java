@@ -16,15 +16,20 @@ public class Format {
     private final String ext;
     private final int height;
     private final int fps;
-    private VCodec vCodec;
-    private ACodec aCodec;
+    private final VCodec vCodec;
+    private final ACodec aCodec;
     private final int audioBitrate;
     private final boolean isDashContainer;
     private final boolean isHlsContent;
+    // Precomputed so the extraction loops need no string comparisons
+    private final boolean isWebM;
 
     Format(int itag, String ext, int height, VCodec vCodec, ACodec aCodec, boolean isDashContainer) {
         this.itag = itag;
         this.ext = ext;
+        this.vCodec = vCodec;
+        this.aCodec = aCodec;
+        this.isWebM = "webm".equals(ext);
         this.height = height;
         this.fps = 30;
         this.audioBitrate = -1;
@@ -35,6 +40,9 @@ public class Format {
     Format(int itag, String ext, VCodec vCodec, ACodec aCodec, int audioBitrate, boolean isDashContainer) {
         this.itag = itag;
         this.ext = ext;
+        this.vCodec = vCodec;
+        this.aCodec = aCodec;
+        this.isWebM = "webm".equals(ext);
         this.height = -1;
         this.fps = 30;
         this.audioBitrate = audioBitrate;
@@ -46,6 +54,9 @@ public class Format {
            boolean isDashContainer) {
         this.itag = itag;
         this.ext = ext;
+        this.vCodec = vCodec;
+        this.aCodec = aCodec;
+        this.isWebM = "webm".equals(ext);
         this.height = height;
         this.fps = 30;
         this.audioBitrate = audioBitrate;
@@ -57,6 +68,9 @@ public class Format {
            boolean isDashContainer, boolean isHlsContent) {
         this.itag = itag;
         this.ext = ext;
+        this.vCodec = vCodec;
+        this.aCodec = aCodec;
+        this.isWebM = "webm".equals(ext);
         this.height = height;
         this.fps = 30;
         this.audioBitrate = audioBitrate;
@@ -67,6 +81,9 @@ public class Format {
     Format(int itag, String ext, int height, VCodec vCodec, int fps, ACodec aCodec, boolean isDashContainer) {
         this.itag = itag;
         this.ext = ext;
+        this.vCodec = vCodec;
+        this.aCodec = aCodec;
+        this.isWebM = "webm".equals(ext);
         this.height = height;
         this.audioBitrate = -1;
         this.fps = fps;
@@ -102,6 +119,27 @@ public class Format {
         return ext;
     }
 
+    /**
+     * Whether the container format is WebM.
+     */
+    public boolean isWebM() {
+        return isWebM;
+    }
+
+    /**
+     * Whether the format contains a video stream.
+     */
+    public boolean hasVideo() {
+        return vCodec != VCodec.NONE;
+    }
+
+    /**
+     * Whether the format contains an audio stream.
+     */
+    public boolean hasAudio() {
+        return aCodec != ACodec.NONE;
+    }
+
     public boolean isDashContainer() {
         return isDashContainer;
     }
@@ -0,0 +1,297 @@
+package at.huber.youtubeExtractor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import at.huber.youtubeExtractor.Format.ACodec;
+import at.huber.youtubeExtractor.Format.VCodec;
+
+/**
+ * Chooses formats from the files of one extraction. The files are sorted into indexes per
+ * codec once when the selector is created, every query is then a binary search in the
+ * index of each preferred codec.
+ * <p/>
+ * E.g. the best H264 video up to 1080p and a matching audio file for it:
+ * <pre>
+ * FormatSelector selector = new FormatSelector(result.getYtFiles().values());
+ * YtFile video = selector.getBestVideo(1080, VCodec.H264);
+ * YtFile audio = selector.getBestAudioFor(video, Integer.MAX_VALUE);
+ * </pre>
+ */
+public class FormatSelector {
+
+    // Ascending by height and frame rate, the best file is the last one. Streams with audio
+    // come before the video only streams of the same quality.
+    private static final Comparator<YtFile> VIDEO_ORDER = new Comparator<YtFile>() {
+        @Override
+        public int compare(YtFile lhs, YtFile rhs) {
+            Format l = lhs.getFormat();
+            Format r = rhs.getFormat();
+            if (l.getHeight() != r.getHeight())
+                return compareInt(l.getHeight(), r.getHeight());
+            if (l.getFps() != r.getFps())
+                return compareInt(l.getFps(), r.getFps());
+            if (l.hasAudio() != r.hasAudio())
+                return l.hasAudio() ? -1 : 1;
+            return compareInt(l.getAudioBitrate(), r.getAudioBitrate());
+        }
+    };
+
+    private static final Comparator<YtFile> AUDIO_ORDER = new Comparator<YtFile>() {
+        @Override
+        public int compare(YtFile lhs, YtFile rhs) {
+            return compareInt(lhs.getFormat().getAudioBitrate(), rhs.getFormat().getAudioBitrate());
+        }
+    };
+
+    private static final Comparator<YtFile> BITRATE_ORDER = new Comparator<YtFile>() {
+        @Override
+        public int compare(YtFile lhs, YtFile rhs) {
+            if (lhs.getBitrate() != rhs.getBitrate())
+                return compareInt(lhs.getBitrate(), rhs.getBitrate());
+            return VIDEO_ORDER.compare(lhs, rhs);
+        }
+    };
+
+    private static final int KEY_HEIGHT = 0;
+    private static final int KEY_AUDIO_BITRATE = 1;
+    private static final int KEY_BITRATE = 2;
+
+    private final Index videos;
+    private final Index videoOnly;
+    private final Index muxed;
+    private final Index audioOnly;
+    private final Map<VCodec, Index> videoOnlyByCodec = new EnumMap<>(VCodec.class);
+    private final Index videoOnlyByBitrate;
+    private final Map<VCodec, Index> videoOnlyByCodecAndBitrate = new EnumMap<>(VCodec.class);
+    private final Map<VCodec, Index> muxedByCodec = new EnumMap<>(VCodec.class);
+    private final Map<ACodec, Index> audioOnlyByCodec = new EnumMap<>(ACodec.class);
+
+    /**
+     * @param ytFiles the files of one extraction
+     */
+    public FormatSelector(Collection<YtFile> ytFiles) {
+        List<YtFile> videoList = new ArrayList<>();
+        List<YtFile> videoOnlyList = new ArrayList<>();
+        List<YtFile> muxedList = new ArrayList<>();
+        List<YtFile> audioOnlyList = new ArrayList<>();
+        Map<VCodec, List<YtFile>> videoOnlyLists = new EnumMap<>(VCodec.class);
+        Map<VCodec, List<YtFile>> muxedLists = new EnumMap<>(VCodec.class);
+        Map<ACodec, List<YtFile>> audioOnlyLists = new EnumMap<>(ACodec.class);
+        for (YtFile ytFile : ytFiles) {
+            Format format = ytFile.getFormat();
+            if (format.hasVideo()) {
+                videoList.add(ytFile);
+                if (format.hasAudio()) {
+                    muxedList.add(ytFile);
+                    add(muxedLists, format.getVideoCodec(), ytFile);
+                } else {
+                    videoOnlyList.add(ytFile);
+                    add(videoOnlyLists, format.getVideoCodec(), ytFile);
+                }
+            } else if (format.hasAudio()) {
+                audioOnlyList.add(ytFile);
+                add(audioOnlyLists, format.getAudioCodec(), ytFile);
+            }
+        }
+        videos = Index.video(videoList);
+        videoOnly = Index.video(videoOnlyList);
+        muxed = Index.video(muxedList);
+        audioOnly = Index.audio(audioOnlyList);
+        videoOnlyByBitrate = Index.bitrate(videoOnlyList);
+        for (Map.Entry<VCodec, List<YtFile>> entry : videoOnlyLists.entrySet()) {
+            videoOnlyByCodec.put(entry.getKey(), Index.video(entry.getValue()));
+            videoOnlyByCodecAndBitrate.put(entry.getKey(), Index.bitrate(entry.getValue()));
+        }
+        for (Map.Entry<VCodec, List<YtFile>> entry : muxedLists.entrySet()) {
+            muxedByCodec.put(entry.getKey(), Index.video(entry.getValue()));
+        }
+        for (Map.Entry<ACodec, List<YtFile>> entry : audioOnlyLists.entrySet()) {
+            audioOnlyByCodec.put(entry.getKey(), Index.audio(entry.getValue()));
+        }
+    }
+
+    /**
+     * The best video only stream that needs to be merged with an audio file.
+     *
+     * @param maxHeight       the maximum pixel height
+     * @param preferredCodecs the codecs in the order of preference, the first codec with a
+     *                        matching file is used. Any codec if none is given.
+     * @return the file with the highest resolution and frame rate or null if none matches
+     */
+    public YtFile getBestVideo(int maxHeight, VCodec... preferredCodecs) {
+        return getBest(videoOnly, videoOnlyByCodec, maxHeight, preferredCodecs);
+    }
+
+    /**
+     * The video only stream with the highest bitrate that fits into the bandwidth. Only
+     * streams with a known bitrate are considered.
+     *
+     * @param maxBitrate      the maximum bitrate in bit/s
+     * @param preferredCodecs the codecs in the order of preference, the first codec with a
+     *                        matching file is used. Any codec if none is given.
+     * @return the file or null if none matches
+     * @see YtFile#getBitrate()
+     */
+    public YtFile getBestVideoForBitrate(int maxBitrate, VCodec... preferredCodecs) {
+        return getBest(videoOnlyByBitrate, videoOnlyByCodecAndBitrate, maxBitrate, preferredCodecs);
+    }
+
+    /**
+     * The best stream which contains video and audio.
+     *
+     * @see #getBestVideo(int, VCodec...)
+     */
+    public YtFile getBestMuxed(int maxHeight, VCodec... preferredCodecs) {
+        return getBest(muxed, muxedByCodec, maxHeight, preferredCodecs);
+    }
+
+    /**
+     * The best audio only stream.
+     *
+     * @param maxBitrate      the maximum nominal audio bitrate of the format in kbit/s
+     * @param preferredCodecs the codecs in the order of preference, the first codec with a
+     *                        matching file is used. Any codec if none is given.
+     * @return the file with the highest bitrate or null if none matches
+     */
+    public YtFile getBestAudio(int maxBitrate, ACodec... preferredCodecs) {
+        return getBest(audioOnly, audioOnlyByCodec, maxBitrate, preferredCodecs);
+    }
+
+    /**
+     * The best audio only stream in the same container as the video, so both can be merged
+     * into one file.
+     *
+     * @param video      a video only file or null
+     * @param maxBitrate the maximum audio bitrate in kbit/s
+     * @return the audio file or null if none matches
+     */
+    public YtFile getBestAudioFor(YtFile video, int maxBitrate) {
+        if (video == null)
+            return null;
+        if (video.getFormat().isWebM())
+            return getBestAudio(maxBitrate, ACodec.OPUS, ACodec.VORBIS);
+        return getBestAudio(maxBitrate, ACodec.AAC);
+    }
+
+    /**
+     * All files with a video stream and at least the given height, sorted ascending by
+     * height and frame rate. Streams with audio come before the video only streams of the
+     * same quality.
+     */
+    public List<YtFile> getVideos(int minHeight) {
+        return videos.from(minHeight);
+    }
+
+    /**
+     * All audio only files sorted ascending by their bitrate.
+     */
+    public List<YtFile> getAudios() {
+        return audioOnly.from(Integer.MIN_VALUE);
+    }
+
+    private static <C extends Enum<C>> YtFile getBest(Index any, Map<C, Index> byCodec, int max,
+                                                      C[] preferredCodecs) {
+        if (preferredCodecs == null || preferredCodecs.length == 0)
+            return any.best(max);
+        for (C codec : preferredCodecs) {
+            Index index = byCodec.get(codec);
+            if (index != null) {
+                YtFile best = index.best(max);
+                if (best != null)
+                    return best;
+            }
+        }
+        return null;
+    }
+
+    private static <C> void add(Map<C, List<YtFile>> lists, C codec, YtFile ytFile) {
+        List<YtFile> list = lists.get(codec);
+        if (list == null) {
+            list = new ArrayList<>();
+            lists.put(codec, list);
+        }
+        list.add(ytFile);
+    }
+
+    private static int compareInt(int lhs, int rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
+    /**
+     * Files sorted ascending with their sort key, the height or a bitrate, in a parallel
+     * array for the binary search.
+     */
+    private static class Index {
+
+        final YtFile[] files;
+        final int[] keys;
+
+        private Index(List<YtFile> list, Comparator<YtFile> order, int keyType) {
+            files = list.toArray(new YtFile[list.size()]);
+            Arrays.sort(files, order);
+            keys = new int[files.length];
+            for (int i = 0; i < files.length; i++) {
+                YtFile ytFile = files[i];
+                if (keyType == KEY_HEIGHT) {
+                    keys[i] = ytFile.getFormat().getHeight();
+                } else if (keyType == KEY_AUDIO_BITRATE) {
+                    keys[i] = ytFile.getFormat().getAudioBitrate();
+                } else {
+                    keys[i] = ytFile.getBitrate();
+                }
+            }
+        }
+
+        static Index video(List<YtFile> list) {
+            return new Index(list, VIDEO_ORDER, KEY_HEIGHT);
+        }
+
+        static Index audio(List<YtFile> list) {
+            return new Index(list, AUDIO_ORDER, KEY_AUDIO_BITRATE);
+        }
+
+        static Index bitrate(List<YtFile> list) {
+            List<YtFile> known = new ArrayList<>(list.size());
+            for (YtFile ytFile : list) {
+                if (ytFile.getBitrate() > 0)
+                    known.add(ytFile);
+            }
+            return new Index(known, BITRATE_ORDER, KEY_BITRATE);
+        }
+
+        /**
+         * @return the last file with a key of at most max or null if there is none
+         */
+        YtFile best(int max) {
+            int i = upperBound(max);
+            return i > 0 ? files[i - 1] : null;
+        }
+
+        List<YtFile> from(int min) {
+            int i = min == Integer.MIN_VALUE ? 0 : upperBound(min - 1);
+            return Collections.unmodifiableList(Arrays.asList(files).subList(i, files.length));
+        }
+
+        // The index of the first key greater than max
+        private int upperBound(int max) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] <= max) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package at.huber.youtubeExtractor;
+
+import at.huber.youtubeExtractor.Format.ACodec;
+import at.huber.youtubeExtractor.Format.VCodec;
+
+/**
+ * The known YouTube formats in an immutable table indexed directly by their itag.
+ */
+final class Formats {
+
+    private static final Format[] FORMATS = build(
+            // Video and Audio
+            new Format(5, "flv", 240, VCodec.H263, ACodec.MP3, 64, false),
+            new Format(6, "flv", 270, VCodec.H263, ACodec.MP3, 64, false),
+            new Format(17, "3gp", 144, VCodec.MPEG4, ACodec.AAC, 24, false),
+            new Format(18, "mp4", 360, VCodec.H264, ACodec.AAC, 96, false),
+            new Format(22, "mp4", 720, VCodec.H264, ACodec.AAC, 192, false),
+            new Format(34, "3gp", 360, VCodec.H264, ACodec.AAC, 128, false),
+            new Format(35, "flv", 480, VCodec.H264, ACodec.AAC, 128, false),
+            new Format(36, "3gp", 240, VCodec.MPEG4, ACodec.AAC, 32, false),
+            new Format(37, "mp4", 1080, VCodec.H264, ACodec.AAC, 192, false),
+            new Format(38, "mp4", 3072, VCodec.H264, ACodec.AAC, 192, false),
+            new Format(43, "webm", 360, VCodec.VP8, ACodec.VORBIS, 128, false),
+            new Format(44, "webm", 480, VCodec.VP8, ACodec.VORBIS, 128, false),
+            new Format(45, "webm", 720, VCodec.VP8, ACodec.VORBIS, 192, false),
+            new Format(46, "webm", 1080, VCodec.VP8, ACodec.VORBIS, 192, false),
+            new Format(59, "mp4", 480, VCodec.H264, ACodec.AAC, 128, false),
+            new Format(78, "mp4", 480, VCodec.H264, ACodec.AAC, 128, false),
+
+            // 3D Videos
+            new Format(82, "mp4", 360, VCodec.H264, ACodec.AAC, 128, false),
+            new Format(83, "mp4", 480, VCodec.H264, ACodec.AAC, 128, false),
+            new Format(84, "mp4", 720, VCodec.H264, ACodec.AAC, 192, false),
+            new Format(85, "mp4", 1080, VCodec.H264, ACodec.AAC, 192, false),
+            new Format(100, "webm", 360, VCodec.VP8, ACodec.VORBIS, 128, false),
+            new Format(101, "webm", 480, VCodec.VP8, ACodec.VORBIS, 128, false),
+            new Format(102, "webm", 720, VCodec.VP8, ACodec.VORBIS, 128, false),
+
+            // HLS Live Stream
+            new Format(91, "mp4", 144, VCodec.H264, ACodec.AAC, 48, false, true),
+            new Format(92, "mp4", 240, VCodec.H264, ACodec.AAC, 48, false, true),
+            new Format(93, "mp4", 360, VCodec.H264, ACodec.AAC, 128, false, true),
+            new Format(94, "mp4", 480, VCodec.H264, ACodec.AAC, 128, false, true),
+            new Format(95, "mp4", 720, VCodec.H264, ACodec.AAC, 256, false, true),
+            new Format(96, "mp4", 1080, VCodec.H264, ACodec.AAC, 256, false, true),
+            new Format(120, "flv", 720, VCodec.H264, ACodec.AAC, 128, false, true),
+            new Format(127, "ts", 0, VCodec.NONE, ACodec.AAC, 96, false, true),
+            new Format(128, "ts", 0, VCodec.NONE, ACodec.AAC, 96, false, true),
+            new Format(132, "mp4", 240, VCodec.H264, ACodec.AAC, 256, false, true),
+            new Format(151, "mp4", 72, VCodec.H264, ACodec.AAC, 256, false, true),
+            new Format(300, "ts", 720, VCodec.H264, ACodec.AAC, 128, false, true),
+            new Format(301, "ts", 1080, VCodec.H264, ACodec.AAC, 128, false, true),
+
+            // Dash Video
+            new Format(133, "mp4", 240, VCodec.H264, ACodec.NONE, true),
+            new Format(134, "mp4", 360, VCodec.H264, ACodec.NONE, true),
+            new Format(135, "mp4", 480, VCodec.H264, ACodec.NONE, true),
+            new Format(136, "mp4", 720, VCodec.H264, ACodec.NONE, true),
+            new Format(137, "mp4", 1080, VCodec.H264, ACodec.NONE, true),
+            new Format(138, "mp4", 0, VCodec.H264, ACodec.NONE, true),
+            new Format(160, "mp4", 144, VCodec.H264, ACodec.NONE, true),
+            new Format(212, "mp4", 480, VCodec.H264, ACodec.NONE, true),
+            new Format(264, "mp4", 1440, VCodec.H264, ACodec.NONE, true),
+            new Format(266, "mp4", 2160, VCodec.H264, ACodec.NONE, true),
+
+            new Format(298, "mp4", 720, VCodec.H264, 60, ACodec.NONE, true),
+            new Format(299, "mp4", 1080, VCodec.H264, 60, ACodec.NONE, true),
+
+            // Dash Audio
+            new Format(139, "m4a", VCodec.NONE, ACodec.AAC, 48, true),
+            new Format(140, "m4a", VCodec.NONE, ACodec.AAC, 128, true),
+            new Format(141, "m4a", VCodec.NONE, ACodec.AAC, 256, true),
+            new Format(256, "m4a", VCodec.NONE, ACodec.AAC, 0, true),
+            new Format(258, "m4a", VCodec.NONE, ACodec.AAC, 0, true),
+
+            // WEBM Dash Video
+            new Format(167, "webm", 360, VCodec.VP8, ACodec.NONE, true),
+            new Format(168, "webm", 480, VCodec.VP8, ACodec.NONE, true),
+            new Format(169, "webm", 720, VCodec.VP8, ACodec.NONE, true),
+            new Format(170, "webm", 1080, VCodec.VP8, ACodec.NONE, true),
+            new Format(218, "webm", 480, VCodec.VP8, ACodec.NONE, true),
+            new Format(219, "webm", 480, VCodec.VP8, ACodec.NONE, true),
+            new Format(278, "webm", 144, VCodec.VP9, ACodec.NONE, true),
+            new Format(242, "webm", 240, VCodec.VP9, ACodec.NONE, true),
+            new Format(243, "webm", 360, VCodec.VP9, ACodec.NONE, true),
+            new Format(244, "webm", 480, VCodec.VP9, ACodec.NONE, true),
+            new Format(245, "webm", 480, VCodec.VP9, ACodec.NONE, true),
+            new Format(246, "webm", 480, VCodec.VP9, ACodec.NONE, true),
+            new Format(247, "webm", 720, VCodec.VP9, ACodec.NONE, true),
+            new Format(248, "webm", 1080, VCodec.VP9, ACodec.NONE, true),
+            new Format(271, "webm", 1440, VCodec.VP9, ACodec.NONE, true),
+
+            // itag 272 videos are either 3840x2160 (e.g. RtoitU2A-3E) or 7680x4320 (sLprVF6d7Ug)
+            new Format(272, "webm", 2160, VCodec.VP9, ACodec.NONE, true),
+            new Format(313, "webm", 2160, VCodec.VP9, ACodec.NONE, true),
+
+            new Format(302, "webm", 720, VCodec.VP9, 60, ACodec.NONE, true),
+            new Format(303, "webm", 1080, VCodec.VP9, 60, ACodec.NONE, true),
+            new Format(308, "webm", 1440, VCodec.VP9, 60, ACodec.NONE, true),
+            new Format(315, "webm", 2160, VCodec.VP9, 60, ACodec.NONE, true),
+
+            // WEBM Dash Audio
+            new Format(171, "webm", VCodec.NONE, ACodec.VORBIS, 128, true),
+            new Format(172, "webm", VCodec.NONE, ACodec.VORBIS, 256, true),
+
+            new Format(249, "webm", VCodec.NONE, ACodec.OPUS, 48, true),
+            new Format(250, "webm", VCodec.NONE, ACodec.OPUS, 64, true),
+            new Format(251, "webm", VCodec.NONE, ACodec.OPUS, 160, true)
+    );
+
+    private Formats() {
+    }
+
+    /**
+     * @return the format or null if the itag is unknown
+     */
+    static Format get(int itag) {
+        return itag >= 0 && itag < FORMATS.length ? FORMATS[itag] : null;
+    }
+
+    private static Format[] build(Format... formats) {
+        int maxItag = 0;
+        for (Format format : formats) {
+            maxItag = Math.max(maxItag, format.getItag());
+        }
+        Format[] table = new Format[maxItag + 1];
+        for (Format format : formats) {
+            table[format.getItag()] = format;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,58 @@
+package at.huber.youtubeExtractor;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An HLS media playlist, the segments of one variant of a stream.
+ */
+public class HlsMediaPlaylist {
+
+    private final long targetDurationMillis;
+    private final long mediaSequence;
+    private final boolean ended;
+    private final Segment initSegment;
+    private final List<Segment> segments;
+
+    HlsMediaPlaylist(long targetDurationMillis, long mediaSequence, boolean ended, Segment initSegment,
+                     List<Segment> segments) {
+        this.targetDurationMillis = targetDurationMillis;
+        this.mediaSequence = mediaSequence;
+        this.ended = ended;
+        this.initSegment = initSegment;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * The maximum duration of a segment or -1 if the playlist does not tell it.
+     */
+    public long getTargetDurationMillis() {
+        return targetDurationMillis;
+    }
+
+    /**
+     * The sequence number of the first segment, the following segments are numbered
+     * consecutively.
+     */
+    public long getMediaSequence() {
+        return mediaSequence;
+    }
+
+    /**
+     * Whether the playlist is complete and no segments will be added anymore.
+     */
+    public boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * The segment with the media initialization section or null if there is none.
+     */
+    public Segment getInitSegment() {
+        return initSegment;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+}
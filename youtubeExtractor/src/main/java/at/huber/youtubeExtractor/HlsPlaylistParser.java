@@ -0,0 +1,228 @@
+package at.huber.youtubeExtractor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses HLS master and media playlists (RFC 8216) line by line while they are read.
+ */
+final class HlsPlaylistParser {
+
+    private static final String EXTM3U = "#EXTM3U";
+    private static final String STREAM_INF = "#EXT-X-STREAM-INF:";
+    private static final String TARGET_DURATION = "#EXT-X-TARGETDURATION:";
+    private static final String MEDIA_SEQUENCE = "#EXT-X-MEDIA-SEQUENCE:";
+    private static final String INF = "#EXTINF:";
+    private static final String BYTE_RANGE = "#EXT-X-BYTERANGE:";
+    private static final String MAP = "#EXT-X-MAP:";
+    private static final String END_LIST = "#EXT-X-ENDLIST";
+
+    private HlsPlaylistParser() {
+    }
+
+    /**
+     * One variant stream of a master playlist.
+     */
+    static class Variant {
+        final String url;
+        final int bandwidth;
+        final int width;
+        final int height;
+        final int fps;
+        final String codecs;
+
+        Variant(String url, int bandwidth, int width, int height, int fps, String codecs) {
+            this.url = url;
+            this.bandwidth = bandwidth;
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+            this.codecs = codecs;
+        }
+    }
+
+    /**
+     * @param playlistUrl the url of the playlist, relative urls are resolved against it
+     * @return the variants in playlist order
+     */
+    static List<Variant> parseMaster(Reader reader, String playlistUrl) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        checkHeader(in);
+        List<Variant> variants = new ArrayList<>();
+        Map<String, String> streamInf = null;
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.startsWith(STREAM_INF)) {
+                streamInf = parseAttributes(line.substring(STREAM_INF.length()));
+            } else if (!line.isEmpty() && !line.startsWith("#") && streamInf != null) {
+                int width = -1;
+                int height = -1;
+                String resolution = streamInf.get("RESOLUTION");
+                if (resolution != null) {
+                    int x = resolution.indexOf('x');
+                    if (x > 0) {
+                        width = (int) parseLong(resolution.substring(0, x));
+                        height = (int) parseLong(resolution.substring(x + 1));
+                    }
+                }
+                variants.add(new Variant(resolve(playlistUrl, line), (int) parseLong(streamInf.get("BANDWIDTH")),
+                        width, height, (int) Math.round(parseDouble(streamInf.get("FRAME-RATE"))),
+                        streamInf.get("CODECS")));
+                streamInf = null;
+            }
+        }
+        return variants;
+    }
+
+    /**
+     * @param playlistUrl the url of the playlist, relative urls are resolved against it
+     */
+    static HlsMediaPlaylist parseMedia(Reader reader, String playlistUrl) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        checkHeader(in);
+        long targetDurationMillis = -1;
+        long mediaSequence = 0;
+        boolean ended = false;
+        Segment initSegment = null;
+        List<Segment> segments = new ArrayList<>();
+
+        long durationMillis = -1;
+        long[] range = null;
+        // A byte range without offset starts behind the previous one of the same url
+        String lastRangeUrl = null;
+        long nextRangeStart = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            if (line.startsWith(TARGET_DURATION)) {
+                targetDurationMillis = parseLong(line.substring(TARGET_DURATION.length())) * 1000;
+            } else if (line.startsWith(MEDIA_SEQUENCE)) {
+                mediaSequence = parseLong(line.substring(MEDIA_SEQUENCE.length()));
+            } else if (line.startsWith(INF)) {
+                String duration = line.substring(INF.length());
+                int comma = duration.indexOf(',');
+                durationMillis = Math.round(parseDouble(comma < 0 ? duration : duration.substring(0, comma)) * 1000);
+            } else if (line.startsWith(BYTE_RANGE)) {
+                range = parseByteRange(line.substring(BYTE_RANGE.length()));
+            } else if (line.startsWith(MAP)) {
+                Map<String, String> attributes = parseAttributes(line.substring(MAP.length()));
+                String uri = attributes.get("URI");
+                if (uri != null) {
+                    long[] mapRange = parseByteRange(attributes.get("BYTERANGE"));
+                    initSegment = new Segment(resolve(playlistUrl, uri), mapRange == null ? null :
+                            new ByteRange(Math.max(mapRange[1], 0), Math.max(mapRange[1], 0) + mapRange[0] - 1), 0);
+                }
+            } else if (line.startsWith(END_LIST)) {
+                ended = true;
+            } else if (!line.startsWith("#")) {
+                String url = resolve(playlistUrl, line);
+                ByteRange byteRange = null;
+                if (range != null) {
+                    long start = range[1] >= 0 ? range[1] : (url.equals(lastRangeUrl) ? nextRangeStart : 0);
+                    byteRange = new ByteRange(start, start + range[0] - 1);
+                    lastRangeUrl = url;
+                    nextRangeStart = byteRange.getEnd() + 1;
+                }
+                segments.add(new Segment(url, byteRange, durationMillis));
+                durationMillis = -1;
+                range = null;
+            }
+        }
+        return new HlsMediaPlaylist(targetDurationMillis, mediaSequence, ended, initSegment, segments);
+    }
+
+    private static void checkHeader(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        // Skip a byte order mark
+        if (line != null && !line.isEmpty() && line.charAt(0) == '\uFEFF')
+            line = line.substring(1);
+        if (line == null || !line.trim().equals(EXTM3U))
+            throw new IOException("No HLS playlist");
+    }
+
+    /**
+     * Parse "length[@offset]".
+     *
+     * @return the length and the offset or -1 if there is none, null if it is malformed
+     */
+    private static long[] parseByteRange(String s) {
+        if (s == null)
+            return null;
+        int at = s.indexOf('@');
+        long length = parseLong(at < 0 ? s : s.substring(0, at));
+        long offset = at < 0 ? -1 : parseLong(s.substring(at + 1));
+        return length > 0 ? new long[]{length, offset} : null;
+    }
+
+    /**
+     * Parse an attribute list like BANDWIDTH=1280000,CODECS="avc1.4d401f,mp4a.40.2".
+     */
+    static Map<String, String> parseAttributes(String list) {
+        Map<String, String> attributes = new HashMap<>();
+        int i = 0;
+        int length = list.length();
+        while (i < length) {
+            int equals = list.indexOf('=', i);
+            if (equals < 0)
+                break;
+            String name = list.substring(i, equals).trim();
+            int valueStart = equals + 1;
+            int valueEnd;
+            String value;
+            if (valueStart < length && list.charAt(valueStart) == '"') {
+                valueEnd = list.indexOf('"', valueStart + 1);
+                if (valueEnd < 0)
+                    valueEnd = length;
+                value = list.substring(valueStart + 1, valueEnd);
+                valueEnd = list.indexOf(',', valueEnd);
+            } else {
+                valueEnd = list.indexOf(',', valueStart);
+                value = list.substring(valueStart, valueEnd < 0 ? length : valueEnd).trim();
+            }
+            attributes.put(name, value);
+            if (valueEnd < 0)
+                break;
+            i = valueEnd + 1;
+        }
+        return attributes;
+    }
+
+    private static String resolve(String base, String url) {
+        if (url.startsWith("http://") || url.startsWith("https://"))
+            return url;
+        try {
+            return URI.create(base).resolve(url).toString();
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+
+    private static long parseLong(String s) {
+        if (s == null)
+            return -1;
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static double parseDouble(String s) {
+        if (s == null)
+            return -1;
+        try {
+            return Double.parseDouble(s.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package at.huber.youtubeExtractor;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the media playlist of a live stream. Every refresh loads the playlist again and
+ * hands back only the segments that were added since the last refresh, so a live stream can
+ * be followed without extracting the video again.
+ * <p/>
+ * Created by {@link YouTubeExtractorEngine#createHlsRefresher(YtFile)}.
+ */
+public class HlsRefresher {
+
+    // Used until the playlist tells its target duration
+    private final static long DEFAULT_TARGET_DURATION_MILLIS = 5000;
+
+    public interface Listener {
+
+        /**
+         * Called with the new segments in playback order after each refresh that found some.
+         */
+        void onNewSegments(List<Segment> segments);
+
+        /**
+         * The playlist is complete, there will be no more segments.
+         */
+        void onEnded();
+
+        /**
+         * A refresh failed, the refresher tries again after the refresh delay unless it is
+         * stopped.
+         */
+        void onError(IOException e);
+    }
+
+    private final HttpTransport httpTransport;
+    private final String playlistUrl;
+
+    // The sequence number of the first segment that was not handed out yet
+    private long nextSequence = -1;
+    private HlsMediaPlaylist playlist;
+    private boolean changed;
+    private volatile boolean stopped;
+
+    HlsRefresher(HttpTransport httpTransport, String playlistUrl) {
+        this.httpTransport = httpTransport;
+        this.playlistUrl = playlistUrl;
+    }
+
+    /**
+     * Load the playlist.
+     *
+     * @return the segments that were not returned by a previous refresh, all segments of the
+     * playlist on the first refresh
+     */
+    public synchronized List<Segment> refresh() throws IOException {
+        HlsMediaPlaylist newPlaylist;
+        HttpTransport.Response response = httpTransport.get(playlistUrl, null);
+        try {
+            if (response.getStatusCode() >= 400) {
+                response.abort();
+                throw new IOException("HTTP " + response.getStatusCode() + ": " + playlistUrl);
+            }
+            newPlaylist = HlsPlaylistParser.parseMedia(new InputStreamReader(response.getBody(), "UTF-8"),
+                    playlistUrl);
+        } finally {
+            response.close();
+        }
+        playlist = newPlaylist;
+        List<Segment> segments = newPlaylist.getSegments();
+        // Everything is new if the playlist moved on past the segments handed out so far
+        int first = (int) Math.max(0, nextSequence - newPlaylist.getMediaSequence());
+        if (first >= segments.size()) {
+            changed = false;
+            return new ArrayList<>();
+        }
+        changed = true;
+        nextSequence = newPlaylist.getMediaSequence() + segments.size();
+        return new ArrayList<>(segments.subList(first, segments.size()));
+    }
+
+    /**
+     * The time to wait before the next refresh. That is the target duration of the playlist
+     * or half of it if the last refresh found no new segments (RFC 8216 6.3.4).
+     */
+    public synchronized long getRefreshDelayMillis() {
+        long targetDuration = playlist != null && playlist.getTargetDurationMillis() > 0
+                ? playlist.getTargetDurationMillis() : DEFAULT_TARGET_DURATION_MILLIS;
+        return changed ? targetDuration : targetDuration / 2;
+    }
+
+    /**
+     * The playlist of the last refresh or null if there was none.
+     */
+    public synchronized HlsMediaPlaylist getPlaylist() {
+        return playlist;
+    }
+
+    /**
+     * Whether the stream is over and there will be no more segments.
+     */
+    public synchronized boolean isEnded() {
+        return playlist != null && playlist.isEnded();
+    }
+
+    /**
+     * Refresh the playlist now and then again after every refresh delay until the stream
+     * ends or {@link #stop()} is called. The listener is called on the executor.
+     */
+    public void start(final ScheduledExecutorService executor, final Listener listener) {
+        stopped = false;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (stopped)
+                    return;
+                try {
+                    List<Segment> segments = refresh();
+                    if (!segments.isEmpty() && !stopped)
+                        listener.onNewSegments(segments);
+                    if (isEnded()) {
+                        if (!stopped)
+                            listener.onEnded();
+                        return;
+                    }
+                } catch (IOException e) {
+                    if (stopped)
+                        return;
+                    listener.onError(e);
+                }
+                if (!stopped)
+                    executor.schedule(this, getRefreshDelayMillis(), TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * Stop refreshing, the listener is not called anymore.
+     */
+    public void stop() {
+        stopped = true;
+    }
+}
@@ -0,0 +1,45 @@
+package at.huber.youtubeExtractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Performs the http requests of the extractor. The default implementation is
+ * {@link UrlConnectionTransport}, tests can replace it with a mock.
+ */
+public interface HttpTransport {
+
+    /**
+     * The response of one request. It must either be closed or aborted when it is not needed
+     * anymore.
+     */
+    interface Response {
+
+        int getStatusCode();
+
+        /**
+         * The already decompressed body of the response.
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * Finish the request, the connection may be reused for later requests.
+         */
+        void close();
+
+        /**
+         * Cancel the request and drop the connection, the rest of the body is not read.
+         */
+        void abort();
+    }
+
+    /**
+     * Send a GET request.
+     *
+     * @param url     the url
+     * @param headers additional request headers, may be null
+     * @return the response, also for error status codes
+     */
+    Response get(String url, Map<String, String> headers) throws IOException;
+}
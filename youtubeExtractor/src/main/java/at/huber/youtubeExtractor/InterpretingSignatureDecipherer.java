@@ -0,0 +1,33 @@
+package at.huber.youtubeExtractor;
+
+/**
+ * Deciphers the signatures in process without any js engine by running the
+ * {@link DecipherProgram} compiled from the decipher function.
+ * <p/>
+ * If the decipher function could not be compiled the signatures are passed to the fallback
+ * decipherer.
+ */
+public class InterpretingSignatureDecipherer implements SignatureDecipherer {
+
+    private final SignatureDecipherer fallback;
+
+    /**
+     * @param fallback deciphers the signatures if the decipher function cannot be compiled,
+     *                 may be null
+     */
+    public InterpretingSignatureDecipherer(SignatureDecipherer fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void decipher(DecipherFunction function, String[] encSignatures, Callback callback) {
+        DecipherProgram program = function.getProgram();
+        if (program != null) {
+            callback.onDeciphered(program.decipher(encSignatures));
+        } else if (fallback != null && function.getFunctions() != null) {
+            fallback.decipher(function, encSignatures, callback);
+        } else {
+            callback.onDeciphered(null);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package at.huber.youtubeExtractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Scans the youtube watch page for the values of the js player config without reading it
+ * line by line into Strings. The page is searched byte by byte for all wanted properties at
+ * once and only their values are kept. Reading stops as soon as the line holding the player
+ * config is finished, so the rest of the page is never downloaded.
+ */
+final class PlayerConfigScanner {
+
+    private static final int STREAM_MAP = 0;
+    private static final int ADAPTIVE_FMTS = 1;
+    private static final int DASH_MPD = 2;
+    private static final int PLAYER_JS = 3;
+
+    private static final byte[][] MARKERS = {
+            ascii("\"url_encoded_fmt_stream_map\":\""),
+            ascii("\"adaptive_fmts\":\""),
+            ascii("\"dashmpd\":\""),
+            ascii("jsbin\\/player"),
+    };
+    private static final int[][] FAILURE_TABLES = new int[MARKERS.length][];
+
+    static {
+        for (int m = 0; m < MARKERS.length; m++) {
+            FAILURE_TABLES[m] = buildFailureTable(MARKERS[m]);
+        }
+    }
+
+    private final String[] values = new String[MARKERS.length];
+
+    private PlayerConfigScanner() {
+    }
+
+    /**
+     * Scan the page. The stream is read up to the end of the player config but not closed.
+     */
+    static PlayerConfigScanner scan(InputStream in) throws IOException {
+        PlayerConfigScanner scanner = new PlayerConfigScanner();
+        scanner.read(in);
+        return scanner;
+    }
+
+    /**
+     * The stream map with the "&" escapes already resolved or null if the page has no
+     * player config.
+     */
+    String getStreamMap() {
+        return values[STREAM_MAP];
+    }
+
+    String getAdaptiveFmts() {
+        return values[ADAPTIVE_FMTS];
+    }
+
+    String getDashMpdUrl() {
+        return values[DASH_MPD];
+    }
+
+    /**
+     * The file name of the player js like "player_ias-vflXXXX/en_US/base.js".
+     */
+    String getPlayerJsFileName() {
+        String rest = values[PLAYER_JS];
+        if (rest == null)
+            return null;
+        int end = rest.indexOf(".js");
+        return "player" + (end < 0 ? rest : rest.substring(0, end + 3));
+    }
+
+    private void read(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int[] matched = new int[MARKERS.length];
+        ByteArrayOutputStream value = new ByteArrayOutputStream(4096);
+        int capturing = -1;
+        boolean escaped = false;
+        int found = 0;
+
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            for (int i = 0; i < length; i++) {
+                byte b = buffer[i];
+                if (capturing >= 0) {
+                    if (b == '"' && !escaped) {
+                        values[capturing] = unescapeJson(value.toString("UTF-8"));
+                        found++;
+                        capturing = -1;
+                        value.reset();
+                        if (found == MARKERS.length)
+                            return;
+                    } else {
+                        value.write(b);
+                        escaped = b == '\\' && !escaped;
+                    }
+                    continue;
+                }
+                if (b == '\n') {
+                    // The player config is a single line
+                    if (values[STREAM_MAP] != null)
+                        return;
+                    if (found > 0) {
+                        found = 0;
+                        for (int m = 0; m < values.length; m++) {
+                            values[m] = null;
+                        }
+                    }
+                }
+                for (int m = 0; m < MARKERS.length; m++) {
+                    if (values[m] != null)
+                        continue;
+                    byte[] marker = MARKERS[m];
+                    int pos = matched[m];
+                    while (pos > 0 && marker[pos] != b) {
+                        pos = FAILURE_TABLES[m][pos - 1];
+                    }
+                    if (marker[pos] == b)
+                        pos++;
+                    if (pos == marker.length) {
+                        capturing = m;
+                        escaped = false;
+                        for (int k = 0; k < matched.length; k++) {
+                            matched[k] = 0;
+                        }
+                        break;
+                    }
+                    matched[m] = pos;
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolve the escapes of a json string.
+     */
+    static String unescapeJson(String s) {
+        if (s.indexOf('\\') < 0)
+            return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                c = s.charAt(++i);
+                if (c == 'u' && i + 4 < s.length()) {
+                    try {
+                        sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                        i += 4;
+                        continue;
+                    } catch (NumberFormatException ignored) {
+                    }
+                } else if (c == 'n') {
+                    c = '\n';
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static int[] buildFailureTable(byte[] marker) {
+        int[] table = new int[marker.length];
+        for (int i = 1, k = 0; i < marker.length; i++) {
+            while (k > 0 && marker[i] != marker[k]) {
+                k = table[k - 1];
+            }
+            if (marker[i] == marker[k])
+                k++;
+            table[i] = k;
+        }
+        return table;
+    }
+
+    private static byte[] ascii(String s) {
+        try {
+            return s.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package at.huber.youtubeExtractor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the signature decipher function and its helpers in a player js. The script is read
+ * into one char buffer which is searched in place, only the spans of the needed functions are
+ * copied out. The helpers of the decipher function are all located in a single pass.
+ */
+final class PlayerScriptAnalyzer {
+
+    private static final Pattern patSignatureDecFunction = Pattern.compile("([\\w$]+)\\s*=\\s*function\\(([\\w$]+)\\).\\s*\\2=\\s*\\2\\.split\\(\"\"\\)\\s*;");
+
+    private static final Pattern patVariableFunction = Pattern.compile("([{; =])([a-zA-Z$][a-zA-Z0-9$]{0,2})\\.([a-zA-Z$][a-zA-Z0-9$]{0,2})\\(");
+    private static final Pattern patFunction = Pattern.compile("([{; =])([a-zA-Z$_][a-zA-Z0-9$]{0,2})\\(");
+
+    private static final char[] VAR = "var ".toCharArray();
+    private static final char[] FUNCTION = "function ".toCharArray();
+
+    private final char[] script;
+    private final int length;
+
+    private PlayerScriptAnalyzer(char[] script, int length) {
+        this.script = script;
+        this.length = length;
+    }
+
+    /**
+     * Read the whole script. The reader is not closed.
+     */
+    static PlayerScriptAnalyzer read(Reader reader) throws IOException {
+        char[] buffer = new char[64 * 1024];
+        int length = 0;
+        int read;
+        while ((read = reader.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                char[] newBuffer = new char[buffer.length * 2];
+                System.arraycopy(buffer, 0, newBuffer, 0, length);
+                buffer = newBuffer;
+            }
+        }
+        return new PlayerScriptAnalyzer(buffer, length);
+    }
+
+    static PlayerScriptAnalyzer of(String script) {
+        return new PlayerScriptAnalyzer(script.toCharArray(), script.length());
+    }
+
+    /**
+     * @return the name of the decipher function and the js source of it and its helpers
+     * or null if there is no decipher function in the script
+     */
+    String[] findDecipherFunction() {
+        Matcher mat = patSignatureDecFunction.matcher(CharBuffer.wrap(script, 0, length));
+        if (!mat.find())
+            return null;
+        String functionName = mat.group(1);
+        String parameter = mat.group(2);
+        // The match ends behind the split() of the function body
+        int bodyStart = mat.end(2) + 2;
+        int bodyEnd = findBlockEnd(bodyStart);
+        if (bodyEnd < 0)
+            return null;
+
+        StringBuilder functions = new StringBuilder(bodyEnd - bodyStart + 1024);
+        functions.append("var ").append(functionName).append("=function(").append(parameter).append("){")
+                .append(script, bodyStart, bodyEnd - bodyStart).append(';');
+        String mainFunction = functions.toString();
+
+        // The names of the helpers used by the function, mapped to their definition
+        Map<String, int[]> variables = new LinkedHashMap<>();
+        Map<String, int[]> helperFunctions = new LinkedHashMap<>();
+        mat = patVariableFunction.matcher(mainFunction);
+        while (mat.find()) {
+            variables.put(mat.group(2), null);
+        }
+        mat = patFunction.matcher(mainFunction);
+        while (mat.find()) {
+            helperFunctions.put(mat.group(2), null);
+        }
+        findDefinitions(variables, helperFunctions);
+
+        for (Map.Entry<String, int[]> variable : variables.entrySet()) {
+            int[] span = variable.getValue();
+            if (span != null) {
+                functions.append(script, span[0], span[1] - span[0]).append(';');
+            }
+        }
+        for (Map.Entry<String, int[]> function : helperFunctions.entrySet()) {
+            int[] span = function.getValue();
+            if (span != null) {
+                functions.append(script, span[0], span[1] - span[0]).append(';');
+            }
+        }
+        return new String[]{functionName, functions.toString()};
+    }
+
+    /**
+     * Locate the first "var name={...}" of every variable and "function name(...){...}" of
+     * every function in one pass over the script.
+     */
+    private void findDefinitions(Map<String, int[]> variables, Map<String, int[]> functions) {
+        int missing = variables.size() + functions.size();
+        for (int i = 0; i < length && missing > 0; i++) {
+            char c = script[i];
+            if (c != 'v' && c != 'f')
+                continue;
+            if (i > 0 && isIdentifierPart(script[i - 1]))
+                continue;
+            boolean isVar = c == 'v';
+            char[] keyword = isVar ? VAR : FUNCTION;
+            if (!regionMatches(i, keyword))
+                continue;
+            int nameStart = i + keyword.length;
+            int nameEnd = nameStart;
+            while (nameEnd < length && isIdentifierPart(script[nameEnd]))
+                nameEnd++;
+            if (nameEnd == nameStart || nameEnd - nameStart > 3)
+                continue;
+            Map<String, int[]> definitions = isVar ? variables : functions;
+            String name = new String(script, nameStart, nameEnd - nameStart);
+            if (!definitions.containsKey(name) || definitions.get(name) != null)
+                continue;
+            int end;
+            if (isVar) {
+                if (nameEnd + 1 >= length || script[nameEnd] != '=' || script[nameEnd + 1] != '{')
+                    continue;
+                end = findBlockEnd(nameEnd + 2);
+            } else {
+                if (nameEnd >= length || script[nameEnd] != '(')
+                    continue;
+                int bodyStart = indexOf('{', nameEnd);
+                end = bodyStart < 0 ? -1 : findBlockEnd(bodyStart + 1);
+            }
+            if (end < 0)
+                continue;
+            definitions.put(name, new int[]{i, end});
+            missing--;
+            i = end - 1;
+        }
+    }
+
+    /**
+     * @param start the index right behind the opening brace
+     * @return the index right behind the matching closing brace or -1 if there is none
+     */
+    private int findBlockEnd(int start) {
+        for (int braces = 1, i = start; i < length; i++) {
+            char c = script[i];
+            if (c == '{') {
+                braces++;
+            } else if (c == '}' && --braces == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(char c, int start) {
+        for (int i = start; i < length; i++) {
+            if (script[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(int start, char[] s) {
+        if (start + s.length > length)
+            return false;
+        for (int i = 0; i < s.length; i++) {
+            if (script[start + i] != s[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '$' || c == '_';
+    }
+}
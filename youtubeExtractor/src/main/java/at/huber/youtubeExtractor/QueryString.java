@@ -0,0 +1,142 @@
+package at.huber.youtubeExtractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A url encoded query string like the body of get_video_info or one entry of a stream map.
+ * The string is split into its parameters in one pass, the values are only decoded when they
+ * are requested and every value is decoded at most once.
+ */
+final class QueryString {
+
+    private final String query;
+    // For every parameter: start of the key, index of '=' (or end) and end of the value
+    private int[] bounds;
+    private String[] decodedValues;
+    private int count;
+
+    QueryString(String query) {
+        this(query, 0, query.length());
+    }
+
+    QueryString(String query, int start, int end) {
+        this.query = query;
+        bounds = new int[24];
+        int keyStart = start;
+        int separator = -1;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? query.charAt(i) : '&';
+            if (c == '=' && separator < 0) {
+                separator = i;
+            } else if (c == '&') {
+                if (i > keyStart)
+                    add(keyStart, separator < 0 ? i : separator, i);
+                keyStart = i + 1;
+                separator = -1;
+            }
+        }
+        decodedValues = new String[count];
+    }
+
+    private void add(int keyStart, int separator, int valueEnd) {
+        if ((count + 1) * 3 > bounds.length) {
+            int[] newBounds = new int[bounds.length * 2];
+            System.arraycopy(bounds, 0, newBounds, 0, bounds.length);
+            bounds = newBounds;
+        }
+        bounds[count * 3] = keyStart;
+        bounds[count * 3 + 1] = separator;
+        bounds[count * 3 + 2] = valueEnd;
+        count++;
+    }
+
+    /**
+     * @return the decoded value of the first parameter with that key or null if there is none
+     */
+    String get(String key) {
+        int index = indexOf(key);
+        if (index < 0)
+            return null;
+        String value = decodedValues[index];
+        if (value == null) {
+            int valueStart = Math.min(bounds[index * 3 + 1] + 1, bounds[index * 3 + 2]);
+            value = decode(query, valueStart, bounds[index * 3 + 2]);
+            decodedValues[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * @return the value parsed as a long or the default value if it is missing or no number
+     */
+    long getLong(String key, long defaultValue) {
+        String value = get(key);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    boolean contains(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    private int indexOf(String key) {
+        int keyLength = key.length();
+        for (int i = 0; i < count; i++) {
+            int keyStart = bounds[i * 3];
+            if (bounds[i * 3 + 1] - keyStart == keyLength && query.regionMatches(keyStart, key, 0, keyLength))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Url decode a part of a string. Does not allocate anything but the result if there is
+     * nothing to decode.
+     */
+    static String decode(String s, int start, int end) {
+        int i = start;
+        while (i < end && s.charAt(i) != '%' && s.charAt(i) != '+')
+            i++;
+        if (i == end)
+            return s.substring(start, end);
+
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(s, start, i);
+        ByteArrayOutputStream bytes = null;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '+') {
+                sb.append(' ');
+                i++;
+            } else if (c == '%' && isHex(s, i + 1, end) && isHex(s, i + 2, end)) {
+                // Collect consecutive escapes, they might form one multi byte UTF-8 char
+                if (bytes == null)
+                    bytes = new ByteArrayOutputStream(8);
+                bytes.reset();
+                while (i < end && s.charAt(i) == '%' && isHex(s, i + 1, end) && isHex(s, i + 2, end)) {
+                    bytes.write(Character.digit(s.charAt(i + 1), 16) << 4 | Character.digit(s.charAt(i + 2), 16));
+                    i += 3;
+                }
+                try {
+                    sb.append(bytes.toString("UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isHex(String s, int index, int end) {
+        return index < end && Character.digit(s.charAt(index), 16) >= 0;
+    }
+}
@@ -0,0 +1,48 @@
+package at.huber.youtubeExtractor;
+
+import android.support.annotation.NonNull;
+
+/**
+ * One segment of a segmented stream, a url and optionally the bytes of it that belong to the
+ * segment.
+ */
+public final class Segment {
+
+    private final String url;
+    private final ByteRange range;
+    private final long durationMillis;
+
+    Segment(String url, ByteRange range, long durationMillis) {
+        this.url = url;
+        this.range = range;
+        this.durationMillis = durationMillis;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * The bytes of the url that form the segment or null if it is the whole response.
+     */
+    public ByteRange getRange() {
+        return range;
+    }
+
+    /**
+     * The play time of the segment or -1 if it is unknown.
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Segment{" +
+                "url='" + url + '\'' +
+                ", range=" + range +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
@@ -0,0 +1,30 @@
+package at.huber.youtubeExtractor;
+
+/**
+ * Deciphers the enciphered signatures of YouTube stream urls.
+ */
+public interface SignatureDecipherer {
+
+    /**
+     * Receives the deciphered signatures.
+     */
+    interface Callback {
+        /**
+         * @param signatures the deciphered signatures in the same order or null if they could
+         *                   not be deciphered
+         */
+        void onDeciphered(String[] signatures);
+    }
+
+    /**
+     * Decipher the signatures with the decipher function of the current player version. This
+     * must not block, the result is handed to the callback on any thread, possibly before this
+     * method returns. If the callback is not called in time the engine gives up on the
+     * signatures.
+     *
+     * @param function      the decipher function extracted from the player js file
+     * @param encSignatures the enciphered signatures
+     * @param callback      receives the result exactly once
+     */
+    void decipher(DecipherFunction function, String[] encSignatures, Callback callback);
+}
@@ -0,0 +1,193 @@
+package at.huber.youtubeExtractor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} based on HttpURLConnection. Connections are kept alive and pooled by
+ * the platform as long as a response body is closed instead of the connection being
+ * disconnected. Responses are requested gzip compressed.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    /**
+     * Receives the metrics of every finished request.
+     */
+    public interface MetricsListener {
+        /**
+         * @param url            the requested url
+         * @param statusCode     the status code or -1 if there was no response
+         * @param bytesRead      the number of (compressed) body bytes read
+         * @param durationMillis the time from sending the request until it was closed
+         */
+        void onRequestFinished(String url, int statusCode, long bytesRead, long durationMillis);
+    }
+
+    static final String USER_AGENT = "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/40.0.2214.115 Safari/537.36";
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final int DEFAULT_READ_TIMEOUT = 15000;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private volatile MetricsListener metricsListener;
+
+    public UrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @param connectTimeout the connect timeout in millis
+     * @param readTimeout    the read timeout in millis
+     */
+    public UrlConnectionTransport(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Receives the metrics of every request or null. Default: null
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    @Override
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        long startTime = System.currentTimeMillis();
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+        urlConnection.setConnectTimeout(connectTimeout);
+        urlConnection.setReadTimeout(readTimeout);
+        urlConnection.setRequestProperty("User-Agent", USER_AGENT);
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        int statusCode;
+        try {
+            statusCode = urlConnection.getResponseCode();
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            notifyListener(url, -1, 0, startTime);
+            throw e;
+        }
+        return new UrlConnectionResponse(url, urlConnection, statusCode, startTime);
+    }
+
+    private void notifyListener(String url, int statusCode, long bytesRead, long startTime) {
+        MetricsListener listener = metricsListener;
+        if (listener != null)
+            listener.onRequestFinished(url, statusCode, bytesRead, System.currentTimeMillis() - startTime);
+    }
+
+    private class UrlConnectionResponse implements Response {
+
+        private final String url;
+        private final HttpURLConnection urlConnection;
+        private final int statusCode;
+        private final long startTime;
+        private CountingInputStream rawBody;
+        private InputStream body;
+        private boolean finished;
+
+        UrlConnectionResponse(String url, HttpURLConnection urlConnection, int statusCode, long startTime) {
+            this.url = url;
+            this.urlConnection = urlConnection;
+            this.statusCode = statusCode;
+            this.startTime = startTime;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public synchronized InputStream getBody() throws IOException {
+            if (body == null) {
+                InputStream in = statusCode >= 400 ? urlConnection.getErrorStream() : urlConnection.getInputStream();
+                if (in == null)
+                    throw new IOException("No response body, status: " + statusCode);
+                rawBody = new CountingInputStream(in);
+                body = "gzip".equalsIgnoreCase(urlConnection.getContentEncoding())
+                        ? new GZIPInputStream(rawBody) : rawBody;
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            InputStream in;
+            synchronized (this) {
+                if (finished)
+                    return;
+                finished = true;
+                in = body;
+            }
+            try {
+                // The body has to be closed even if it was never read, else the connection is
+                // neither reused nor released
+                if (in == null)
+                    in = statusCode >= 400 ? urlConnection.getErrorStream() : urlConnection.getInputStream();
+                if (in != null) {
+                    in.close();
+                } else {
+                    urlConnection.disconnect();
+                }
+            } catch (IOException e) {
+                urlConnection.disconnect();
+            }
+            notifyListener(url, statusCode, rawBody != null ? rawBody.count : 0, startTime);
+        }
+
+        @Override
+        public void abort() {
+            synchronized (this) {
+                if (finished)
+                    return;
+                finished = true;
+            }
+            urlConnection.disconnect();
+            notifyListener(url, statusCode, rawBody != null ? rawBody.count : 0, startTime);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0)
+                count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package at.huber.youtubeExtractor;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.evgenii.jsevaluator.JsEvaluator;
+import com.evgenii.jsevaluator.interfaces.JsCallback;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Deciphers the signatures by evaluating the decipher function in a hidden WebView. The
+ * result is handed over in the callback of the WebView, no thread waits for it.
+ */
+class WebViewSignatureDecipherer implements SignatureDecipherer {
+
+    private final static String LOG_TAG = "YouTubeExtractor";
+
+    private final WeakReference<Context> refContext;
+
+    WebViewSignatureDecipherer(Context con) {
+        refContext = new WeakReference<>(con);
+    }
+
+    @Override
+    public void decipher(DecipherFunction function, String[] encSignatures, final Callback callback) {
+        final Context context = refContext.get();
+        if (context == null || function.getFunctions() == null) {
+            callback.onDeciphered(null);
+            return;
+        }
+
+        final StringBuilder stb = new StringBuilder(function.getFunctions() + " function decipher(");
+        stb.append("){return ");
+        for (int i = 0; i < encSignatures.length; i++) {
+            if (i < encSignatures.length - 1)
+                stb.append(function.getFunctionName()).append("('").append(encSignatures[i]).
+                        append("')+\"\\n\"+");
+            else
+                stb.append(function.getFunctionName()).append("('").append(encSignatures[i]).
+                        append("')");
+        }
+        stb.append("};decipher();");
+
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+
+            @Override
+            public void run() {
+                new JsEvaluator(context).evaluate(stb.toString(), new JsCallback() {
+                    @Override
+                    public void onResult(String result) {
+                        callback.onDeciphered(result != null ? result.split("\n") : null);
+                    }
+
+                    @Override
+                    public void onError(String errorMessage) {
+                        if (YouTubeExtractor.LOGGING)
+                            Log.e(LOG_TAG, errorMessage);
+                        callback.onDeciphered(null);
+                    }
+                });
+            }
+        });
+    }
+}
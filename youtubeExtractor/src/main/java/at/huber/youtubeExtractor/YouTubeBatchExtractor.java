@@ -0,0 +1,175 @@
+package at.huber.youtubeExtractor;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extracts the stream urls of many YouTube videos in parallel. Every link is resolved on a
+ * bounded thread pool and the results are passed back on the main thread one by one as soon
+ * as they are available. A failed video does not abort the rest of the batch.
+ */
+public abstract class YouTubeBatchExtractor {
+
+    private static final int DEFAULT_PARALLEL_EXTRACTIONS = 4;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private static Executor sharedExecutor;
+
+    private final Context context;
+    private final Executor executor;
+    private final List<YouTubeExtractor> runningExtractors = new ArrayList<>();
+    private int pendingExtractions;
+    private HttpTransport httpTransport;
+
+    /**
+     * Uses a thread pool shared by all batch extractors which runs
+     * up to 4 extractions at the same time.
+     */
+    public YouTubeBatchExtractor(@NonNull Context con) {
+        this(con, getSharedExecutor());
+    }
+
+    /**
+     * Uses an own thread pool for this batch extractor.
+     *
+     * @param maxParallelExtractions the maximum number of videos extracted at the same time
+     */
+    public YouTubeBatchExtractor(@NonNull Context con, int maxParallelExtractions) {
+        this(con, newExtractionExecutor(maxParallelExtractions));
+    }
+
+    /**
+     * @param executor the executor running the extractions, it can be shared with other work
+     */
+    public YouTubeBatchExtractor(@NonNull Context con, @NonNull Executor executor) {
+        this.context = con;
+        this.executor = executor;
+    }
+
+    /**
+     * Start the extraction of all links. Must be called from the main thread.
+     *
+     * @param youtubeLinks      the youtube page links or video ids
+     * @param parseDashManifest true if the dash manifests should be downloaded and parsed
+     * @param includeWebM       true if WebM streams should be extracted
+     */
+    public void extract(Collection<String> youtubeLinks, boolean parseDashManifest, boolean includeWebM) {
+        if (youtubeLinks.isEmpty()) {
+            onBatchComplete();
+            return;
+        }
+        pendingExtractions += youtubeLinks.size();
+        for (final String youtubeLink : youtubeLinks) {
+            YouTubeExtractor ytEx = new YouTubeExtractor(context) {
+                @Override
+                protected void onExtractionComplete(SparseArray<YtFile> ytFiles, VideoMeta videoMeta) {
+                    runningExtractors.remove(this);
+                    if (ytFiles == null) {
+                        onExtractionFailed(youtubeLink, getExtractionException());
+                    } else {
+                        YouTubeBatchExtractor.this.onExtractionComplete(youtubeLink, ytFiles, videoMeta);
+                    }
+                    finishExtraction();
+                }
+
+                @Override
+                protected void onCancelled(SparseArray<YtFile> ytFiles) {
+                    runningExtractors.remove(this);
+                    finishExtraction();
+                }
+            };
+            ytEx.setParseDashManifest(parseDashManifest);
+            ytEx.setIncludeWebM(includeWebM);
+            ytEx.setHttpTransport(httpTransport);
+            runningExtractors.add(ytEx);
+            ytEx.executeOnExecutor(executor, youtubeLink);
+        }
+    }
+
+    /**
+     * Start the extraction of all links without parsing the dash manifests.
+     * Must be called from the main thread.
+     */
+    public void extract(Collection<String> youtubeLinks) {
+        extract(youtubeLinks, false, true);
+    }
+
+    /**
+     * The transport used for all requests of the following extractions or null for the shared
+     * default one. Default: null
+     */
+    public void setHttpTransport(HttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
+    }
+
+    /**
+     * Cancel all extractions of this batch that have not finished yet.
+     */
+    public void cancel() {
+        for (YouTubeExtractor ytEx : new ArrayList<>(runningExtractors)) {
+            ytEx.cancel(true);
+        }
+    }
+
+    private void finishExtraction() {
+        if (--pendingExtractions == 0) {
+            onBatchComplete();
+        }
+    }
+
+    /**
+     * Called on the main thread for every successfully extracted video.
+     */
+    protected abstract void onExtractionComplete(String youtubeLink, SparseArray<YtFile> ytFiles,
+                                                 VideoMeta videoMeta);
+
+    /**
+     * Called on the main thread for every video that could not be extracted.
+     *
+     * @param e the cause or null if the video simply has no usable streams
+     */
+    protected void onExtractionFailed(String youtubeLink, Exception e) {
+    }
+
+    /**
+     * Called on the main thread once every video of the batch is either extracted, failed or
+     * cancelled.
+     */
+    protected void onBatchComplete() {
+    }
+
+    private static synchronized Executor getSharedExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = newExtractionExecutor(DEFAULT_PARALLEL_EXTRACTIONS);
+        }
+        return sharedExecutor;
+    }
+
+    private static Executor newExtractionExecutor(int maxParallelExtractions) {
+        if (maxParallelExtractions < 1)
+            throw new IllegalArgumentException("maxParallelExtractions must be at least 1");
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxParallelExtractions,
+                maxParallelExtractions, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                return new Thread(r, "YouTubeBatchExtractor #" + count.getAndIncrement());
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
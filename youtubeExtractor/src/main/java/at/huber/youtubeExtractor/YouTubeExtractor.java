@@ -2,36 +2,18 @@ package at.huber.youtubeExtractor;
 
 import android.content.Context;
 import android.os.AsyncTask;
-import android.os.Handler;
-import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import android.util.SparseArray;
 
-import com.evgenii.jsevaluator.JsEvaluator;
-import com.evgenii.jsevaluator.interfaces.JsCallback;
-
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
-import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Android adapter running the {@link YouTubeExtractorEngine} as an AsyncTask.
+ */
 public abstract class YouTubeExtractor extends AsyncTask<String, Void, SparseArray<YtFile>> {
 
     private final static boolean CACHING = true;
@@ -39,164 +21,34 @@ public abstract class YouTubeExtractor extends AsyncTask<String, Void, SparseArr
     static boolean LOGGING = false;
 
     private final static String LOG_TAG = "YouTubeExtractor";
-    private final static String CACHE_FILE_NAME = "decipher_js_funct";
-    private final static int DASH_PARSE_RETRIES = 5;
+    private final static int RESULT_CACHE_SIZE = 50;
+    private final static String DISK_CACHE_DIR_NAME = "yt_extraction_cache";
+    private final static long DISK_CACHE_MAX_BYTES = 2 * 1024 * 1024;
+
+    private static final ExtractionCache RESULT_CACHE = new ExtractionCache(RESULT_CACHE_SIZE);
+    private static DiskExtractionCache diskCache;
+
+    private static final YouTubeExtractorEngine.Logger ANDROID_LOGGER = new YouTubeExtractorEngine.Logger() {
+        @Override
+        public void log(String message) {
+            Log.d(LOG_TAG, message);
+        }
+    };
 
-    private WeakReference<Context> refContext;
-    private String videoID;
     private VideoMeta videoMeta;
     private boolean includeWebM = true;
     private boolean useHttp = false;
     private boolean parseDashManifest = false;
+    private boolean speculativeFetch = false;
+    private long deadlineMillis = 0;
     private String cacheDirPath;
+    private HttpTransport httpTransport;
+    private Exception extractionException;
 
-    private volatile String decipheredSignature;
-
-    private static String decipherJsFileName;
-    private static String decipherFunctions;
-    private static String decipherFunctionName;
-
-    private final Lock lock = new ReentrantLock();
-    private final Condition jsExecuting = lock.newCondition();
-
-    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/40.0.2214.115 Safari/537.36";
-    private static final String STREAM_MAP_STRING = "url_encoded_fmt_stream_map";
-
-    private static final Pattern patYouTubePageLink = Pattern.compile("(http|https)://(www\\.|m.|)youtube\\.com/watch\\?v=(.+?)( |\\z|&)");
-    private static final Pattern patYouTubeShortLink = Pattern.compile("(http|https)://(www\\.|)youtu.be/(.+?)( |\\z|&)");
-
-    private static final Pattern patDashManifest1 = Pattern.compile("dashmpd=(.+?)(&|\\z)");
-    private static final Pattern patDashManifest2 = Pattern.compile("\"dashmpd\":\"(.+?)\"");
-    private static final Pattern patDashManifestEncSig = Pattern.compile("/s/([0-9A-F|.]{10,}?)(/|\\z)");
-
-    private static final Pattern patTitle = Pattern.compile("title=(.*?)(&|\\z)");
-    private static final Pattern patAuthor = Pattern.compile("author=(.+?)(&|\\z)");
-    private static final Pattern patChannelId = Pattern.compile("ucid=(.+?)(&|\\z)");
-    private static final Pattern patLength = Pattern.compile("length_seconds=(\\d+?)(&|\\z)");
-    private static final Pattern patViewCount = Pattern.compile("view_count=(\\d+?)(&|\\z)");
-    private static final Pattern patStatusOk = Pattern.compile("status=ok(&|,|\\z)");
-
-    private static final Pattern patHlsvp = Pattern.compile("hlsvp=(.+?)(&|\\z)");
-    private static final Pattern patHlsItag = Pattern.compile("/itag/(\\d+?)/");
-
-    private static final Pattern patItag = Pattern.compile("itag=([0-9]+?)([&,])");
-    private static final Pattern patEncSig = Pattern.compile("s=([0-9A-F|.]{10,}?)([&,\"])");
-    private static final Pattern patIsSigEnc = Pattern.compile("s%3D([0-9A-F|.]{10,}?)(%26|%2C)");
-    private static final Pattern patEncSig2 = Pattern.compile("(\\A|&|\")s=([0-9A-Za-z\\-_=%]{10,}?)([&,\"])");
-    private static final Pattern patIsSigEnc2 = Pattern.compile("(%26|%3F|%2C)s%3D([0-9A-Za-z\\-_=%]{10,}?)(%26|%2C|\\z)");
-    private static final Pattern patUrl = Pattern.compile("url=(.+?)([&,\"])");
-
-    private static final Pattern patVariableFunction = Pattern.compile("([{; =])([a-zA-Z$][a-zA-Z0-9$]{0,2})\\.([a-zA-Z$][a-zA-Z0-9$]{0,2})\\(");
-    private static final Pattern patFunction = Pattern.compile("([{; =])([a-zA-Z$_][a-zA-Z0-9$]{0,2})\\(");
-  
-    private static final Pattern patDecryptionJsFile = Pattern.compile("jsbin\\\\/(player(_ias)?-(.+?).js)");
-    private static final Pattern patSignatureDecFunction = Pattern.compile("([\\w$]+)\\s*=\\s*function\\(([\\w$]+)\\).\\s*\\2=\\s*\\2\\.split\\(\"\"\\)\\s*;");
-
-    private static final SparseArray<Format> FORMAT_MAP = new SparseArray<>();
-
-    static {
-        // Video and Audio
-        FORMAT_MAP.put(5, new Format(5, "flv", 240, Format.VCodec.H263, Format.ACodec.MP3, 64, false));
-        FORMAT_MAP.put(6, new Format(6, "flv", 270, Format.VCodec.H263, Format.ACodec.MP3, 64, false));
-        FORMAT_MAP.put(17, new Format(17, "3gp", 144, Format.VCodec.MPEG4, Format.ACodec.AAC, 24, false));
-        FORMAT_MAP.put(18, new Format(18, "mp4", 360, Format.VCodec.H264, Format.ACodec.AAC, 96, false));
-        FORMAT_MAP.put(22, new Format(22, "mp4", 720, Format.VCodec.H264, Format.ACodec.AAC, 192, false));
-        FORMAT_MAP.put(34, new Format(34, "3gp", 360, Format.VCodec.H264, Format.ACodec.AAC, 128, false));
-        FORMAT_MAP.put(35, new Format(35, "flv", 480, Format.VCodec.H264, Format.ACodec.AAC, 128, false));
-        FORMAT_MAP.put(36, new Format(36, "3gp", 240, Format.VCodec.MPEG4, Format.ACodec.AAC, 32, false));
-        FORMAT_MAP.put(37, new Format(37, "mp4", 1080, Format.VCodec.H264, Format.ACodec.AAC, 192, false));
-        FORMAT_MAP.put(38, new Format(38, "mp4", 3072, Format.VCodec.H264, Format.ACodec.AAC, 192, false));
-        FORMAT_MAP.put(43, new Format(43, "webm", 360, Format.VCodec.VP8, Format.ACodec.VORBIS, 128, false));
-        FORMAT_MAP.put(44, new Format(44, "webm", 480, Format.VCodec.VP8, Format.ACodec.VORBIS, 128, false));
-        FORMAT_MAP.put(45, new Format(45, "webm", 720, Format.VCodec.VP8, Format.ACodec.VORBIS, 192, false));
-        FORMAT_MAP.put(46, new Format(46, "webm", 1080, Format.VCodec.VP8, Format.ACodec.VORBIS, 192, false));
-        FORMAT_MAP.put(59, new Format(59, "mp4", 480, Format.VCodec.H264, Format.ACodec.AAC, 128, false));
-        FORMAT_MAP.put(78, new Format(78, "mp4", 480, Format.VCodec.H264, Format.ACodec.AAC, 128, false));
-
-        // 3D Videos
-        FORMAT_MAP.put(82, new Format(82, "mp4", 360, Format.VCodec.H264, Format.ACodec.AAC, 128, false));
-        FORMAT_MAP.put(83, new Format(83, "mp4", 480, Format.VCodec.H264, Format.ACodec.AAC, 128, false));
-        FORMAT_MAP.put(84, new Format(84, "mp4", 720, Format.VCodec.H264, Format.ACodec.AAC, 192, false));
-        FORMAT_MAP.put(85, new Format(85, "mp4", 1080, Format.VCodec.H264, Format.ACodec.AAC, 192, false));
-        FORMAT_MAP.put(100, new Format(100, "webm", 360, Format.VCodec.VP8, Format.ACodec.VORBIS, 128, false));
-        FORMAT_MAP.put(101, new Format(101, "webm", 480, Format.VCodec.VP8, Format.ACodec.VORBIS, 128, false));
-        FORMAT_MAP.put(102, new Format(102, "webm", 720, Format.VCodec.VP8, Format.ACodec.VORBIS, 128, false));
-
-        // HLS Live Stream
-        FORMAT_MAP.put(91, new Format(91, "mp4", 144 ,Format.VCodec.H264, Format.ACodec.AAC, 48, false, true));
-        FORMAT_MAP.put(92, new Format(92, "mp4", 240 ,Format.VCodec.H264, Format.ACodec.AAC, 48, false, true));
-        FORMAT_MAP.put(93, new Format(93, "mp4", 360 ,Format.VCodec.H264, Format.ACodec.AAC, 128, false, true));
-        FORMAT_MAP.put(94, new Format(94, "mp4", 480 ,Format.VCodec.H264, Format.ACodec.AAC, 128, false, true));
-        FORMAT_MAP.put(95, new Format(95, "mp4", 720 ,Format.VCodec.H264, Format.ACodec.AAC, 256, false, true));
-        FORMAT_MAP.put(96, new Format(96, "mp4", 1080 ,Format.VCodec.H264, Format.ACodec.AAC, 256, false, true));
-        FORMAT_MAP.put(120, new Format(120, "flv", 720 ,Format.VCodec.H264, Format.ACodec.AAC, 128, false, true));
-        FORMAT_MAP.put(127, new Format(127, "ts", 0,Format.VCodec.NONE, Format.ACodec.AAC, 96, false, true));
-        FORMAT_MAP.put(128, new Format(128, "ts", 0,Format.VCodec.NONE, Format.ACodec.AAC, 96, false, true));
-        FORMAT_MAP.put(132, new Format(132, "mp4", 240 ,Format.VCodec.H264, Format.ACodec.AAC, 256, false, true));
-        FORMAT_MAP.put(151, new Format(151, "mp4", 72 ,Format.VCodec.H264, Format.ACodec.AAC, 256, false, true));
-        FORMAT_MAP.put(300, new Format(300, "ts", 720 ,Format.VCodec.H264, Format.ACodec.AAC, 128, false, true));
-        FORMAT_MAP.put(301, new Format(301, "ts", 1080,Format.VCodec.H264, Format.ACodec.AAC, 128, false, true));
-
-        // Dash Video
-        FORMAT_MAP.put(133, new Format(133, "mp4", 240, Format.VCodec.H264, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(134, new Format(134, "mp4", 360, Format.VCodec.H264, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(135, new Format(135, "mp4", 480, Format.VCodec.H264, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(136, new Format(136, "mp4", 720, Format.VCodec.H264, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(137, new Format(137, "mp4", 1080, Format.VCodec.H264, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(138, new Format(138, "mp4", 0, Format.VCodec.H264, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(160, new Format(160, "mp4", 144, Format.VCodec.H264, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(212, new Format(212, "mp4", 480, Format.VCodec.H264, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(264, new Format(264, "mp4", 1440, Format.VCodec.H264, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(266, new Format(266, "mp4", 2160, Format.VCodec.H264, Format.ACodec.NONE, true));
-
-        FORMAT_MAP.put(298, new Format(298, "mp4", 720, Format.VCodec.H264, 60, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(299, new Format(299, "mp4", 1080, Format.VCodec.H264, 60, Format.ACodec.NONE, true));
-
-        // Dash Audio
-        FORMAT_MAP.put(139, new Format(139, "m4a", Format.VCodec.NONE, Format.ACodec.AAC, 48, true));
-        FORMAT_MAP.put(140, new Format(140, "m4a", Format.VCodec.NONE, Format.ACodec.AAC, 128, true));
-        FORMAT_MAP.put(141, new Format(141, "m4a", Format.VCodec.NONE, Format.ACodec.AAC, 256, true));
-        FORMAT_MAP.put(256, new Format(256, "m4a", Format.VCodec.NONE, Format.ACodec.AAC, 0, true));
-        FORMAT_MAP.put(258, new Format(258, "m4a", Format.VCodec.NONE, Format.ACodec.AAC, 0, true));
-
-        // WEBM Dash Video
-        FORMAT_MAP.put(167, new Format(167, "webm", 360, Format.VCodec.VP8, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(168, new Format(168, "webm", 480, Format.VCodec.VP8, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(169, new Format(169, "webm", 720, Format.VCodec.VP8, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(170, new Format(170, "webm", 1080, Format.VCodec.VP8, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(218, new Format(218, "webm", 480, Format.VCodec.VP8, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(219, new Format(219, "webm", 480, Format.VCodec.VP8, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(278, new Format(278, "webm", 144, Format.VCodec.VP9, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(242, new Format(242, "webm", 240, Format.VCodec.VP9, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(243, new Format(243, "webm", 360, Format.VCodec.VP9, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(244, new Format(244, "webm", 480, Format.VCodec.VP9, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(245, new Format(245, "webm", 480, Format.VCodec.VP9, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(246, new Format(246, "webm", 480, Format.VCodec.VP9, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(247, new Format(247, "webm", 720, Format.VCodec.VP9, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(248, new Format(248, "webm", 1080, Format.VCodec.VP9, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(271, new Format(271, "webm", 1440, Format.VCodec.VP9, Format.ACodec.NONE, true));
-
-        // itag 272 videos are either 3840x2160 (e.g. RtoitU2A-3E) or 7680x4320 (sLprVF6d7Ug)
-        FORMAT_MAP.put(272, new Format(272, "webm", 2160, Format.VCodec.VP9, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(313, new Format(313, "webm", 2160, Format.VCodec.VP9, Format.ACodec.NONE, true));
-
-        FORMAT_MAP.put(302, new Format(302, "webm", 720, Format.VCodec.VP9, 60, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(303, new Format(303, "webm", 1080, Format.VCodec.VP9, 60, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(308, new Format(308, "webm", 1440, Format.VCodec.VP9, 60, Format.ACodec.NONE, true));
-        FORMAT_MAP.put(315, new Format(315, "webm", 2160, Format.VCodec.VP9, 60, Format.ACodec.NONE, true));
-
-        // WEBM Dash Audio
-        FORMAT_MAP.put(171, new Format(171, "webm", Format.VCodec.NONE, Format.ACodec.VORBIS, 128, true));
-        FORMAT_MAP.put(172, new Format(172, "webm", Format.VCodec.NONE, Format.ACodec.VORBIS, 256, true));
-
-        FORMAT_MAP.put(249, new Format(249, "webm", Format.VCodec.NONE, Format.ACodec.OPUS, 48, true));
-        FORMAT_MAP.put(250, new Format(250, "webm", Format.VCodec.NONE, Format.ACodec.OPUS, 64, true));
-        FORMAT_MAP.put(251, new Format(251, "webm", Format.VCodec.NONE, Format.ACodec.OPUS, 160, true));
-
-    }
+    private final SignatureDecipherer signatureDecipherer;
 
     public YouTubeExtractor(@NonNull Context con) {
-        refContext = new WeakReference<>(con);
+        signatureDecipherer = new InterpretingSignatureDecipherer(new WebViewSignatureDecipherer(con));
         cacheDirPath = con.getCacheDir().getAbsolutePath();
     }
 
@@ -219,507 +71,117 @@ public abstract class YouTubeExtractor extends AsyncTask<String, Void, SparseArr
         this.execute(youtubeLink);
     }
 
+    /**
+     * Start the extraction with the current settings.
+     *
+     * @param youtubeLink the youtube page link or video id
+     */
+    public void extract(String youtubeLink) {
+        this.execute(youtubeLink);
+    }
+
     protected abstract void onExtractionComplete(SparseArray<YtFile> ytFiles, VideoMeta videoMeta);
 
     @Override
     protected SparseArray<YtFile> doInBackground(String... params) {
-        videoID = null;
-        String ytUrl = params[0];
-        if (ytUrl == null) {
-            return null;
-        }
-        Matcher mat = patYouTubePageLink.matcher(ytUrl);
-        if (mat.find()) {
-            videoID = mat.group(3);
-        } else {
-            mat = patYouTubeShortLink.matcher(ytUrl);
-            if (mat.find()) {
-                videoID = mat.group(3);
-            } else if (ytUrl.matches("\\p{Graph}+?")) {
-                videoID = ytUrl;
-            }
-        }
-        if (videoID != null) {
-            try {
-                return getStreamUrls();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        } else {
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(signatureDecipherer);
+        engine.setParseDashManifest(parseDashManifest);
+        engine.setIncludeWebM(includeWebM);
+        engine.setDefaultHttpProtocol(useHttp);
+        engine.setSpeculativeFetch(speculativeFetch);
+        engine.setCacheDirPath(CACHING ? cacheDirPath : null);
+        engine.setExtractionCache(CACHING ? RESULT_CACHE : null);
+        engine.setDiskExtractionCache(CACHING ? getDiskCache(cacheDirPath) : null);
+        engine.setLogger(LOGGING ? ANDROID_LOGGER : null);
+        if (httpTransport != null)
+            engine.setHttpTransport(httpTransport);
+        engine.setDeadline(deadlineMillis, TimeUnit.MILLISECONDS);
+        try {
+            // Stops the extraction and its requests as soon as the task is cancelled
+            ExtractionResult result = engine.extract(params[0], new YouTubeExtractorEngine.CancellationCheck() {
+                @Override
+                public boolean isCancelled() {
+                    return YouTubeExtractor.this.isCancelled();
+                }
+            });
+            videoMeta = result.getVideoMeta();
+            return toSparseArray(result.getYtFiles());
+        } catch (IllegalArgumentException e) {
+            extractionException = e;
             Log.e(LOG_TAG, "Wrong YouTube link format");
+        } catch (CancellationException e) {
+            extractionException = e;
+        } catch (Exception e) {
+            extractionException = e;
+            e.printStackTrace();
         }
         return null;
     }
 
-    private SparseArray<YtFile> getStreamUrls() throws IOException, InterruptedException {
-
-        String ytInfoUrl = (useHttp) ? "http://" : "https://";
-        ytInfoUrl += "www.youtube.com/get_video_info?video_id=" + videoID + "&eurl="
-                + URLEncoder.encode("https://youtube.googleapis.com/v/" + "onz2k4zoLjQ", "UTF-8") + "&c=TVHTML5&cver=6.20180913";
-
-        String dashMpdUrl = null;
-        String streamMap;
-        BufferedReader reader = null;
-        URL getUrl = new URL(ytInfoUrl);
-        if(LOGGING)
-            Log.d(LOG_TAG, "infoUrl: " + ytInfoUrl);
-        HttpURLConnection urlConnection = (HttpURLConnection) getUrl.openConnection();
-        urlConnection.setRequestProperty("User-Agent", USER_AGENT);
-        try {
-            reader = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-            streamMap = reader.readLine();
-
-        } finally {
-            if (reader != null)
-                reader.close();
-            urlConnection.disconnect();
-        }
-        Matcher mat;
-        String curJsFileName = null;
-        String[] streams;
-        SparseArray<String> encSignatures = null;
-
-        parseVideoMeta(streamMap);
-
-        if(videoMeta.isLiveStream()){
-            mat = patHlsvp.matcher(streamMap);
-            if(mat.find()) {
-                String hlsvp = URLDecoder.decode(mat.group(1), "UTF-8");
-                SparseArray<YtFile> ytFiles = new SparseArray<>();
-
-                getUrl = new URL(hlsvp);
-                urlConnection = (HttpURLConnection) getUrl.openConnection();
-                urlConnection.setRequestProperty("User-Agent", USER_AGENT);
-                try {
-                    reader = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                       if(line.startsWith("https://") || line.startsWith("http://")){
-                           mat = patHlsItag.matcher(line);
-                           if(mat.find()){
-                               int itag = Integer.parseInt(mat.group(1));
-                               YtFile newFile = new YtFile(FORMAT_MAP.get(itag), line);
-                               ytFiles.put(itag, newFile);
-                           }
-                       }
-                    }
-                } finally {
-                    if (reader != null)
-                        reader.close();
-                    urlConnection.disconnect();
-                }
-
-                if (ytFiles.size() == 0) {
-                    if (LOGGING)
-                        Log.d(LOG_TAG, streamMap);
-                    return null;
-                }
-                return ytFiles;
-            }
-            return null;
-        }
-
-        // "use_cipher_signature" disappeared, we check whether at least one ciphered signature
-        // exists int the stream_map.
-        boolean sigEnc = true, statusFail = false;
-        if(streamMap != null && streamMap.contains(STREAM_MAP_STRING)){
-
-            if(!patIsSigEnc2.matcher(streamMap).find() && !patIsSigEnc.matcher(streamMap).find()) {
-                sigEnc = false;
-
-                if (!patStatusOk.matcher(streamMap).find())
-                    statusFail = true;
-            }
-        }
-
-        // Some videos are using a ciphered signature we need to get the
-        // deciphering js-file from the youtubepage.
-        if (sigEnc || statusFail) {
-            // Get the video directly from the youtubepage
-            if (CACHING
-                    && (decipherJsFileName == null || decipherFunctions == null || decipherFunctionName == null)) {
-                readDecipherFunctFromCache();
-            }
-            if (LOGGING)
-                Log.d(LOG_TAG, "Get from youtube page");
-
-            getUrl = new URL("https://youtube.com/watch?v=" + videoID);
-            urlConnection = (HttpURLConnection) getUrl.openConnection();
-            urlConnection.setRequestProperty("User-Agent", USER_AGENT);
-            try {
-                reader = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    // Log.d("line", line);
-                    if (line.contains(STREAM_MAP_STRING)) {
-                        streamMap = line.replace("\\u0026", "&");
-                        break;
-                    }
-                }
-            } finally {
-                if (reader != null)
-                    reader.close();
-                urlConnection.disconnect();
-            }
-            encSignatures = new SparseArray<>();
-
-            mat = patDecryptionJsFile.matcher(streamMap);
-            if (mat.find()) {
-                curJsFileName = mat.group(1).replace("\\/", "/");
-                if (mat.group(2) != null)
-                    curJsFileName.replace(mat.group(2), "");
-                if (decipherJsFileName == null || !decipherJsFileName.equals(curJsFileName)) {
-                    decipherFunctions = null;
-                    decipherFunctionName = null;
-                }
-                decipherJsFileName = curJsFileName;
-            }
-
-            if (parseDashManifest) {
-                mat = patDashManifest2.matcher(streamMap);
-                if (mat.find()) {
-                    dashMpdUrl = mat.group(1).replace("\\/", "/");
-                    mat = patDashManifestEncSig.matcher(dashMpdUrl);
-                    if (mat.find()) {
-                        encSignatures.append(0, mat.group(1));
-                    } else {
-                        dashMpdUrl = null;
-                    }
-                }
-            }
-        } else {
-            if (parseDashManifest) {
-                mat = patDashManifest1.matcher(streamMap);
-                if (mat.find()) {
-                    dashMpdUrl = URLDecoder.decode(mat.group(1), "UTF-8");
-                }
-            }
-            streamMap = URLDecoder.decode(streamMap, "UTF-8");
-        }
-
-        boolean oldSignature = false;
-        streams = streamMap.split(",|"+STREAM_MAP_STRING+"|&adaptive_fmts=");
-        SparseArray<YtFile> ytFiles = new SparseArray<>();
-        for (String encStream : streams) {
-            encStream = encStream + ",";
-            if (!encStream.contains("itag%3D")) {
-                continue;
-            }
-            String stream;
-            stream = URLDecoder.decode(encStream, "UTF-8");
-
-            mat = patItag.matcher(stream);
-            int itag;
-            if (mat.find()) {
-                itag = Integer.parseInt(mat.group(1));
-                if (LOGGING)
-                    Log.d(LOG_TAG, "Itag found:" + itag);
-                if (FORMAT_MAP.get(itag) == null) {
-                    if (LOGGING)
-                        Log.d(LOG_TAG, "Itag not in list:" + itag);
-                    continue;
-                } else if (!includeWebM && FORMAT_MAP.get(itag).getExt().equals("webm")) {
-                    continue;
-                }
-            } else {
-                continue;
-            }
-
-            if (curJsFileName != null) {
-                mat = patEncSig2.matcher(stream);
-                if (mat.find()) {
-                    encSignatures.append(itag, URLDecoder.decode(mat.group(2), "UTF-8"));
-                } else {
-                    mat = patEncSig.matcher(stream);
-                    if (mat.find())
-                    {
-                        encSignatures.append(itag, mat.group(1));
-                        oldSignature = true;
-                    }
-                }
-            }
-            mat = patUrl.matcher(encStream);
-            String url = null;
-            if (mat.find()) {
-                url = mat.group(1);
-            }
-
-            if (url != null) {
-                Format format = FORMAT_MAP.get(itag);
-                String finalUrl = URLDecoder.decode(url, "UTF-8");
-                YtFile newVideo = new YtFile(format, finalUrl);
-                ytFiles.put(itag, newVideo);
-            }
-        }
-
-        if (encSignatures != null) {
-
-            if (LOGGING)
-                Log.d(LOG_TAG, "Decipher signatures: " + encSignatures.size()+ ", videos: " + ytFiles.size());
-            String signature;
-            decipheredSignature = null;
-            if (decipherSignature(encSignatures)) {
-                lock.lock();
-                try {
-                    jsExecuting.await(7, TimeUnit.SECONDS);
-                } finally {
-                    lock.unlock();
-                }
-            }
-            signature = decipheredSignature;
-            if (signature == null) {
-                return null;
-            } else {
-                String[] sigs = signature.split("\n");
-                for (int i = 0; i < encSignatures.size() && i < sigs.length; i++) {
-                    int key = encSignatures.keyAt(i);
-                    if (key == 0) {
-                        dashMpdUrl = dashMpdUrl.replace("/s/" + encSignatures.get(key), "/signature/" + sigs[i]);
-                    } else {
-                        String url = ytFiles.get(key).getUrl();
-                        url += (oldSignature ? "&signature=" : "&sig=") + sigs[i];
-                        YtFile newFile = new YtFile(FORMAT_MAP.get(key), url);
-                        ytFiles.put(key, newFile);
-                    }
-                }
-            }
-        }
-
-        if (parseDashManifest && dashMpdUrl != null) {
-            for (int i = 0; i < DASH_PARSE_RETRIES; i++) {
-                try {
-                    // It sometimes fails to connect for no apparent reason. We just retry.
-                    parseDashManifest(dashMpdUrl, ytFiles);
-                    break;
-                } catch (IOException io) {
-                    Thread.sleep(5);
-                    if (LOGGING)
-                        Log.d(LOG_TAG, "Failed to parse dash manifest " + (i + 1));
-                }
-            }
-        }
-
-        if (ytFiles.size() == 0) {
-            if (LOGGING)
-                Log.d(LOG_TAG, streamMap);
-            return null;
-        }
-        return ytFiles;
+    /**
+     * The exception which made the extraction fail or null if there was none.
+     */
+    Exception getExtractionException() {
+        return extractionException;
     }
 
-    private boolean decipherSignature(final SparseArray<String> encSignatures) throws IOException {
-        // Assume the functions don't change that much
-        if (decipherFunctionName == null || decipherFunctions == null) {
-            String decipherFunctUrl = "https://s.ytimg.com/yts/jsbin/" + decipherJsFileName;
-
-            BufferedReader reader = null;
-            String javascriptFile;
-            URL url = new URL(decipherFunctUrl);
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestProperty("User-Agent", USER_AGENT);
-            try {
-                reader = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-                StringBuilder sb = new StringBuilder("");
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    sb.append(line);
-                    sb.append(" ");
-                }
-                javascriptFile = sb.toString();
-            } finally {
-                if (reader != null)
-                    reader.close();
-                urlConnection.disconnect();
-            }
-
-            if (LOGGING)
-                Log.d(LOG_TAG, "Decipher FunctURL: " + decipherFunctUrl);
-            Matcher mat = patSignatureDecFunction.matcher(javascriptFile);
-            if (mat.find()) {
-                decipherFunctionName = mat.group(1);
-                if (LOGGING)
-                    Log.d(LOG_TAG, "Decipher Functname: " + decipherFunctionName);
-
-                Pattern patMainVariable = Pattern.compile("(var |\\s|,|;)" + decipherFunctionName.replace("$", "\\$") +
-                        "(=function\\((.{1,3})\\)\\{)");
-
-                String mainDecipherFunct;
-
-                mat = patMainVariable.matcher(javascriptFile);
-                if (mat.find()) {
-                    mainDecipherFunct = "var " + decipherFunctionName + mat.group(2);
-                } else {
-                    Pattern patMainFunction = Pattern.compile("function " + decipherFunctionName.replace("$", "\\$") +
-                            "(\\((.{1,3})\\)\\{)");
-                    mat = patMainFunction.matcher(javascriptFile);
-                    if (!mat.find())
-                        return false;
-                    mainDecipherFunct = "function " + decipherFunctionName + mat.group(2);
-                }
-
-                int startIndex = mat.end();
-
-                for (int braces = 1, i = startIndex; i < javascriptFile.length(); i++) {
-                    if (braces == 0 && startIndex + 5 < i) {
-                        mainDecipherFunct += javascriptFile.substring(startIndex, i) + ";";
-                        break;
-                    }
-                    if (javascriptFile.charAt(i) == '{')
-                        braces++;
-                    else if (javascriptFile.charAt(i) == '}')
-                        braces--;
-                }
-                decipherFunctions = mainDecipherFunct;
-                // Search the main function for extra functions and variables
-                // needed for deciphering
-                // Search for variables
-                mat = patVariableFunction.matcher(mainDecipherFunct);
-                while (mat.find()) {
-                    String variableDef = "var " + mat.group(2) + "={";
-                    if (decipherFunctions.contains(variableDef)) {
-                        continue;
-                    }
-                    startIndex = javascriptFile.indexOf(variableDef) + variableDef.length();
-                    for (int braces = 1, i = startIndex; i < javascriptFile.length(); i++) {
-                        if (braces == 0) {
-                            decipherFunctions += variableDef + javascriptFile.substring(startIndex, i) + ";";
-                            break;
-                        }
-                        if (javascriptFile.charAt(i) == '{')
-                            braces++;
-                        else if (javascriptFile.charAt(i) == '}')
-                            braces--;
-                    }
-                }
-                // Search for functions
-                mat = patFunction.matcher(mainDecipherFunct);
-                while (mat.find()) {
-                    String functionDef = "function " + mat.group(2) + "(";
-                    if (decipherFunctions.contains(functionDef)) {
-                        continue;
-                    }
-                    startIndex = javascriptFile.indexOf(functionDef) + functionDef.length();
-                    for (int braces = 0, i = startIndex; i < javascriptFile.length(); i++) {
-                        if (braces == 0 && startIndex + 5 < i) {
-                            decipherFunctions += functionDef + javascriptFile.substring(startIndex, i) + ";";
-                            break;
-                        }
-                        if (javascriptFile.charAt(i) == '{')
-                            braces++;
-                        else if (javascriptFile.charAt(i) == '}')
-                            braces--;
-                    }
-                }
+    /**
+     * The cache holding the results of recent extractions, shared by all YouTubeExtractors.
+     */
+    public static ExtractionCache getResultCache() {
+        return RESULT_CACHE;
+    }
 
-                if (LOGGING)
-                    Log.d(LOG_TAG, "Decipher Function: " + decipherFunctions);
-                decipherViaWebView(encSignatures);
-                if (CACHING) {
-                    writeDeciperFunctToChache();
+    /**
+     * Load the decipher function and open the connections in the background, so the first
+     * extraction is as fast as the following ones. Call it e.g. at app start.
+     *
+     * @param youtubeLink a video whose watch page names the current player or null to only
+     *                    load the cached decipher function
+     */
+    public static void warmUp(@NonNull Context con, final String youtubeLink) {
+        final YouTubeExtractorEngine engine = createEngine(con);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    engine.warmUp(youtubeLink);
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
-            } else {
-                return false;
             }
-        } else {
-            decipherViaWebView(encSignatures);
-        }
-        return true;
+        });
     }
 
-    private void parseDashManifest(String dashMpdUrl, SparseArray<YtFile> ytFiles) throws IOException {
-        Pattern patBaseUrl = Pattern.compile("<\\s*BaseURL(.*?)>(.+?)<\\s*/BaseURL\\s*>");
-        Pattern patDashItag = Pattern.compile("itag/([0-9]+?)/");
-        String dashManifest;
-        BufferedReader reader = null;
-        URL getUrl = new URL(dashMpdUrl);
-        HttpURLConnection urlConnection = (HttpURLConnection) getUrl.openConnection();
-        urlConnection.setRequestProperty("User-Agent", USER_AGENT);
-        try {
-            reader = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-            reader.readLine();
-            dashManifest = reader.readLine();
-
-        } finally {
-            if (reader != null)
-                reader.close();
-            urlConnection.disconnect();
-        }
-        if (dashManifest == null)
-            return;
-        Matcher mat = patBaseUrl.matcher(dashManifest);
-        while (mat.find()) {
-            int itag;
-            String url = mat.group(2);
-            Matcher mat2 = patDashItag.matcher(url);
-            if (mat2.find()) {
-                itag = Integer.parseInt(mat2.group(1));
-                if (FORMAT_MAP.get(itag) == null)
-                    continue;
-                if (!includeWebM && FORMAT_MAP.get(itag).getExt().equals("webm"))
-                    continue;
-            } else {
-                continue;
-            }
-            YtFile yf = new YtFile(FORMAT_MAP.get(itag), url);
-            ytFiles.append(itag, yf);
-        }
+    /**
+     * An engine which deciphers signatures like the YouTubeExtractor and shares its cached
+     * decipher functions, but doesn't cache results. Use it for blocking extractions on a
+     * background thread, e.g. to get new urls after the old ones expired.
+     */
+    public static YouTubeExtractorEngine createEngine(@NonNull Context con) {
+        YouTubeExtractorEngine engine = new YouTubeExtractorEngine(
+                new InterpretingSignatureDecipherer(new WebViewSignatureDecipherer(con)));
+        engine.setCacheDirPath(CACHING ? con.getCacheDir().getAbsolutePath() : null);
+        engine.setLogger(LOGGING ? ANDROID_LOGGER : null);
+        return engine;
     }
 
-    private void parseVideoMeta(String getVideoInfo) throws UnsupportedEncodingException {
-        boolean isLiveStream = false;
-        String title = null, author = null, channelId = null;
-        long viewCount = 0, length = 0;
-        Matcher mat = patTitle.matcher(getVideoInfo);
-        if (mat.find()) {
-            title = URLDecoder.decode(mat.group(1), "UTF-8");
-        }
-
-        mat = patHlsvp.matcher(getVideoInfo);
-        if(mat.find())
-            isLiveStream = true;
-
-        mat = patAuthor.matcher(getVideoInfo);
-        if (mat.find()) {
-            author = URLDecoder.decode(mat.group(1), "UTF-8");
-        }
-        mat = patChannelId.matcher(getVideoInfo);
-        if (mat.find()) {
-            channelId = mat.group(1);
+    private static synchronized DiskExtractionCache getDiskCache(String cacheDirPath) {
+        if (diskCache == null) {
+            diskCache = new DiskExtractionCache(new File(cacheDirPath, DISK_CACHE_DIR_NAME),
+                    DISK_CACHE_MAX_BYTES);
         }
-        mat = patLength.matcher(getVideoInfo);
-        if (mat.find()) {
-            length = Long.parseLong(mat.group(1));
-        }
-        mat = patViewCount.matcher(getVideoInfo);
-        if (mat.find()) {
-            viewCount = Long.parseLong(mat.group(1));
-        }
-        videoMeta = new VideoMeta(videoID, title, author, channelId, length, viewCount, isLiveStream);
-
+        return diskCache;
     }
 
-    private void readDecipherFunctFromCache() {
-        File cacheFile = new File(cacheDirPath + "/" + CACHE_FILE_NAME);
-        // The cached functions are valid for 2 weeks
-        if (cacheFile.exists() && (System.currentTimeMillis() - cacheFile.lastModified()) < 1209600000) {
-            BufferedReader reader = null;
-            try {
-                reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), "UTF-8"));
-                decipherJsFileName = reader.readLine();
-                decipherFunctionName = reader.readLine();
-                decipherFunctions = reader.readLine();
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
+    static SparseArray<YtFile> toSparseArray(Map<Integer, YtFile> ytFiles) {
+        if (ytFiles == null)
+            return null;
+        SparseArray<YtFile> sparseArray = new SparseArray<>(ytFiles.size());
+        for (Map.Entry<Integer, YtFile> ytFile : ytFiles.entrySet()) {
+            sparseArray.append(ytFile.getKey(), ytFile.getValue());
         }
+        return sparseArray;
     }
 
     /**
@@ -749,77 +211,26 @@ public abstract class YouTubeExtractor extends AsyncTask<String, Void, SparseArr
         this.useHttp = useHttp;
     }
 
-    private void writeDeciperFunctToChache() {
-        File cacheFile = new File(cacheDirPath + "/" + CACHE_FILE_NAME);
-        BufferedWriter writer = null;
-        try {
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cacheFile), "UTF-8"));
-            writer.write(decipherJsFileName + "\n");
-            writer.write(decipherFunctionName + "\n");
-            writer.write(decipherFunctions);
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+    /**
+     * Load the watch page together with the video info, this is faster for enciphered videos.
+     * Default: false
+     */
+    public void setSpeculativeFetch(boolean speculativeFetch) {
+        this.speculativeFetch = speculativeFetch;
     }
 
-    private void decipherViaWebView(final SparseArray<String> encSignatures) {
-        final Context context = refContext.get();
-        if (context == null)
-        {
-            return;
-        }
-
-        final StringBuilder stb = new StringBuilder(decipherFunctions + " function decipher(");
-        stb.append("){return ");
-        for (int i = 0; i < encSignatures.size(); i++) {
-            int key = encSignatures.keyAt(i);
-            if (i < encSignatures.size() - 1)
-                stb.append(decipherFunctionName).append("('").append(encSignatures.get(key)).
-                        append("')+\"\\n\"+");
-            else
-                stb.append(decipherFunctionName).append("('").append(encSignatures.get(key)).
-                        append("')");
-        }
-        stb.append("};decipher();");
-
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+    /**
+     * The maximum time the extraction may take or 0 for no limit. Default: 0
+     */
+    public void setDeadline(long timeout, TimeUnit unit) {
+        this.deadlineMillis = unit.toMillis(timeout);
+    }
 
-            @Override
-            public void run() {
-                new JsEvaluator(context).evaluate(stb.toString(), new JsCallback() {
-                    @Override
-                    public void onResult(String result) {
-                        lock.lock();
-                        try {
-                            decipheredSignature = result;
-                            jsExecuting.signal();
-                        } finally {
-                            lock.unlock();
-                        }
-                    }
-
-                    @Override
-                    public void onError(String errorMessage) {
-                        lock.lock();
-                        try {
-                            if(LOGGING)
-                                Log.e(LOG_TAG, errorMessage);
-                            jsExecuting.signal();
-                        } finally {
-                            lock.unlock();
-                        }
-                    }
-                });
-            }
-        });
+    /**
+     * The transport used for all requests or null for the shared default one. Default: null
+     */
+    public void setHttpTransport(HttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
     }
 
 }
@@ -0,0 +1,1103 @@
+package at.huber.youtubeExtractor;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The extraction logic without any dependency on the Android framework, so it can be used on
+ * a plain JVM as well. {@link YouTubeExtractor} is the Android adapter around it.
+ * <p/>
+ * An engine instance does not hold any per extraction state and can be shared by many threads.
+ */
+public class YouTubeExtractorEngine {
+
+    /**
+     * Receives the debug output of the engine.
+     */
+    public interface Logger {
+        void log(String message);
+    }
+
+    /**
+     * Tells a blocking extraction that it should stop, e.g. because its AsyncTask was
+     * cancelled. It is polled a few times per second.
+     */
+    public interface CancellationCheck {
+        boolean isCancelled();
+    }
+
+    private final static boolean CACHING = true;
+
+    private final static String DECIPHER_CACHE_DIR_NAME = "decipher_functions";
+    // Written by older versions which only kept one player
+    private final static String LEGACY_CACHE_FILE_NAME = "decipher_js_funct";
+    private final static int MAX_PLAYER_VERSIONS = 4;
+    private final static long DEFAULT_DECIPHER_TIMEOUT_MILLIS = 7000;
+    private final static long CANCELLATION_POLL_MILLIS = 200;
+    private final static Backoff DASH_RETRY_BACKOFF = new Backoff(50, 1000, 5);
+    private final static String HLS_MIME_TYPE = "application/vnd.apple.mpegurl";
+
+    // Hosts of the requests of an extraction, their connections are opened by warmUp()
+    private final static String[] PRECONNECT_URLS = {"https://www.youtube.com/robots.txt",
+            "https://s.ytimg.com/robots.txt"};
+    private final static String WARM_UP_SIGNATURE = "0123456789ABCDEF0123456789ABCDEF0123456789.ABCDEF0123456789ABCDEF0123456789ABCDEF01";
+
+    private final SignatureDecipherer signatureDecipherer;
+    private boolean includeWebM = true;
+    private boolean useHttp = false;
+    private boolean parseDashManifest = false;
+    private boolean speculativeFetch = false;
+    private long decipherTimeoutMillis = DEFAULT_DECIPHER_TIMEOUT_MILLIS;
+    private long deadlineMillis = 0;
+    private String cacheDirPath;
+    private DiskDecipherFunctionCache decipherFunctionCache;
+    private ExtractionCache extractionCache;
+    private DiskExtractionCache diskExtractionCache;
+    private Logger logger;
+    private HttpTransport httpTransport = DEFAULT_TRANSPORT;
+
+    private final DecipherFunctionRegistry.Loader decipherFunctionLoader = new DecipherFunctionRegistry.Loader() {
+        @Override
+        public DecipherFunction load(String jsFileName) throws IOException {
+            DiskDecipherFunctionCache diskCache = decipherFunctionCache;
+            if (diskCache != null) {
+                DecipherFunction function = diskCache.get(jsFileName);
+                if (function != null) {
+                    log("Decipher function from cache: " + jsFileName);
+                    return function;
+                }
+            }
+            DecipherFunction function = loadDecipherFunction(jsFileName);
+            if (function != null && diskCache != null) {
+                diskCache.put(function);
+            }
+            return function;
+        }
+    };
+
+    private static final DecipherFunctionRegistry DECIPHER_FUNCTIONS = new DecipherFunctionRegistry(MAX_PLAYER_VERSIONS);
+
+    // Runs the speculative requests, created when it is needed for the first time
+    private static ExecutorService fetchExecutor;
+    private static ScheduledExecutorService timeoutScheduler;
+
+    // Shared by all engines so they use the same connection pool
+    private static final HttpTransport DEFAULT_TRANSPORT = new UrlConnectionTransport();
+
+    private static final String STREAM_MAP_STRING = "url_encoded_fmt_stream_map";
+    private static final String ADAPTIVE_FMTS_STRING = "adaptive_fmts";
+
+    private static final Pattern patYouTubePageLink = Pattern.compile("(http|https)://(www\\.|m.|)youtube\\.com/watch\\?v=(.+?)( |\\z|&)");
+    private static final Pattern patYouTubeShortLink = Pattern.compile("(http|https)://(www\\.|)youtu.be/(.+?)( |\\z|&)");
+
+    private static final Pattern patDashManifestEncSig = Pattern.compile("/s/([0-9A-F|.]{10,}?)(/|\\z)");
+
+    private static final Pattern patHlsItag = Pattern.compile("/itag/(\\d+?)/");
+
+    private static final Pattern patOldEncSig = Pattern.compile("[0-9A-F.]{10,}");
+
+    private static final Pattern patSize = Pattern.compile("(\\d+)x(\\d+)");
+    private static final Pattern patCodecs = Pattern.compile("codecs=\"([^\"]*)\"");
+
+
+    /**
+     * @param signatureDecipherer deciphers the signatures of enciphered videos
+     */
+    public YouTubeExtractorEngine(@NonNull SignatureDecipherer signatureDecipherer) {
+        this.signatureDecipherer = signatureDecipherer;
+    }
+
+    /**
+     * Extract the stream urls and meta data of one video. Blocks until the extraction is
+     * finished, all steps run on the calling thread.
+     *
+     * @param youtubeLink the youtube page link or video id
+     * @throws IllegalArgumentException if the link is no valid YouTube link
+     */
+    public ExtractionResult extract(String youtubeLink) throws IOException, InterruptedException {
+        return extract(youtubeLink, null);
+    }
+
+    /**
+     * Extract the stream urls and meta data of one video. Blocks until the extraction is
+     * finished, all steps run on the calling thread.
+     *
+     * @param youtubeLink       the youtube page link or video id
+     * @param cancellationCheck stops the extraction and aborts its requests once it returns
+     *                          true, may be null
+     * @throws IllegalArgumentException if the link is no valid YouTube link
+     * @throws CancellationException    if the extraction was cancelled
+     */
+    public ExtractionResult extract(String youtubeLink, final CancellationCheck cancellationCheck)
+            throws IOException, InterruptedException {
+        if (getVideoId(youtubeLink) == null) {
+            throw new IllegalArgumentException("Wrong YouTube link format");
+        }
+        CallerExecutor executor = new CallerExecutor();
+        final ExtractionTask task = extractAsync(youtubeLink, executor, executor);
+        if (cancellationCheck != null) {
+            task.cancelWhenDone(getScheduler().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancellationCheck.isCancelled())
+                        task.cancel(true);
+                }
+            }, CANCELLATION_POLL_MILLIS, CANCELLATION_POLL_MILLIS, TimeUnit.MILLISECONDS));
+        }
+        try {
+            executor.runUntilDone(task);
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            throw e;
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof InterruptedException)
+                throw (InterruptedException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Prepare everything the first enciphered extraction needs, so it is as fast as the
+     * following ones: the connections to the YouTube hosts are opened, the decipher function
+     * is loaded from the cache or refreshed from the current player and the signature
+     * decipherer is run once. Blocks, call it on a background thread, e.g. at app start.
+     *
+     * @param youtubeLink a video whose watch page names the current player or null to only
+     *                    load the cached decipher function
+     * @throws IllegalArgumentException if the link is no valid YouTube link
+     */
+    public void warmUp(String youtubeLink) throws IOException, InterruptedException {
+        String videoID = null;
+        if (youtubeLink != null) {
+            videoID = getVideoId(youtubeLink);
+            if (videoID == null)
+                throw new IllegalArgumentException("Wrong YouTube link format");
+        }
+        for (String url : PRECONNECT_URLS) {
+            preconnect(url);
+        }
+        String jsFileName = null;
+        if (videoID != null) {
+            jsFileName = fetchPlayerConfig(videoID, false, null).getPlayerJsFileName();
+        }
+        DecipherFunction function = getDecipherFunction(jsFileName);
+        if (function == null) {
+            log("Warm up: no decipher function");
+            return;
+        }
+        // E.g. creates the WebView of the decipherer
+        final CountDownLatch deciphered = new CountDownLatch(1);
+        signatureDecipherer.decipher(function, new String[]{WARM_UP_SIGNATURE}, new SignatureDecipherer.Callback() {
+            @Override
+            public void onDeciphered(String[] signatures) {
+                deciphered.countDown();
+            }
+        });
+        deciphered.await(decipherTimeoutMillis, TimeUnit.MILLISECONDS);
+        log("Warm up done: " + function.getJsFileName());
+    }
+
+    /**
+     * Send a request only to open a connection which is kept alive for the next requests.
+     */
+    private void preconnect(String url) {
+        try {
+            HttpTransport.Response response = httpTransport.get(url, null);
+            try {
+                // Only a fully read response leaves its connection open
+                InputStream in = response.getBody();
+                byte[] buffer = new byte[4096];
+                while (in.read(buffer) != -1) {
+                    // Discarded
+                }
+            } finally {
+                response.close();
+            }
+        } catch (IOException e) {
+            log("Preconnect failed: " + url + " " + e);
+        }
+    }
+
+    /**
+     * The results differ with the settings, so they are part of the key.
+     */
+    private String getCacheKey(String videoID) {
+        return videoID + ":" + (parseDashManifest ? "d" : "") + (includeWebM ? "w" : "")
+                + (useHttp ? "h" : "");
+    }
+
+    /**
+     * Extract the stream urls and meta data of one video on the given executor.
+     *
+     * @param youtubeLink the youtube page link or video id
+     * @param executor    runs the extraction
+     */
+    public ExtractionTask extractAsync(String youtubeLink, Executor executor) {
+        return extractAsync(youtubeLink, executor, null);
+    }
+
+    /**
+     * Extract the stream urls and meta data of one video on the given executor. No thread is
+     * blocked while the signatures are deciphered, the extraction continues on the executor
+     * when the deciphered signatures arrive.
+     *
+     * @param youtubeLink the youtube page link or video id
+     * @param executor    runs the extraction
+     * @param callback    receives the result, may be null
+     */
+    public ExtractionTask extractAsync(final String youtubeLink, final Executor executor,
+                                       ExtractionTask.Callback callback) {
+        final ExtractionTask task = new ExtractionTask(callback);
+        if (deadlineMillis > 0) {
+            task.cancelWhenDone(getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    task.expire();
+                }
+            }, deadlineMillis, TimeUnit.MILLISECONDS));
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    startExtraction(youtubeLink, task, executor);
+                } catch (Exception e) {
+                    task.fail(e);
+                }
+            }
+        });
+        return task;
+    }
+
+    private void startExtraction(String youtubeLink, ExtractionTask task, Executor executor)
+            throws IOException, InterruptedException {
+        String videoID = getVideoId(youtubeLink);
+        if (videoID == null) {
+            throw new IllegalArgumentException("Wrong YouTube link format");
+        }
+        String cacheKey = getCacheKey(videoID);
+        ExtractionCache cache = extractionCache;
+        DiskExtractionCache diskCache = diskExtractionCache;
+        ExtractionResult result = cache != null ? cache.get(cacheKey) : null;
+        if (result != null) {
+            log("Extraction result from cache: " + videoID);
+            task.complete(result);
+            return;
+        }
+        if (diskCache != null) {
+            result = diskCache.get(cacheKey);
+            if (result != null) {
+                log("Extraction result from disk cache: " + videoID);
+                if (cache != null)
+                    cache.put(cacheKey, result);
+                task.complete(result);
+                return;
+            }
+        }
+
+        PendingExtraction pending = new PendingExtraction(videoID, cacheKey);
+        prepare(pending, task);
+        if (pending.result != null) {
+            complete(pending, pending.result, task);
+        } else if (pending.encSignatures != null && !pending.encSignatures.isEmpty()) {
+            decipher(pending, task, executor);
+        } else {
+            finish(pending, null, task);
+        }
+    }
+
+    private void complete(PendingExtraction pending, ExtractionResult result, ExtractionTask task) {
+        if (result.getYtFiles() != null) {
+            ExtractionCache cache = extractionCache;
+            DiskExtractionCache diskCache = diskExtractionCache;
+            if (cache != null)
+                cache.put(pending.cacheKey, result);
+            if (diskCache != null)
+                diskCache.put(pending.cacheKey, result, ExtractionCache.getUsableUntil(result));
+        }
+        task.complete(result);
+    }
+
+    /**
+     * Create a refresher that follows the media playlist of a live stream.
+     *
+     * @param ytFile an HLS file of a live stream, see {@link Format#isHlsContent()}
+     */
+    public HlsRefresher createHlsRefresher(@NonNull YtFile ytFile) {
+        if (!ytFile.getFormat().isHlsContent())
+            throw new IllegalArgumentException("No HLS stream: " + ytFile.getFormat().getItag());
+        return new HlsRefresher(httpTransport, ytFile.getUrl());
+    }
+
+    /**
+     * Get the video id of a youtube page link, a short link or a plain video id.
+     *
+     * @return the video id or null if the link has a wrong format
+     */
+    public static String getVideoId(String youtubeLink) {
+        if (youtubeLink == null) {
+            return null;
+        }
+        Matcher mat = patYouTubePageLink.matcher(youtubeLink);
+        if (mat.find()) {
+            return mat.group(3);
+        }
+        mat = patYouTubeShortLink.matcher(youtubeLink);
+        if (mat.find()) {
+            return mat.group(3);
+        } else if (youtubeLink.matches("\\p{Graph}+?")) {
+            return youtubeLink;
+        }
+        return null;
+    }
+
+    /**
+     * Load everything that is needed for the streams. Sets the result of the pending extraction
+     * if it is already finished.
+     */
+    private void prepare(final PendingExtraction pending, final ExtractionTask task)
+            throws IOException, InterruptedException {
+        task.throwIfDone();
+        Future<PlayerConfigScanner> playerConfigFuture = null;
+        // Tracks the responses of the speculative requests, cancelling it aborts them since an
+        // interrupt doesn't stop a blocking read
+        final ExtractionTask speculation = speculativeFetch ? new ExtractionTask(null) : null;
+        if (speculation != null) {
+            // Most videos are enciphered, so the watch page is loaded together with
+            // get_video_info instead of after it
+            playerConfigFuture = submit(new Callable<PlayerConfigScanner>() {
+                @Override
+                public PlayerConfigScanner call() throws Exception {
+                    return fetchPlayerConfig(pending.videoID, true, speculation);
+                }
+            });
+            task.cancelWhenDone(playerConfigFuture);
+            task.cancelWhenDone(speculation);
+        }
+        try {
+            prepare(pending, playerConfigFuture, task);
+        } finally {
+            if (speculation != null) {
+                playerConfigFuture.cancel(true);
+                speculation.cancel(true);
+            }
+        }
+    }
+
+    private void prepare(PendingExtraction pending, Future<PlayerConfigScanner> playerConfigFuture,
+                         final ExtractionTask task) throws IOException, InterruptedException {
+        String videoID = pending.videoID;
+
+        String ytInfoUrl = (useHttp) ? "http://" : "https://";
+        ytInfoUrl += "www.youtube.com/get_video_info?video_id=" + videoID + "&eurl="
+                + URLEncoder.encode("https://youtube.googleapis.com/v/" + "onz2k4zoLjQ", "UTF-8") + "&c=TVHTML5&cver=6.20180913";
+
+        String dashMpdUrl = null;
+        String videoInfo;
+        log("infoUrl: " + ytInfoUrl);
+        HttpTransport.Response response = fetch(ytInfoUrl, task);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody(), "UTF-8"));
+            videoInfo = reader.readLine();
+        } finally {
+            response.close();
+        }
+        if (videoInfo == null)
+            videoInfo = "";
+        pending.videoInfo = videoInfo;
+        Matcher mat;
+        String curJsFileName = null;
+        TreeMap<Integer, String> encSignatures = null;
+
+        QueryString info = new QueryString(videoInfo);
+        VideoMeta videoMeta = parseVideoMeta(videoID, info);
+        pending.videoMeta = videoMeta;
+
+        if(videoMeta.isLiveStream()){
+            String hlsvp = info.get("hlsvp");
+            if(hlsvp != null) {
+                Map<Integer, YtFile> ytFiles = new TreeMap<>();
+
+                List<HlsPlaylistParser.Variant> variants;
+                response = fetch(hlsvp, task);
+                try {
+                    variants = HlsPlaylistParser.parseMaster(
+                            new InputStreamReader(response.getBody(), "UTF-8"), hlsvp);
+                } finally {
+                    response.close();
+                }
+                for (HlsPlaylistParser.Variant variant : variants) {
+                    mat = patHlsItag.matcher(variant.url);
+                    if (!mat.find())
+                        continue;
+                    int itag = Integer.parseInt(mat.group(1));
+                    Format format = Formats.get(itag);
+                    if (format != null)
+                        ytFiles.put(itag, new YtFile(format, variant.url, variant.bandwidth, -1, variant.width,
+                                variant.height, variant.fps, HLS_MIME_TYPE, variant.codecs, null, null));
+                }
+
+                if (ytFiles.size() == 0) {
+                    log(videoInfo);
+                    pending.result = new ExtractionResult(videoMeta, null);
+                    return;
+                }
+                pending.result = new ExtractionResult(videoMeta, ytFiles);
+                return;
+            }
+            pending.result = new ExtractionResult(videoMeta, null);
+            return;
+        }
+
+        List<QueryString> streams = parseStreams(info.get(STREAM_MAP_STRING), info.get(ADAPTIVE_FMTS_STRING));
+
+        // "use_cipher_signature" disappeared, we check whether at least one ciphered signature
+        // exists int the stream_map.
+        boolean sigEnc = true, statusFail = false;
+        if (info.contains(STREAM_MAP_STRING)) {
+            sigEnc = false;
+            for (QueryString stream : streams) {
+                if (stream.contains("s")) {
+                    sigEnc = true;
+                    break;
+                }
+            }
+            if (!sigEnc && !"ok".equals(info.get("status")))
+                statusFail = true;
+        }
+
+        // Some videos are using a ciphered signature we need to get the
+        // deciphering js-file from the youtubepage.
+        if (sigEnc || statusFail) {
+            // Get the video directly from the youtubepage
+            PlayerConfigScanner playerConfig = playerConfigFuture != null
+                    ? await(playerConfigFuture) : fetchPlayerConfig(videoID, false, task);
+            if (playerConfig.getStreamMap() == null) {
+                log("No player config in the youtube page");
+                pending.result = new ExtractionResult(videoMeta, null);
+                return;
+            }
+            encSignatures = new TreeMap<>();
+            curJsFileName = playerConfig.getPlayerJsFileName();
+
+            if (parseDashManifest) {
+                dashMpdUrl = playerConfig.getDashMpdUrl();
+                if (dashMpdUrl != null) {
+                    mat = patDashManifestEncSig.matcher(dashMpdUrl);
+                    if (mat.find()) {
+                        encSignatures.put(0, mat.group(1));
+                    } else {
+                        dashMpdUrl = null;
+                    }
+                }
+            }
+            streams = parseStreams(playerConfig.getStreamMap(), playerConfig.getAdaptiveFmts());
+        } else if (parseDashManifest) {
+            dashMpdUrl = info.get("dashmpd");
+            if (speculativeFetch && dashMpdUrl != null) {
+                // Load the manifest while the streams are processed
+                final String url = dashMpdUrl;
+                pending.dashManifestFuture = submit(new Callable<Map<Integer, YtFile>>() {
+                    @Override
+                    public Map<Integer, YtFile> call() throws Exception {
+                        return fetchDashManifest(url, task);
+                    }
+                });
+                task.cancelWhenDone(pending.dashManifestFuture);
+            }
+        }
+
+        Map<Integer, YtFile> ytFiles = new TreeMap<>();
+        Map<Integer, String> signatureParams = new HashMap<>();
+        for (QueryString stream : streams) {
+            int itag = (int) stream.getLong("itag", -1);
+            if (itag < 0)
+                continue;
+            log("Itag found:" + itag);
+            Format format = Formats.get(itag);
+            if (format == null) {
+                log("Itag not in list:" + itag);
+                continue;
+            } else if (!includeWebM && format.isWebM()) {
+                continue;
+            }
+
+            String url = stream.get("url");
+            if (url == null)
+                continue;
+
+            String encSignature = stream.get("s");
+            if (curJsFileName != null && encSignature != null) {
+                encSignatures.put(itag, encSignature);
+                String sigParam = stream.get("sp");
+                if (sigParam == null) {
+                    // Old style signatures are deciphered into the "signature" parameter
+                    sigParam = patOldEncSig.matcher(encSignature).matches() ? "signature" : "sig";
+                }
+                signatureParams.put(itag, sigParam);
+            }
+            ytFiles.put(itag, createYtFile(format, url, stream));
+        }
+
+        pending.ytFiles = ytFiles;
+        pending.encSignatures = encSignatures;
+        pending.signatureParams = signatureParams;
+        pending.curJsFileName = curJsFileName;
+        pending.dashMpdUrl = dashMpdUrl;
+    }
+
+    /**
+     * Decipher the signatures, the extraction is continued on the executor when the
+     * decipherer hands back the result or the decipher timeout is over.
+     */
+    private void decipher(final PendingExtraction pending, final ExtractionTask task,
+                          final Executor executor) throws IOException, InterruptedException {
+        task.throwIfDone();
+        log("Decipher signatures: " + pending.encSignatures.size() + ", videos: " + pending.ytFiles.size());
+        DecipherFunction function = getDecipherFunction(pending.curJsFileName);
+        task.throwIfDone();
+        if (function == null) {
+            complete(pending, new ExtractionResult(pending.videoMeta, null), task);
+            return;
+        }
+        final AtomicBoolean handedOver = new AtomicBoolean();
+        final ScheduledFuture<?> timeout = schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (handedOver.compareAndSet(false, true)) {
+                    log("Deciphering the signatures timed out");
+                    continueOn(executor, pending, null, task);
+                }
+            }
+        }, decipherTimeoutMillis);
+        task.cancelWhenDone(timeout);
+        signatureDecipherer.decipher(function, pending.encSignatures.values().toArray(
+                new String[pending.encSignatures.size()]), new SignatureDecipherer.Callback() {
+            @Override
+            public void onDeciphered(String[] signatures) {
+                if (handedOver.compareAndSet(false, true)) {
+                    timeout.cancel(false);
+                    continueOn(executor, pending, signatures, task);
+                }
+            }
+        });
+    }
+
+    private void continueOn(Executor executor, final PendingExtraction pending, final String[] sigs,
+                            final ExtractionTask task) {
+        if (task.isDone())
+            return;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        finish(pending, sigs, task);
+                    } catch (Exception e) {
+                        task.fail(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            task.fail(e);
+        }
+    }
+
+    /**
+     * Add the deciphered signatures to the urls and load the dash manifest.
+     *
+     * @param sigs the deciphered signatures or null if there were none or they could not be
+     *             deciphered
+     */
+    private void finish(PendingExtraction pending, String[] sigs, ExtractionTask task)
+            throws IOException, InterruptedException {
+        if (task.isDone())
+            return;
+        Map<Integer, YtFile> ytFiles = pending.ytFiles;
+        TreeMap<Integer, String> encSignatures = pending.encSignatures;
+        String dashMpdUrl = pending.dashMpdUrl;
+        if (encSignatures != null && !encSignatures.isEmpty()) {
+            if (sigs == null) {
+                complete(pending, new ExtractionResult(pending.videoMeta, null), task);
+                return;
+            } else {
+                int i = 0;
+                for (Map.Entry<Integer, String> encSignature : encSignatures.entrySet()) {
+                    if (i >= sigs.length)
+                        break;
+                    int key = encSignature.getKey();
+                    if (key == 0) {
+                        dashMpdUrl = dashMpdUrl.replace("/s/" + encSignature.getValue(), "/signature/" + sigs[i]);
+                    } else {
+                        String url = ytFiles.get(key).getUrl();
+                        url += "&" + pending.signatureParams.get(key) + "=" + sigs[i];
+                        ytFiles.put(key, ytFiles.get(key).withUrl(url));
+                    }
+                    i++;
+                }
+            }
+        }
+
+        if (pending.dashManifestFuture != null) {
+            ytFiles.putAll(await(pending.dashManifestFuture));
+        } else if (parseDashManifest && dashMpdUrl != null) {
+            ytFiles.putAll(fetchDashManifest(dashMpdUrl, task));
+        }
+
+        if (ytFiles.size() == 0) {
+            log(pending.videoInfo);
+            complete(pending, new ExtractionResult(pending.videoMeta, null), task);
+            return;
+        }
+        complete(pending, new ExtractionResult(pending.videoMeta, ytFiles), task);
+    }
+
+    /**
+     * Split the stream maps into the query strings of the single streams.
+     */
+    static List<QueryString> parseStreams(String... streamMaps) {
+        List<QueryString> streams = new ArrayList<>();
+        for (String streamMap : streamMaps) {
+            if (streamMap == null)
+                continue;
+            for (int start = 0, end; start < streamMap.length(); start = end + 1) {
+                end = streamMap.indexOf(',', start);
+                if (end < 0)
+                    end = streamMap.length();
+                int encodedItag = streamMap.indexOf("itag%3D", start);
+                if (encodedItag > -1 && encodedItag < end) {
+                    // The stream is url encoded once more
+                    streams.add(new QueryString(QueryString.decode(streamMap, start, end)));
+                } else if (end > start) {
+                    streams.add(new QueryString(streamMap, start, end));
+                }
+            }
+        }
+        return streams;
+    }
+
+    /**
+     * Load the player config from the watch page.
+     *
+     * @param loadDecipherFunction load the decipher function of the player right after the
+     *                             page, before the signatures are known
+     */
+    private PlayerConfigScanner fetchPlayerConfig(String videoID, boolean loadDecipherFunction,
+                                                  ExtractionTask task) throws IOException, InterruptedException {
+        log("Get from youtube page");
+        PlayerConfigScanner playerConfig;
+        HttpTransport.Response response = fetch("https://youtube.com/watch?v=" + videoID, task);
+        try {
+            playerConfig = PlayerConfigScanner.scan(response.getBody());
+        } finally {
+            // Drops the rest of the page
+            response.abort();
+        }
+        if (loadDecipherFunction && playerConfig.getPlayerJsFileName() != null) {
+            // The player js is not needed anymore if the speculation was cancelled meanwhile,
+            // once it loads it is shared with other extractions and not aborted
+            task.throwIfDone();
+            getDecipherFunction(playerConfig.getPlayerJsFileName());
+        }
+        return playerConfig;
+    }
+
+    /**
+     * Get the decipher function of the player js, it is only loaded if it is not the same
+     * as the last one.
+     *
+     * @return the function or null if it could not be loaded
+     */
+    private DecipherFunction getDecipherFunction(String jsFileName) throws IOException, InterruptedException {
+        DiskDecipherFunctionCache diskCache = decipherFunctionCache;
+        if (diskCache != null && DECIPHER_FUNCTIONS.getLatest() == null) {
+            migrateLegacyCacheFile(diskCache);
+            if (jsFileName == null) {
+                DecipherFunction function = diskCache.getLatest();
+                if (function != null)
+                    DECIPHER_FUNCTIONS.offer(function);
+            }
+        }
+        // Assume the functions don't change that much
+        return DECIPHER_FUNCTIONS.get(jsFileName, decipherFunctionLoader);
+    }
+
+    private DecipherFunction loadDecipherFunction(String jsFileName) throws IOException {
+        String decipherFunctUrl = "https://s.ytimg.com/yts/jsbin/" + jsFileName;
+
+        PlayerScriptAnalyzer playerScript;
+        // Not bound to an extraction, other extractions may wait for the same player
+        HttpTransport.Response response = fetch(decipherFunctUrl, null);
+        try {
+            playerScript = PlayerScriptAnalyzer.read(new InputStreamReader(response.getBody(), "UTF-8"));
+        } finally {
+            response.close();
+        }
+
+        log("Decipher FunctURL: " + decipherFunctUrl);
+        String[] decipherFunction = playerScript.findDecipherFunction();
+        if (decipherFunction == null)
+            return null;
+
+        log("Decipher Functname: " + decipherFunction[0]);
+        log("Decipher Function: " + decipherFunction[1]);
+        return new DecipherFunction(jsFileName, decipherFunction[0], decipherFunction[1]);
+    }
+
+    private Map<Integer, YtFile> fetchDashManifest(String dashMpdUrl, ExtractionTask task)
+            throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            task.throwIfDone();
+            try {
+                // It sometimes fails to connect for no apparent reason. We just retry.
+                return parseDashManifest(dashMpdUrl, task);
+            } catch (IOException io) {
+                log("Failed to parse dash manifest " + attempt + ": " + io.getMessage());
+                if (attempt >= DASH_RETRY_BACKOFF.getMaxAttempts())
+                    return new TreeMap<>();
+                Thread.sleep(DASH_RETRY_BACKOFF.getDelayMillis(attempt));
+            }
+        }
+    }
+
+    private Map<Integer, YtFile> parseDashManifest(String dashMpdUrl, ExtractionTask task) throws IOException {
+        List<YtFile> files;
+        HttpTransport.Response response = fetch(dashMpdUrl, task);
+        try {
+            files = DashManifestParser.parse(response.getBody());
+        } finally {
+            response.close();
+        }
+        Map<Integer, YtFile> ytFiles = new TreeMap<>();
+        for (YtFile ytFile : files) {
+            if (!includeWebM && ytFile.getFormat().isWebM())
+                continue;
+            ytFiles.put(ytFile.getFormat().getItag(), ytFile);
+        }
+        return ytFiles;
+    }
+
+    /**
+     * Create the file of a stream map entry with everything the entry knows about it.
+     */
+    private static YtFile createYtFile(Format format, String url, QueryString stream) {
+        int width = -1;
+        int height = -1;
+        String size = stream.get("size");
+        if (size != null) {
+            Matcher mat = patSize.matcher(size);
+            if (mat.matches()) {
+                width = parseInt(mat.group(1));
+                height = parseInt(mat.group(2));
+            }
+        }
+        long contentLength = stream.getLong("clen", -1);
+        if (contentLength < 0) {
+            int query = url.indexOf('?');
+            if (query >= 0)
+                contentLength = new QueryString(url, query + 1, url.length()).getLong("clen", -1);
+        }
+        String mimeType = null;
+        String codecs = null;
+        String type = stream.get("type");
+        if (type != null) {
+            int separator = type.indexOf(';');
+            mimeType = (separator < 0 ? type : type.substring(0, separator)).trim();
+            Matcher mat = patCodecs.matcher(type);
+            if (mat.find())
+                codecs = mat.group(1);
+        }
+        return new YtFile(format, url, (int) stream.getLong("bitrate", -1), contentLength, width, height,
+                (int) stream.getLong("fps", -1), mimeType, codecs,
+                ByteRange.parse(stream.get("init")), ByteRange.parse(stream.get("index")));
+    }
+
+    private static int parseInt(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static synchronized <T> Future<T> submit(Callable<T> task) {
+        if (fetchExecutor == null) {
+            fetchExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "YouTubeExtractorEngine fetch #" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return fetchExecutor.submit(task);
+    }
+
+    /**
+     * Wait for a speculative request and rethrow its exception.
+     */
+    private static <T> T await(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof InterruptedException)
+                throw (InterruptedException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static ScheduledFuture<?> schedule(Runnable command, long delayMillis) {
+        return getScheduler().schedule(command, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (timeoutScheduler == null) {
+            timeoutScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "YouTubeExtractorEngine scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return timeoutScheduler;
+    }
+
+    /**
+     * Send a GET request, error status codes are turned into an IOException.
+     *
+     * @param task the extraction the request belongs to, it is aborted if the extraction is
+     *             cancelled. May be null.
+     */
+    private HttpTransport.Response fetch(String url, ExtractionTask task) throws IOException {
+        HttpTransport.Response response = httpTransport.get(url, null);
+        if (task != null)
+            response = task.track(response);
+        if (response.getStatusCode() >= 400) {
+            response.abort();
+            throw new IOException("HTTP " + response.getStatusCode() + ": " + url);
+        }
+        return response;
+    }
+
+    private VideoMeta parseVideoMeta(String videoID, QueryString videoInfo) {
+        return new VideoMeta(videoID, videoInfo.get("title"), videoInfo.get("author"),
+                videoInfo.get("ucid"), videoInfo.getLong("length_seconds", 0),
+                videoInfo.getLong("view_count", 0), videoInfo.contains("hlsvp"), null);
+    }
+
+    private void migrateLegacyCacheFile(DiskDecipherFunctionCache diskCache) {
+        File legacyFile = new File(cacheDirPath, LEGACY_CACHE_FILE_NAME);
+        if (!legacyFile.exists())
+            return;
+        DecipherFunction function = DiskDecipherFunctionCache.read(legacyFile);
+        if (function != null)
+            diskCache.put(function);
+        legacyFile.delete();
+    }
+
+    /**
+     * Parse the dash manifest for different dash streams and high quality audio. Default: false
+     */
+    public void setParseDashManifest(boolean parseDashManifest) {
+        this.parseDashManifest = parseDashManifest;
+    }
+
+
+    /**
+     * Include the webm format files into the result. Default: true
+     */
+    public void setIncludeWebM(boolean includeWebM) {
+        this.includeWebM = includeWebM;
+    }
+
+
+    /**
+     * Set default protocol of the returned urls to HTTP instead of HTTPS.
+     * HTTP may be blocked in some regions so HTTPS is the default value.
+     * <p/>
+     * Note: Enciphered videos require HTTPS so they are not affected by
+     * this.
+     */
+    public void setDefaultHttpProtocol(boolean useHttp) {
+        this.useHttp = useHttp;
+    }
+
+    /**
+     * Load the watch page and the player js together with get_video_info instead of waiting
+     * for it and load the dash manifest while the streams are processed. This saves some
+     * round trips for enciphered videos but wastes the watch page request for the others.
+     * Default: false
+     */
+    public void setSpeculativeFetch(boolean speculativeFetch) {
+        this.speculativeFetch = speculativeFetch;
+    }
+
+    /**
+     * How long to wait for the deciphered signatures. If they do not arrive in time the
+     * extraction finishes without stream urls. Default: 7 seconds
+     */
+    public void setDecipherTimeout(long timeout, TimeUnit unit) {
+        this.decipherTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * The maximum time one extraction may take or 0 for no limit. An extraction that takes
+     * longer is stopped and fails with a TimeoutException, the blocking extract throws an
+     * IOException caused by it. Default: 0
+     */
+    public void setDeadline(long timeout, TimeUnit unit) {
+        this.deadlineMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * The directory the decipher function is cached in or null to disable caching.
+     * Default: null
+     */
+    public void setCacheDirPath(String cacheDirPath) {
+        this.cacheDirPath = cacheDirPath;
+        decipherFunctionCache = CACHING && cacheDirPath != null ? new DiskDecipherFunctionCache(
+                new File(cacheDirPath, DECIPHER_CACHE_DIR_NAME), MAX_PLAYER_VERSIONS) : null;
+    }
+
+    /**
+     * Cache for the extraction results or null to always extract the videos again.
+     * Default: null
+     */
+    public void setExtractionCache(ExtractionCache extractionCache) {
+        this.extractionCache = extractionCache;
+    }
+
+    /**
+     * Cache keeping the extraction results on disk or null to not store them.
+     * It is asked after the in memory cache. Default: null
+     */
+    public void setDiskExtractionCache(DiskExtractionCache diskExtractionCache) {
+        this.diskExtractionCache = diskExtractionCache;
+    }
+
+    /**
+     * Receives the debug output or null to disable logging. Default: null
+     */
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * The transport used for all requests. Default: a shared {@link UrlConnectionTransport}
+     */
+    public void setHttpTransport(@NonNull HttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
+    }
+
+    private void log(String message) {
+        if (logger != null)
+            logger.log(message);
+    }
+
+    /**
+     * The state of an extraction between its steps.
+     */
+    private static class PendingExtraction {
+        final String videoID;
+        final String cacheKey;
+        String videoInfo;
+        VideoMeta videoMeta;
+        Map<Integer, YtFile> ytFiles;
+        TreeMap<Integer, String> encSignatures;
+        Map<Integer, String> signatureParams;
+        String curJsFileName;
+        String dashMpdUrl;
+        Future<Map<Integer, YtFile>> dashManifestFuture;
+        // Set if the extraction is finished without deciphering
+        ExtractionResult result;
+
+        PendingExtraction(String videoID, String cacheKey) {
+            this.videoID = videoID;
+            this.cacheKey = cacheKey;
+        }
+    }
+
+    /**
+     * Runs the steps of a blocking extraction on the calling thread.
+     */
+    private static class CallerExecutor implements Executor, ExtractionTask.Callback {
+
+        private static final Runnable WAKE_UP = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runUntilDone(ExtractionTask task) throws InterruptedException {
+            while (!task.isDone()) {
+                queue.take().run();
+            }
+        }
+
+        @Override
+        public void onExtractionComplete(ExtractionResult result) {
+            execute(WAKE_UP);
+        }
+
+        @Override
+        public void onExtractionFailed(Exception e) {
+            execute(WAKE_UP);
+        }
+    }
+}
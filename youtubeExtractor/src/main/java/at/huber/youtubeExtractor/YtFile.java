@@ -2,14 +2,60 @@ package at.huber.youtubeExtractor;
 
 import android.support.annotation.NonNull;
 
+import java.util.Collections;
+import java.util.List;
+
 public class YtFile {
 
     private final Format format;
     private final String url;
+    private final int bitrate;
+    private final long contentLength;
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final String mimeType;
+    private final String codecs;
+    private final ByteRange initRange;
+    private final ByteRange indexRange;
+    private final Segment initSegment;
+    private final List<Segment> segments;
 
     YtFile(Format format, String url) {
+        this(format, url, -1, -1, -1, -1, -1, null, null, null, null);
+    }
+
+    YtFile(Format format, String url, int bitrate, long contentLength, int width, int height, int fps,
+           String mimeType, String codecs, ByteRange initRange, ByteRange indexRange) {
+        this(format, url, bitrate, contentLength, width, height, fps, mimeType, codecs, initRange, indexRange,
+                null, null);
+    }
+
+    YtFile(Format format, String url, int bitrate, long contentLength, int width, int height, int fps,
+           String mimeType, String codecs, ByteRange initRange, ByteRange indexRange,
+           Segment initSegment, List<Segment> segments) {
         this.format = format;
         this.url = url;
+        this.bitrate = bitrate;
+        this.contentLength = contentLength;
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.mimeType = mimeType;
+        this.codecs = codecs;
+        this.initRange = initRange;
+        this.indexRange = indexRange;
+        this.initSegment = initSegment;
+        this.segments = segments != null && !segments.isEmpty() ? Collections.unmodifiableList(segments)
+                : Collections.<Segment>emptyList();
+    }
+
+    /**
+     * A copy of the file with another url, e.g. once its signature is deciphered.
+     */
+    YtFile withUrl(String url) {
+        return new YtFile(format, url, bitrate, contentLength, width, height, fps, mimeType, codecs,
+                initRange, indexRange, initSegment, segments);
     }
 
     /**
@@ -34,6 +80,84 @@ public class YtFile {
         return format;
     }
 
+    /**
+     * The average bitrate of the stream in bit/s or -1 if it is unknown.
+     */
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * The size of the file in bytes or -1 if it is unknown.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * The pixel width of the video or -1 if it is unknown or there is no video.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * The pixel height of the video or the height of its format if it is unknown.
+     */
+    public int getHeight() {
+        return height > 0 ? height : format.getHeight();
+    }
+
+    /**
+     * The frames per second of the video or those of its format if they are unknown.
+     */
+    public int getFps() {
+        return fps > 0 ? fps : format.getFps();
+    }
+
+    /**
+     * The mime type like "video/mp4" or null if it is unknown.
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * The RFC 6381 codecs string like "avc1.4d401f" or null if it is unknown.
+     */
+    public String getCodecs() {
+        return codecs;
+    }
+
+    /**
+     * The bytes of the initialization segment or null if it is unknown.
+     */
+    public ByteRange getInitRange() {
+        return initRange;
+    }
+
+    /**
+     * The bytes of the segment index (sidx or cues) or null if it is unknown.
+     */
+    public ByteRange getIndexRange() {
+        return indexRange;
+    }
+
+    /**
+     * The initialization segment of a segmented stream if it has its own url, otherwise null.
+     */
+    public Segment getInitSegment() {
+        return initSegment;
+    }
+
+    /**
+     * The media segments of a segmented stream in playback order, empty if the stream is one
+     * file. The list can not be modified.
+     */
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -58,6 +182,17 @@ public class YtFile {
         return "YtFile{" +
                 "format=" + format +
                 ", url='" + url + '\'' +
+                ", bitrate=" + bitrate +
+                ", contentLength=" + contentLength +
+                ", width=" + width +
+                ", height=" + height +
+                ", fps=" + fps +
+                ", mimeType='" + mimeType + '\'' +
+                ", codecs='" + codecs + '\'' +
+                ", initRange=" + initRange +
+                ", indexRange=" + indexRange +
+                ", initSegment=" + initSegment +
+                ", segments=" + segments.size() +
                 '}';
     }
 }